@@ -0,0 +1,389 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Holds many concurrent keep-alive connections to the application and dispenses over all of them at once, then
+ * prints the throughput, latency percentiles, failures and the server's thread count and heap.
+ * <p>
+ * Each connection sends a dispense, waits for the response and sends the next, against one of a set of machines
+ * that are initialised and stocked first. Connections are opened in steps so the listen backlog is not flooded.
+ * A single selector thread drives every connection, so the driver needs far less CPU than the server.
+ * <p>
+ * Run from the project directory with the application listening:
+ *   java scripts/DispenseLoad.java [connections] [seconds] [warm up seconds] [machines]
+ * Defaults are 10000 connections, 60 seconds measured after 15 seconds of warm up, across 1000 machines.
+ * Set PORT to change the port (default 8080). Raise the open file limit first: each connection is a file.
+ */
+public class DispenseLoad {
+
+    private static final String HOST = "localhost";
+
+    private static final int PORT = Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
+
+    private static final long REQUEST_TIMEOUT_NANOS = 30_000_000_000L;
+
+    private static final long CONNECT_TIMEOUT_NANOS = 30_000_000_000L;
+
+    private static final int CONNECTIONS_PER_STEP = 500;
+
+    private static final long STEP_MILLIS = 100;
+
+    private static final Pattern STATUS = Pattern.compile("^HTTP/1\\.1 (\\d{3})");
+
+    private static final Pattern CONTENT_LENGTH = Pattern.compile("(?im)^content-length:\\s*(\\d+)");
+
+    private static final Pattern CHUNKED = Pattern.compile("(?im)^transfer-encoding:\\s*chunked");
+
+    public static void main(String[] args) throws Exception {
+
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        int warmUpSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+        int machines = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        for (int machine = 0; machine < machines; machine++) {
+            post("/machines/load-" + machine + "/initialise",
+                    "{\"denominations\":[{\"name\":\"penny\",\"value\":1},{\"name\":\"tuppence\",\"value\":2}],"
+                            + "\"initialCoinAmounts\":{\"penny\":1000000,\"tuppence\":1000000}}");
+        }
+
+        new DispenseLoad(connections, machines).run(warmUpSeconds, seconds);
+    }
+
+    private final int connections;
+
+    private final int machines;
+
+    private final Selector selector;
+
+    private final Stats stats = new Stats();
+
+    private boolean recording;
+
+    private DispenseLoad(int connections, int machines) throws IOException {
+        this.connections = connections;
+        this.machines = machines;
+        this.selector = Selector.open();
+    }
+
+    private void run(int warmUpSeconds, int seconds) throws IOException {
+
+        List<Connection> all = new ArrayList<>(connections);
+        long start = System.nanoTime();
+        long warmUpEnd = start + warmUpSeconds * 1_000_000_000L;
+        long end = warmUpEnd + seconds * 1_000_000_000L;
+        long nextStep = start;
+        long nextCheck = start;
+        int peakOpen = 0;
+
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            if (!recording && now >= warmUpEnd) {
+                recording = true;
+                stats.reset();
+            }
+            if (all.size() < connections && now >= nextStep) {
+                for (int opened = 0; opened < CONNECTIONS_PER_STEP && all.size() < connections; opened++) {
+                    Connection connection = new Connection(all.size() % machines);
+                    all.add(connection);
+                    connection.connect();
+                }
+                nextStep = now + STEP_MILLIS * 1_000_000L;
+            }
+            if (now >= nextCheck) {
+                int open = 0;
+                for (Connection connection : all) {
+                    connection.checkTimeout(now);
+                    if (connection.connected) {
+                        open++;
+                    }
+                }
+                peakOpen = Math.max(peakOpen, open);
+                nextCheck = now + 1_000_000_000L;
+            }
+
+            selector.select(10);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                ((Connection) key.attachment()).ready(key);
+            }
+        }
+
+        int open = 0;
+        int waiting = 0;
+        for (Connection connection : all) {
+            if (connection.connected) {
+                open++;
+            }
+            if (connection.sentAt != 0) {
+                waiting++;
+            }
+            connection.close();
+        }
+
+        System.out.printf("connections: %d requested, %d peak open, %d open at the end%n", connections, peakOpen, open);
+        stats.print(seconds);
+        System.out.printf("requests in flight at the end: %d%n", waiting);
+        System.out.printf("server threads live %s peak %s, heap used %s MB%n",
+                metric("jvm.threads.live", null), metric("jvm.threads.peak", null),
+                Math.round(Double.parseDouble(metric("jvm.memory.used", "area:heap")) / 1024 / 1024));
+    }
+
+    /**
+     * One keep-alive connection sending a dispense at a time.
+     */
+    private final class Connection {
+
+        private final ByteBuffer request;
+
+        private final ByteBuffer response = ByteBuffer.allocate(16 * 1024);
+
+        private SocketChannel channel;
+
+        private boolean connected;
+
+        private long connectStartedAt;
+
+        private long sentAt;
+
+        private Connection(int machine) {
+            byte[] bytes = ("PUT /machines/load-" + machine + "/dispense HTTP/1.1\r\nHost: " + HOST + "\r\n"
+                    + "Content-Type: application/json\r\nAccept: application/json\r\nContent-Length: 1\r\n\r\n3")
+                    .getBytes(StandardCharsets.US_ASCII);
+            this.request = ByteBuffer.wrap(bytes);
+        }
+
+        private void connect() throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            connectStartedAt = System.nanoTime();
+            try {
+                if (channel.connect(new InetSocketAddress(HOST, PORT))) {
+                    connected();
+                }
+                else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            }
+            catch (IOException e) {
+                stats.connectErrors++;
+                close();
+            }
+        }
+
+        private void connected() throws IOException {
+            connected = true;
+            connectStartedAt = 0;
+            send();
+        }
+
+        private void send() throws IOException {
+            request.rewind();
+            response.clear();
+            sentAt = System.nanoTime();
+            channel.write(request);
+            channel.register(selector, request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ, this);
+        }
+
+        private void ready(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    connected();
+                }
+                else if (key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                else if (key.isReadable()) {
+                    if (channel.read(response) < 0) {
+                        stats.readErrors++;
+                        reconnect();
+                        return;
+                    }
+                    int status = complete();
+                    if (status > 0) {
+                        stats.completed(status, System.nanoTime() - sentAt, recording);
+                        send();
+                    }
+                }
+            }
+            catch (IOException e) {
+                if (connected) {
+                    stats.readErrors++;
+                }
+                else {
+                    stats.connectErrors++;
+                }
+                reconnect();
+            }
+        }
+
+        /**
+         * Get the status of the response once it has all arrived.
+         * @return the status, or zero while more is to come.
+         */
+        private int complete() {
+            String text = new String(response.array(), 0, response.position(), StandardCharsets.US_ASCII);
+            int headerEnd = text.indexOf("\r\n\r\n");
+            if (headerEnd < 0) {
+                return 0;
+            }
+            String headers = text.substring(0, headerEnd);
+            Matcher contentLength = CONTENT_LENGTH.matcher(headers);
+            if (contentLength.find()) {
+                if (text.length() < headerEnd + 4 + Integer.parseInt(contentLength.group(1))) {
+                    return 0;
+                }
+            }
+            else if (CHUNKED.matcher(headers).find() && !text.endsWith("\r\n0\r\n\r\n")) {
+                return 0;
+            }
+            Matcher status = STATUS.matcher(headers);
+            return status.find() ? Integer.parseInt(status.group(1)) : 999;
+        }
+
+        private void checkTimeout(long now) throws IOException {
+            if (sentAt != 0 && now - sentAt > REQUEST_TIMEOUT_NANOS) {
+                stats.timeouts++;
+                reconnect();
+            }
+            else if (connectStartedAt != 0 && now - connectStartedAt > CONNECT_TIMEOUT_NANOS) {
+                stats.connectTimeouts++;
+                reconnect();
+            }
+        }
+
+        private void reconnect() {
+            close();
+            try {
+                connect();
+            }
+            catch (IOException e) {
+                stats.connectErrors++;
+            }
+        }
+
+        private void close() {
+            connected = false;
+            sentAt = 0;
+            connectStartedAt = 0;
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Counts and latencies of the responses received while recording.
+     */
+    private static final class Stats {
+
+        private long[] latencies = new long[1 << 20];
+
+        private int count;
+
+        private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+        private long connectErrors;
+
+        private long connectTimeouts;
+
+        private long readErrors;
+
+        private long timeouts;
+
+        private void reset() {
+            count = 0;
+            statuses.clear();
+            connectErrors = 0;
+            connectTimeouts = 0;
+            readErrors = 0;
+            timeouts = 0;
+        }
+
+        private void completed(int status, long latencyNanos, boolean recording) {
+            if (!recording) {
+                return;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+            statuses.merge(status, 1, Integer::sum);
+        }
+
+        private void print(int seconds) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            System.out.printf("responses: %d in %d s, %.0f per second, by status %s%n",
+                    count, seconds, count / (double) seconds, statuses);
+            System.out.printf("latency ms: p50 %s p90 %s p99 %s max %s%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 1.0));
+            System.out.printf("errors: %d connect, %d connect timeouts, %d read, %d request timeouts%n",
+                    connectErrors, connectTimeouts, readErrors, timeouts);
+        }
+
+        private static String percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return "-";
+            }
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+            return String.format("%.1f", sorted[Math.max(0, index)] / 1_000_000.0);
+        }
+    }
+
+    private static void post(String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://" + HOST + ":" + PORT + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("POST " + path + " returned " + connection.getResponseCode());
+        }
+        connection.getInputStream().close();
+    }
+
+    private static String metric(String name, String tag) throws IOException {
+        String path = "/actuator/metrics/" + name + (tag == null ? "" : "?tag=" + tag);
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://" + HOST + ":" + PORT + path).openConnection();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            in.transferTo(body);
+        }
+        Matcher value = Pattern.compile("\"value\":([0-9.E]+)").matcher(body.toString(StandardCharsets.UTF_8));
+        return value.find() ? value.group(1) : "?";
+    }
+}
@@ -0,0 +1,75 @@
+#!/usr/bin/env bash
+#
+# Measures the time from launching the JVM to the first successful dispense, for the default profile, the
+# faststart profile, and the faststart profile with the AppCDS archive.
+#
+# Build the archive first with ./gradlew cdsArchive, then run from the project directory:
+#   scripts/startup-benchmark.sh [runs]
+# Each configuration is started the given number of times (default 5) and the median and best times are printed.
+# Set PORT to change the port the application listens on (default 18080), and JAVA to use another java binary.
+
+set -euo pipefail
+
+RUNS=${1:-5}
+PORT=${PORT:-18080}
+JAVA=${JAVA:-java}
+CDS_DIR=${CDS_DIR:-build/cds}
+MAIN_CLASS=com.example.lgimtest.LgimtestApplication
+BASE_URL="http://localhost:${PORT}"
+INITIALISATION='{"denominations":[{"name":"penny","value":1},{"name":"tuppence","value":2}],"initialCoinAmounts":{"penny":10,"tuppence":10}}'
+
+if [[ ! -f "${CDS_DIR}/classpath.txt" || ! -f "${CDS_DIR}/lgimtest.jsa" ]]; then
+    echo "No archive in ${CDS_DIR}, run ./gradlew cdsArchive first." >&2
+    exit 1
+fi
+CLASSPATH=$(cat "${CDS_DIR}/classpath.txt")
+
+now_millis() {
+    echo $(( $(date +%s%N) / 1000000 ))
+}
+
+# Start the application with the given JVM options and profile, and print the milliseconds until a dispense
+# succeeds. The machine is initialised as soon as the application answers, then the dispense is sent.
+time_to_first_dispense() {
+    local profile=$1
+    shift
+    local start pid elapsed
+    start=$(now_millis)
+    "${JAVA}" "$@" -cp "${CLASSPATH}" "${MAIN_CLASS}" --server.port="${PORT}" --spring.profiles.active="${profile}" \
+        > /dev/null 2>&1 &
+    pid=$!
+
+    until curl -sf -o /dev/null -X POST -H 'Content-Type: application/json' -d "${INITIALISATION}" "${BASE_URL}/initialise"; do
+        if ! kill -0 "${pid}" 2> /dev/null; then
+            echo "Application exited before it answered." >&2
+            exit 1
+        fi
+        sleep 0.01
+    done
+    if ! curl -sf -o /dev/null -X PUT -H 'Content-Type: application/json' -d 3 "${BASE_URL}/dispense"; then
+        echo "First dispense failed." >&2
+        kill "${pid}"
+        exit 1
+    fi
+    elapsed=$(( $(now_millis) - start ))
+
+    kill "${pid}"
+    wait "${pid}" 2> /dev/null || true
+    echo "${elapsed}"
+}
+
+benchmark() {
+    local label=$1
+    shift
+    local times=()
+    for (( run = 0; run < RUNS; run++ )); do
+        times+=("$(time_to_first_dispense "$@")")
+    done
+    local sorted
+    sorted=($(printf '%s\n' "${times[@]}" | sort -n))
+    printf '%-24s median %6d ms   best %6d ms   runs: %s\n' "${label}" "${sorted[$(( RUNS / 2 ))]}" "${sorted[0]}" "${times[*]}"
+}
+
+benchmark "default" default -Xshare:auto
+benchmark "faststart" faststart -Xshare:auto
+benchmark "faststart + AppCDS" faststart -XX:SharedArchiveFile="${CDS_DIR}/lgimtest.jsa" -Xshare:auto
@@ -0,0 +1,77 @@
+package com.example.lgimtest.model;
+
+import com.example.lgimtest.dto.CoinStateDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the CoinState operations on the request path and building a CoinStateDto from it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoinStateBenchmark {
+
+    private static final String[] NAMES = {"twopound", "pound", "fiftypence", "twentypence", "tenpence", "fivepence", "tuppence", "penny"};
+    private static final int[] VALUES = {200, 100, 50, 20, 10, 5, 2, 1};
+
+    private CoinState coinState;
+    private final int[] coinsToTake = new int[VALUES.length];
+    private final int[] coinCounts = new int[VALUES.length];
+
+    @Setup
+    public void setup() {
+        coinState = new CoinState();
+        for (int index = 0; index < NAMES.length; index++) {
+            coinState.addDenomination(new Denomination(NAMES[index], VALUES[index]));
+            coinState.addCoins(NAMES[index], 1_000_000);
+        }
+        coinsToTake[0] = 1;
+        coinsToTake[6] = 3;
+    }
+
+    @Benchmark
+    public int addAndRemoveCoinByValue() {
+        coinState.addCoins("tuppence", 1);
+        coinState.removeCoinByDenominationValue(2);
+        return coinState.getCoinCount(6);
+    }
+
+    @Benchmark
+    public boolean tryRemoveAndAddCoins() {
+        boolean removed = coinState.tryRemoveCoins(coinsToTake);
+        for (int index = 0; index < coinsToTake.length; index++) {
+            coinState.addCoins(index, coinsToTake[index]);
+        }
+        return removed;
+    }
+
+    @Benchmark
+    public int[] coinCounts() {
+        return coinState.getCoinCounts();
+    }
+
+    @Benchmark
+    public int[] copyCoinCounts() {
+        coinState.copyCoinCounts(coinCounts);
+        return coinCounts;
+    }
+
+    @Benchmark
+    public CoinStateDto coinStateDto() {
+        return new CoinStateDto(coinState);
+    }
+}
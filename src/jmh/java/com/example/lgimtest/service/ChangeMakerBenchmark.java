@@ -0,0 +1,97 @@
+package com.example.lgimtest.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the change makers across realistic and adversarial coin sets and amounts.
+ * Each scenario is a set of denominations, the quantity held of each and the amount requested.
+ * Run with the gc profiler to check that the knapsack change maker does not allocate once its context is warm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeMakerBenchmark {
+
+    /**
+     * The coin set, quantities and amount to benchmark.
+     * sterling: a well stocked canonical set.
+     * sterlingLowStock: a canonical set where greedy change does not fit the stock.
+     * nonCanonical: pre-decimal style coins where greedy change is not optimal.
+     * oddAmountEvenCoins: an amount that cannot be made, so every combination is ruled out.
+     * largeAmount: a large amount over a well stocked canonical set.
+     */
+    @Param({"sterling", "sterlingLowStock", "nonCanonical", "oddAmountEvenCoins", "largeAmount"})
+    public String scenario;
+
+    private int[] coinDenominations;
+    private int[] coinQuantities;
+    private int amount;
+
+    private final ChangeMaker knapsackChangeMaker = new BoundedKnapsackChangeMaker();
+    private final ChangeMaker backtrackingChangeMaker = new BacktrackingChangeMaker();
+
+    /**
+     * Reused across calls as a shard thread reuses its context, so the knapsack tables are not reallocated.
+     */
+    private final ChangeMakerContext context = new ChangeMakerContext();
+
+    @Setup
+    public void setup() {
+        switch (scenario) {
+            case "sterling":
+                setup(new int[]{200, 100, 50, 20, 10, 5, 2, 1}, new int[]{100, 100, 100, 100, 100, 100, 100, 100}, 388);
+                break;
+            case "sterlingLowStock":
+                setup(new int[]{200, 100, 50, 20, 10, 5, 2, 1}, new int[]{2, 1, 0, 3, 1, 0, 40, 20}, 388);
+                break;
+            case "nonCanonical":
+                setup(new int[]{240, 30, 24, 12, 6, 3, 1}, new int[]{50, 50, 50, 50, 50, 50, 50}, 1234);
+                break;
+            case "oddAmountEvenCoins":
+                setup(new int[]{64, 32, 16, 8, 4, 2}, new int[]{1000, 1000, 1000, 1000, 1000, 1000}, 2047);
+                break;
+            case "largeAmount":
+                setup(new int[]{200, 100, 50, 20, 10, 5, 2, 1}, new int[]{1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000}, 123457);
+                break;
+            default:
+                throw new IllegalStateException("Unknown scenario " + scenario);
+        }
+    }
+
+    private void setup(int[] coinDenominations, int[] coinQuantities, int amount) {
+        this.coinDenominations = coinDenominations;
+        this.coinQuantities = coinQuantities;
+        this.amount = amount;
+    }
+
+    @Benchmark
+    public int[] knapsack() {
+        context.reset();
+        return knapsackChangeMaker.makeChange(amount, coinDenominations, coinQuantities, context);
+    }
+
+    @Benchmark
+    public int[] backtracking() {
+        return backtrackingChangeMaker.makeChange(amount, coinDenominations, coinQuantities);
+    }
+
+    @Benchmark
+    public boolean canonicalGreedyCheck() {
+        return CanonicalCoinSystem.greedyChangeFits(amount, coinDenominations, coinQuantities);
+    }
+}
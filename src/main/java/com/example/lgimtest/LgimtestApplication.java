@@ -1,7 +1,13 @@
 package com.example.lgimtest;
 
+import com.example.lgimtest.api.AsyncCoinVendingMachineController;
+import com.example.lgimtest.api.BinaryDispenseServer;
+import com.example.lgimtest.api.CoinVendingMachineController;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import org.springframework.boot.LazyInitializationExcludeFilter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
 
 @SpringBootApplication
 public class LgimtestApplication {
@@ -10,4 +16,14 @@ public class LgimtestApplication {
         SpringApplication.run(LgimtestApplication.class, args);
     }
 
+    /**
+     * Keep the beans the first dispense needs, and those that listen or recover state at startup, eager when lazy
+     * initialisation is on, as it is in the faststart profile. Everything else is created when first used.
+     * @return the filter.
+     */
+    @Bean
+    static LazyInitializationExcludeFilter dispensePathExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(CoinVendingMachineService.class,
+                CoinVendingMachineController.class, AsyncCoinVendingMachineController.class, BinaryDispenseServer.class);
+    }
 }
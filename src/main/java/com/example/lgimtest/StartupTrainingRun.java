@@ -0,0 +1,67 @@
+package com.example.lgimtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Training run for the class data sharing archive built by the cdsArchive Gradle task.
+ * Once the application is ready, it initialises a machine and dispenses from it over HTTP, so the classes the
+ * first requests load are archived along with those loaded at startup, then shuts the application down.
+ * Enabled with lgimtest.startup.training-run=true.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "lgimtest.startup.training-run", havingValue = "true")
+public class StartupTrainingRun implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final String MACHINE_URI = "http://localhost:%d/machines/startup-training/%s";
+
+    private static final String INITIALISATION = "{\"denominations\":[{\"name\":\"penny\",\"value\":1},{\"name\":\"tuppence\",\"value\":2}],"
+            + "\"initialCoinAmounts\":{\"penny\":10,\"tuppence\":10}}";
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+
+        int port = ((WebServerApplicationContext) event.getApplicationContext()).getWebServer().getPort();
+        HttpClient client = HttpClient.newHttpClient();
+        int exitCode = 0;
+        try {
+            send(client, HttpRequest.newBuilder(URI.create(String.format(MACHINE_URI, port, "initialise")))
+                    .POST(HttpRequest.BodyPublishers.ofString(INITIALISATION)));
+            send(client, HttpRequest.newBuilder(URI.create(String.format(MACHINE_URI, port, "dispense")))
+                    .PUT(HttpRequest.BodyPublishers.ofString("3")));
+            send(client, HttpRequest.newBuilder(URI.create(String.format(MACHINE_URI, port, "currentState"))).GET());
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Startup training run failed", e);
+            exitCode = 1;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exitCode = 1;
+        }
+
+        int code = exitCode;
+        System.exit(SpringApplication.exit(event.getApplicationContext(), () -> code));
+    }
+
+    private static void send(HttpClient client, HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request.header("Content-Type", "application/json").build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(String.format("Training request %s answered %d: %s",
+                    response.uri(), response.statusCode(), response.body()));
+        }
+    }
+}
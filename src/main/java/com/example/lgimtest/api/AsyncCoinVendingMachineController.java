@@ -0,0 +1,191 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.dto.CoinStateDto;
+import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.dto.QuoteDto;
+import com.example.lgimtest.dto.UpdateDto;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.example.lgimtest.service.CoinVendingMachineService.DEFAULT_MACHINE_ID;
+
+/**
+ * Rest Controller serving the same endpoints as {@link CoinVendingMachineController} without holding a request
+ * thread while the machine's shard works.
+ * Each endpoint returns as soon as the operation is queued on the shard, and the servlet container writes the
+ * response when the shard completes it, so the number of requests in flight is not limited by request threads.
+ * Enabled with lgimtest.web.mode=async, for example through the async profile.
+ */
+@RestController
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "lgimtest.web.mode", havingValue = "async")
+public class AsyncCoinVendingMachineController {
+
+    private final CoinVendingMachineService coinVendingMachineService;
+
+    /**
+     * Get the current Coin State.
+     * @param ifNoneMatch entity tag of the coin state the client already has, if any.
+     * @return The current coin state of the vending machine, or 304 Not Modified if it has not changed
+     */
+    @GetMapping("/currentState")
+    public CompletableFuture<ResponseEntity<byte[]>> currentState(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return currentState(DEFAULT_MACHINE_ID, ifNoneMatch);
+    }
+
+    /**
+     * Initialise the Coin State.
+     * @param initialisationDto The current coin state will be overridden by this new value.
+     * @return The current coin state of the vending machine
+     */
+    @PostMapping("/initialise")
+    public CompletableFuture<ResponseEntity<CoinStateDto>> initialise(@RequestBody InitialisationDto initialisationDto) {
+        return initialise(DEFAULT_MACHINE_ID, initialisationDto);
+    }
+
+    /**
+     * Update the Coin State.
+     * @param updateDto The current coin state will be updated with the values from this parameter.
+     * @return The current coin state of the vending machine
+     */
+    @PutMapping("/update")
+    public CompletableFuture<ResponseEntity<CoinStateDto>> update(@RequestBody UpdateDto updateDto) {
+        return update(DEFAULT_MACHINE_ID, updateDto);
+    }
+
+    /**
+     * Dispense coins.
+     * @param amountRequested The requested amount to be dispensed.
+     * @return The coins to be dispensed, or why none can be.
+     */
+    @PutMapping("/dispense")
+    public CompletableFuture<ResponseEntity<?>> dispense(@RequestBody Integer amountRequested) {
+        return dispense(DEFAULT_MACHINE_ID, amountRequested);
+    }
+
+    /**
+     * Check whether an amount can be dispensed, without dispensing it.
+     * @param amount The amount to check.
+     * @return Whether the amount can be dispensed and the largest amount that can be dispensed up to it, or why
+     * it cannot be checked.
+     */
+    @GetMapping("/dispensable")
+    public CompletableFuture<ResponseEntity<?>> dispensable(@RequestParam Integer amount) {
+        return dispensable(DEFAULT_MACHINE_ID, amount);
+    }
+
+    /**
+     * Dispense coins for each of a batch of amounts.
+     * @param amountsRequested The requested amounts to be dispensed, in order.
+     * @return The result for each amount, either the coins dispensed or why it was rejected, or why the batch was
+     * turned away.
+     */
+    @PutMapping("/dispense/batch")
+    public CompletableFuture<ResponseEntity<?>> dispenseBatch(@RequestBody List<Integer> amountsRequested) {
+        return dispenseBatch(DEFAULT_MACHINE_ID, amountsRequested);
+    }
+
+    /**
+     * Quote the coins that would be dispensed for each of a list of amounts, without dispensing anything.
+     * @param amountsRequested The amounts to quote.
+     * @return The quote for each amount, either the coins that would be dispensed or why it cannot be.
+     */
+    @PostMapping("/quote")
+    public CompletableFuture<ResponseEntity<List<QuoteDto>>> quote(@RequestBody List<Integer> amountsRequested) {
+        return quote(DEFAULT_MACHINE_ID, amountsRequested);
+    }
+
+    /**
+     * Get the current Coin State of a machine.
+     * @param machineId id of the machine.
+     * @param ifNoneMatch entity tag of the coin state the client already has, if any.
+     * @return The current coin state of the vending machine, or 304 Not Modified if it has not changed
+     */
+    @GetMapping("/machines/{machineId}/currentState")
+    public CompletableFuture<ResponseEntity<byte[]>> currentState(@PathVariable String machineId,
+                                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return coinVendingMachineService.getSnapshotAsync(machineId).thenApply(snapshot -> CoinStateResponses.of(snapshot, ifNoneMatch));
+    }
+
+    /**
+     * Initialise the Coin State of a machine.
+     * @param machineId id of the machine.
+     * @param initialisationDto The current coin state will be overridden by this new value.
+     * @return The current coin state of the vending machine
+     */
+    @PostMapping("/machines/{machineId}/initialise")
+    public CompletableFuture<ResponseEntity<CoinStateDto>> initialise(@PathVariable String machineId, @RequestBody InitialisationDto initialisationDto) {
+        return coinVendingMachineService.initialiseAsync(machineId, initialisationDto).thenApply(ResponseEntity::ok);
+    }
+
+    /**
+     * Update the Coin State of a machine.
+     * @param machineId id of the machine.
+     * @param updateDto The current coin state will be updated with the values from this parameter.
+     * @return The current coin state of the vending machine
+     */
+    @PutMapping("/machines/{machineId}/update")
+    public CompletableFuture<ResponseEntity<CoinStateDto>> update(@PathVariable String machineId, @RequestBody UpdateDto updateDto) {
+        return coinVendingMachineService.updateAsync(machineId, updateDto).thenApply(ResponseEntity::ok);
+    }
+
+    /**
+     * Dispense coins from a machine.
+     * @param machineId id of the machine.
+     * @param amountRequested The requested amount to be dispensed.
+     * @return The coins to be dispensed, or why none can be.
+     */
+    @PutMapping("/machines/{machineId}/dispense")
+    public CompletableFuture<ResponseEntity<?>> dispense(@PathVariable String machineId, @RequestBody Integer amountRequested) {
+        return coinVendingMachineService.dispenseOutcomeAsync(machineId, amountRequested).thenApply(DispenseResponses::of);
+    }
+
+    /**
+     * Check whether a machine can dispense an amount, without dispensing it.
+     * @param machineId id of the machine.
+     * @param amount The amount to check.
+     * @return Whether the amount can be dispensed and the largest amount that can be dispensed up to it, or why
+     * it cannot be checked.
+     */
+    @GetMapping("/machines/{machineId}/dispensable")
+    public CompletableFuture<ResponseEntity<?>> dispensable(@PathVariable String machineId, @RequestParam Integer amount) {
+        return coinVendingMachineService.dispensableOutcomeAsync(machineId, amount).thenApply(DispenseResponses::of);
+    }
+
+    /**
+     * Dispense coins from a machine for each of a batch of amounts.
+     * @param machineId id of the machine.
+     * @param amountsRequested The requested amounts to be dispensed, in order.
+     * @return The result for each amount, either the coins dispensed or why it was rejected, or why the batch was
+     * turned away.
+     */
+    @PutMapping("/machines/{machineId}/dispense/batch")
+    public CompletableFuture<ResponseEntity<?>> dispenseBatch(@PathVariable String machineId, @RequestBody List<Integer> amountsRequested) {
+        return coinVendingMachineService.dispenseBatchOutcomeAsync(machineId, amountsRequested).thenApply(DispenseResponses::of);
+    }
+
+    /**
+     * Quote the coins a machine would dispense for each of a list of amounts, without dispensing anything.
+     * @param machineId id of the machine.
+     * @param amountsRequested The amounts to quote.
+     * @return The quote for each amount, either the coins that would be dispensed or why it cannot be.
+     */
+    @PostMapping("/machines/{machineId}/quote")
+    public CompletableFuture<ResponseEntity<List<QuoteDto>>> quote(@PathVariable String machineId, @RequestBody List<Integer> amountsRequested) {
+        return coinVendingMachineService.quoteAsync(machineId, amountsRequested).thenApply(ResponseEntity::ok);
+    }
+}
@@ -0,0 +1,522 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.dto.CoinStateDto;
+import com.example.lgimtest.dto.DispensableDto;
+import com.example.lgimtest.dto.DispensableOutcome;
+import com.example.lgimtest.dto.DispenseFailure;
+import com.example.lgimtest.dto.DispenseOutcome;
+import com.example.lgimtest.dto.UpdateDto;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import com.example.lgimtest.service.MachineOverloadedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Binary TCP listener serving the vending machine operations without the cost of HTTP and JSON, for kiosks on
+ * the same network. Enabled by setting lgimtest.binary.port, 0 for any free port.
+ * <p>
+ * Every frame starts with its length as an unsigned short, not counting the length itself. A request is the
+ * operation byte, the machine id as a byte length and UTF-8 bytes, then the operation's arguments. A response is
+ * a status byte, then the operation's result if the status is OK, or else the error message as a short length
+ * and UTF-8 bytes. Coins are sent as a byte count of denominations, then for each its name, as a byte length and
+ * UTF-8 bytes, and an int number of coins. Numbers are big endian. Initialise limits the denominations and their
+ * names, so the coins of any machine fit in these lengths and in one frame, and a dispense is never answered
+ * with anything but its coins once it has taken them.
+ * <ul>
+ * <li>DISPENSE (1): int amount. Result: the coins dispensed.</li>
+ * <li>DISPENSABLE (2): int amount. Result: byte 1 if the amount can be dispensed or 0 if not, then the int
+ * largest amount up to it that can.</li>
+ * <li>CURRENT_STATE (3): no arguments. Result: the coins held.</li>
+ * <li>UPDATE (4): the coins to add. Result: the coins held.</li>
+ * </ul>
+ * Statuses are OK (0), REJECTED (1) where the HTTP API answers 400, FAILED (2) where it answers 500, and
+ * OVERLOADED (3) where it answers 503, when the request may be sent again after a short wait.
+ * <p>
+ * Connections are kept open and requests can be pipelined: a client may send any number of requests without
+ * waiting, and the responses come back in the order the requests were sent. One selector thread does all the
+ * socket work and the operations run on the machines' shards, so the selector never waits for a machine.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "lgimtest.binary.port")
+public class BinaryDispenseServer implements DisposableBean {
+
+    static final byte DISPENSE = 1;
+    static final byte DISPENSABLE = 2;
+    static final byte CURRENT_STATE = 3;
+    static final byte UPDATE = 4;
+
+    static final byte OK = 0;
+    static final byte REJECTED = 1;
+    static final byte FAILED = 2;
+    static final byte OVERLOADED = 3;
+
+    private static final int LENGTH_SIZE = 2;
+    private static final int MAX_FRAME_SIZE = LENGTH_SIZE + 0xFFFF;
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    /**
+     * Most requests a connection can have waiting for a response before the server stops reading from it.
+     */
+    private static final int MAX_PENDING_REQUESTS = 1024;
+
+    /**
+     * Encoded message of each way a dispense or dispensable check can fail, so failures are answered without
+     * encoding.
+     */
+    private static final Map<DispenseFailure, byte[]> FAILURE_MESSAGES = new EnumMap<>(DispenseFailure.class);
+
+    static {
+        for (DispenseFailure failure : DispenseFailure.values()) {
+            FAILURE_MESSAGES.put(failure, failure.getMessage().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private final CoinVendingMachineService coinVendingMachineService;
+
+    private final int port;
+
+    /**
+     * Connections with a response that may be ready to send, queued by whichever thread completed it.
+     */
+    private final Queue<Connection> completedConnections = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Response being encoded, only used by the selector thread.
+     */
+    private final ByteBuffer response = ByteBuffer.allocate(MAX_FRAME_SIZE);
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private volatile boolean running;
+
+    public BinaryDispenseServer(CoinVendingMachineService coinVendingMachineService,
+                                @Value("${lgimtest.binary.port}") int port) {
+        this.coinVendingMachineService = coinVendingMachineService;
+        this.port = port;
+    }
+
+    /**
+     * Start listening.
+     * @throws IOException if the port cannot be opened.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        Thread selectorThread = new Thread(this::run, "binary-dispense-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        log.info("Binary dispense listener started on port {}", getLocalPort());
+    }
+
+    /**
+     * Get the port being listened on.
+     * @return the port.
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        }
+                        catch (IOException e) {
+                            log.warn("Cannot accept binary dispense connection", e);
+                        }
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    }
+                    catch (IOException | RuntimeException e) {
+                        log.debug("Binary dispense connection failed, closing it", e);
+                        connection.close();
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                Connection connection;
+                while ((connection = completedConnections.poll()) != null) {
+                    connection.sendCompleted();
+                }
+            }
+        }
+        catch (IOException e) {
+            log.error("Binary dispense listener stopped", e);
+        }
+        finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Start the operation for a request.
+     * @param operation the operation.
+     * @param frame the rest of the request.
+     * @return the operation's result, once its shard completes it.
+     */
+    private CompletableFuture<?> dispatch(byte operation, ByteBuffer frame) {
+        try {
+            String machineId = getString(frame, frame.get() & 0xFF);
+            switch (operation) {
+                case DISPENSE:
+                    return coinVendingMachineService.dispenseOutcomeAsync(machineId, frame.getInt());
+                case DISPENSABLE:
+                    return coinVendingMachineService.dispensableOutcomeAsync(machineId, frame.getInt());
+                case CURRENT_STATE:
+                    return coinVendingMachineService.getAsync(machineId);
+                case UPDATE:
+                    UpdateDto updateDto = new UpdateDto();
+                    updateDto.setAddCoinAmounts(getCoins(frame));
+                    return coinVendingMachineService.updateAsync(machineId, updateDto);
+                default:
+                    throw new IllegalStateException(String.format("Unknown operation %d.", operation));
+            }
+        }
+        catch (BufferUnderflowException e) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Request is shorter than its operation needs."));
+        }
+        catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Encode the response to a completed request.
+     * @param operation the operation requested.
+     * @param result the operation's result, which has completed.
+     * @return the response frame, including its length, valid until the next call.
+     */
+    private ByteBuffer encode(byte operation, CompletableFuture<?> result) {
+
+        Throwable failure;
+        try {
+            Object value = result.join();
+            response.clear();
+            response.position(LENGTH_SIZE);
+            response.put(OK);
+            switch (operation) {
+                case DISPENSE:
+                    DispenseOutcome outcome = (DispenseOutcome) value;
+                    if (!outcome.isDispensed()) {
+                        return error(outcome.getFailure() == DispenseFailure.OVERLOADED ? OVERLOADED : REJECTED,
+                                FAILURE_MESSAGES.get(outcome.getFailure()));
+                    }
+                    putCoins(response, outcome.getDispensed().getDispensedCoinAmounts());
+                    break;
+                case DISPENSABLE:
+                    DispensableOutcome dispensableOutcome = (DispensableOutcome) value;
+                    if (!dispensableOutcome.isChecked()) {
+                        return error(REJECTED, FAILURE_MESSAGES.get(dispensableOutcome.getFailure()));
+                    }
+                    DispensableDto dispensableDto = dispensableOutcome.getDispensable();
+                    response.put(dispensableDto.isDispensable() ? (byte) 1 : (byte) 0);
+                    response.putInt(dispensableDto.getLargestDispensableAmount());
+                    break;
+                default:
+                    putCoins(response, ((CoinStateDto) value).getCoinAmounts());
+                    break;
+            }
+            return finish(response);
+        }
+        catch (CompletionException e) {
+            failure = e.getCause();
+        }
+        catch (RuntimeException e) {
+            // not expected, as every machine's coins fit in a frame
+            log.error("Cannot encode binary dispense response", e);
+            failure = e;
+        }
+
+        boolean rejected = failure instanceof IllegalStateException;
+        boolean overloaded = failure instanceof MachineOverloadedException;
+        if (!rejected && !overloaded) {
+            log.debug("Binary dispense request failed", failure);
+        }
+        byte[] message = String.valueOf(failure.getMessage()).getBytes(StandardCharsets.UTF_8);
+        return error(rejected ? REJECTED : overloaded ? OVERLOADED : FAILED, message);
+    }
+
+    /**
+     * Encode an error response.
+     * @param status the status of the response.
+     * @param message the error message, as UTF-8 bytes.
+     * @return the response frame, including its length, valid until the next call.
+     */
+    private ByteBuffer error(byte status, byte[] message) {
+        int messageLength = Math.min(message.length, Short.MAX_VALUE);
+        response.clear();
+        response.position(LENGTH_SIZE);
+        response.put(status);
+        response.putShort((short) messageLength);
+        response.put(message, 0, messageLength);
+        return finish(response);
+    }
+
+    private static ByteBuffer finish(ByteBuffer frame) {
+        frame.putShort(0, (short) (frame.position() - LENGTH_SIZE));
+        frame.flip();
+        return frame;
+    }
+
+    private static String getString(ByteBuffer buffer, int length) {
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static Map<String, Integer> getCoins(ByteBuffer buffer) {
+        int count = buffer.get() & 0xFF;
+        Map<String, Integer> coins = new HashMap<>();
+        for (int index = 0; index < count; index++) {
+            String name = getString(buffer, buffer.get() & 0xFF);
+            coins.put(name, buffer.getInt());
+        }
+        return coins;
+    }
+
+    /**
+     * Encode coins. The count and name lengths fit in a byte, as initialise limits them.
+     */
+    private static void putCoins(ByteBuffer buffer, Map<String, Integer> coins) {
+        buffer.put((byte) coins.size());
+        for (Map.Entry<String, Integer> coin : coins.entrySet()) {
+            byte[] name = coin.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.put((byte) name.length);
+            buffer.put(name);
+            buffer.putInt(coin.getValue());
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (Exception e) {
+            log.debug("Cannot close {}", closeable, e);
+        }
+    }
+
+    /**
+     * A request waiting for its response to be sent.
+     */
+    private static final class Request {
+
+        private final byte operation;
+
+        private final CompletableFuture<?> result;
+
+        private Request(byte operation, CompletableFuture<?> result) {
+            this.operation = operation;
+            this.result = result;
+        }
+    }
+
+    /**
+     * A client connection. Only used by the selector thread, apart from queueing it when a response completes.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        /**
+         * Requests in the order they arrived, the oldest first.
+         */
+        private final ArrayDeque<Request> pending = new ArrayDeque<>();
+
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        private boolean closed;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+
+            readBuffer.flip();
+            int frameSize = 0;
+            while (readBuffer.remaining() >= LENGTH_SIZE) {
+                frameSize = LENGTH_SIZE + (readBuffer.getShort(readBuffer.position()) & 0xFFFF);
+                if (readBuffer.remaining() < frameSize) {
+                    break;
+                }
+
+                int limit = readBuffer.limit();
+                int end = readBuffer.position() + frameSize;
+                readBuffer.position(readBuffer.position() + LENGTH_SIZE);
+                readBuffer.limit(end);
+                byte operation = readBuffer.hasRemaining() ? readBuffer.get() : 0;
+                Request request = new Request(operation, dispatch(operation, readBuffer));
+                readBuffer.limit(limit);
+                readBuffer.position(end);
+
+                pending.add(request);
+                request.result.whenComplete((value, e) -> completed());
+                frameSize = 0;
+            }
+            readBuffer.compact();
+
+            if (readBuffer.capacity() < frameSize) {
+                // the next frame is larger than the buffer
+                ByteBuffer largerBuffer = ByteBuffer.allocate(frameSize);
+                readBuffer.flip();
+                largerBuffer.put(readBuffer);
+                readBuffer = largerBuffer;
+            }
+
+            if (pending.size() >= MAX_PENDING_REQUESTS) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Queue the connection to send its completed responses, called on the thread that completed one.
+         */
+        private void completed() {
+            if (queued.compareAndSet(false, true)) {
+                completedConnections.add(this);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Send the responses that are ready, stopping at the first request still in progress so responses keep
+         * the order of the requests.
+         */
+        private void sendCompleted() {
+
+            queued.set(false);
+            if (closed) {
+                return;
+            }
+
+            while (!pending.isEmpty() && pending.peek().result.isDone()) {
+                Request request = pending.poll();
+                ByteBuffer frame = encode(request.operation, request.result);
+                if (writeBuffer.remaining() < frame.remaining()) {
+                    ByteBuffer largerBuffer = ByteBuffer.allocate(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + frame.remaining()));
+                    writeBuffer.flip();
+                    largerBuffer.put(writeBuffer);
+                    writeBuffer = largerBuffer;
+                }
+                writeBuffer.put(frame);
+            }
+
+            try {
+                write();
+            }
+            catch (IOException | RuntimeException e) {
+                log.debug("Binary dispense connection failed, closing it", e);
+                close();
+                return;
+            }
+
+            if (pending.size() < MAX_PENDING_REQUESTS && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        private void write() throws IOException {
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+            writeBuffer.compact();
+            if (writeBuffer.position() > 0) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+}
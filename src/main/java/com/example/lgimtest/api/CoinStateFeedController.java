@@ -0,0 +1,74 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.dto.CoinStateChangeDto;
+import com.example.lgimtest.service.CoinStateFeed;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+import static com.example.lgimtest.service.CoinVendingMachineService.DEFAULT_MACHINE_ID;
+
+/**
+ * Rest Controller streaming the changes to a machine's coins as server sent events, instead of clients polling
+ * the current state. Each event is named change, with the coin state version as its id and a
+ * CoinStateChangeDto as its data.
+ */
+@RestController
+@RequiredArgsConstructor
+public class CoinStateFeedController {
+
+    private final CoinVendingMachineService coinVendingMachineService;
+
+    @Value("${lgimtest.feed.timeout-ms:1800000}")
+    private long timeoutMillis;
+
+    /**
+     * Follow the changes to the Coin State.
+     * @return The stream of changes, starting with the count of every denomination.
+     */
+    @GetMapping(path = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changes() {
+        return changes(DEFAULT_MACHINE_ID);
+    }
+
+    /**
+     * Follow the changes to the Coin State of a machine.
+     * @param machineId id of the machine.
+     * @return The stream of changes, starting with the count of every denomination.
+     */
+    @GetMapping(path = "/machines/{machineId}/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changes(@PathVariable String machineId) {
+
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        CoinStateFeed.Subscription subscription = coinVendingMachineService.subscribe(machineId, new CoinStateFeed.Listener() {
+
+            @Override
+            public void onChange(CoinStateChangeDto change) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .name("change")
+                        .id(Long.toString(change.getVersion()))
+                        .data(change, MediaType.APPLICATION_JSON));
+            }
+
+            /**
+             * Complete the response, so the connection is not held open until the emitter times out.
+             */
+            @Override
+            public void onDropped() {
+                emitter.complete();
+            }
+        });
+
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.dto.CoinStateSnapshot;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Builds current state responses from coin state snapshots.
+ */
+final class CoinStateResponses {
+
+    private CoinStateResponses() {
+    }
+
+    /**
+     * Build the response for a snapshot.
+     * @param snapshot the snapshot.
+     * @param ifNoneMatch the If-None-Match header of the request, if any.
+     * @return 304 Not Modified if the client already has the snapshot, otherwise its pre-serialized JSON.
+     */
+    static ResponseEntity<byte[]> of(CoinStateSnapshot snapshot, String ifNoneMatch) {
+        if (matches(ifNoneMatch, snapshot.getETag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getETag()).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getETag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmedTag = tag.trim();
+            // weak comparison, as If-None-Match uses
+            if (trimmedTag.startsWith("W/")) {
+                trimmedTag = trimmedTag.substring(2);
+            }
+            if (trimmedTag.equals("*") || trimmedTag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,36 +1,49 @@
 package com.example.lgimtest.api;
 
 import com.example.lgimtest.dto.CoinStateDto;
-import com.example.lgimtest.dto.DispensedDto;
 import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.dto.QuoteDto;
 import com.example.lgimtest.dto.UpdateDto;
 import com.example.lgimtest.model.CoinState;
 import com.example.lgimtest.service.CoinVendingMachineService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.Mapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 /**
  * Rest Controller to provide api layer for the coin vending machine.
+ * The endpoints under /machines/{machineId} address one machine of the fleet, the top level endpoints address
+ * the default machine.
+ * Request threads wait for each operation to finish. {@link AsyncCoinVendingMachineController} serves the same
+ * endpoints without waiting when lgimtest.web.mode=async.
  */
 @RestController
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "lgimtest.web.mode", havingValue = "blocking", matchIfMissing = true)
 public class CoinVendingMachineController {
 
     private final CoinVendingMachineService coinVendingMachineService;
 
     /**
      * Get the current Coin State.
-     * @return The current coin state of the vending machine
+     * @param ifNoneMatch entity tag of the coin state the client already has, if any.
+     * @return The current coin state of the vending machine, or 304 Not Modified if it has not changed
      */
     @GetMapping("/currentState")
-    public ResponseEntity<CoinStateDto> get() {
-        return ResponseEntity.ok(coinVendingMachineService.get());
+    public ResponseEntity<byte[]> currentState(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return CoinStateResponses.of(coinVendingMachineService.getSnapshot(), ifNoneMatch);
     }
 
     /**
@@ -56,10 +69,122 @@ public class CoinVendingMachineController {
     /**
      * Dispense coins.
      * @param amountRequested The requested amount to be dispensed.
-     * @return The coins to be dispensed.
+     * @return The coins to be dispensed, or why none can be.
      */
     @PutMapping("/dispense")
-    public ResponseEntity<DispensedDto> dispense(@RequestBody Integer amountRequested) {
-        return ResponseEntity.ok(coinVendingMachineService.dispense(amountRequested));
+    public ResponseEntity<?> dispense(@RequestBody Integer amountRequested) {
+        return DispenseResponses.of(coinVendingMachineService.dispenseOutcome(amountRequested));
+    }
+
+    /**
+     * Check whether an amount can be dispensed, without dispensing it.
+     * @param amount The amount to check.
+     * @return Whether the amount can be dispensed and the largest amount that can be dispensed up to it, or why
+     * it cannot be checked.
+     */
+    @GetMapping("/dispensable")
+    public ResponseEntity<?> dispensable(@RequestParam Integer amount) {
+        return DispenseResponses.of(coinVendingMachineService.dispensableOutcome(amount));
+    }
+
+    /**
+     * Dispense coins for each of a batch of amounts.
+     * @param amountsRequested The requested amounts to be dispensed, in order.
+     * @return The result for each amount, either the coins dispensed or why it was rejected, or why the batch was
+     * turned away.
+     */
+    @PutMapping("/dispense/batch")
+    public ResponseEntity<?> dispenseBatch(@RequestBody List<Integer> amountsRequested) {
+        return DispenseResponses.of(coinVendingMachineService.dispenseBatchOutcome(amountsRequested));
+    }
+
+    /**
+     * Quote the coins that would be dispensed for each of a list of amounts, without dispensing anything.
+     * @param amountsRequested The amounts to quote.
+     * @return The quote for each amount, either the coins that would be dispensed or why it cannot be.
+     */
+    @PostMapping("/quote")
+    public ResponseEntity<List<QuoteDto>> quote(@RequestBody List<Integer> amountsRequested) {
+        return ResponseEntity.ok(coinVendingMachineService.quote(amountsRequested));
+    }
+
+    /**
+     * Get the current Coin State of a machine.
+     * @param machineId id of the machine.
+     * @param ifNoneMatch entity tag of the coin state the client already has, if any.
+     * @return The current coin state of the vending machine, or 304 Not Modified if it has not changed
+     */
+    @GetMapping("/machines/{machineId}/currentState")
+    public ResponseEntity<byte[]> currentState(@PathVariable String machineId,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return CoinStateResponses.of(coinVendingMachineService.getSnapshot(machineId), ifNoneMatch);
+    }
+
+    /**
+     * Initialise the Coin State of a machine.
+     * @param machineId id of the machine.
+     * @param initialisationDto The current coin state will be overridden by this new value.
+     * @return The current coin state of the vending machine
+     */
+    @PostMapping("/machines/{machineId}/initialise")
+    public ResponseEntity<CoinStateDto> initialise(@PathVariable String machineId, @RequestBody InitialisationDto initialisationDto) {
+        return ResponseEntity.ok(coinVendingMachineService.initialise(machineId, initialisationDto));
+    }
+
+    /**
+     * Update the Coin State of a machine.
+     * @param machineId id of the machine.
+     * @param updateDto The current coin state will be updated with the values from this parameter.
+     * @return The current coin state of the vending machine
+     */
+    @PutMapping("/machines/{machineId}/update")
+    public ResponseEntity<CoinStateDto> update(@PathVariable String machineId, @RequestBody UpdateDto updateDto) {
+        return ResponseEntity.ok(coinVendingMachineService.update(machineId, updateDto));
+    }
+
+    /**
+     * Dispense coins from a machine.
+     * @param machineId id of the machine.
+     * @param amountRequested The requested amount to be dispensed.
+     * @return The coins to be dispensed, or why none can be.
+     */
+    @PutMapping("/machines/{machineId}/dispense")
+    public ResponseEntity<?> dispense(@PathVariable String machineId, @RequestBody Integer amountRequested) {
+        return DispenseResponses.of(coinVendingMachineService.dispenseOutcome(machineId, amountRequested));
+    }
+
+    /**
+     * Check whether a machine can dispense an amount, without dispensing it.
+     * @param machineId id of the machine.
+     * @param amount The amount to check.
+     * @return Whether the amount can be dispensed and the largest amount that can be dispensed up to it, or why
+     * it cannot be checked.
+     */
+    @GetMapping("/machines/{machineId}/dispensable")
+    public ResponseEntity<?> dispensable(@PathVariable String machineId, @RequestParam Integer amount) {
+        return DispenseResponses.of(coinVendingMachineService.dispensableOutcome(machineId, amount));
+    }
+
+    /**
+     * Dispense coins from a machine for each of a batch of amounts.
+     * @param machineId id of the machine.
+     * @param amountsRequested The requested amounts to be dispensed, in order.
+     * @return The result for each amount, either the coins dispensed or why it was rejected, or why the batch was
+     * turned away.
+     */
+    @PutMapping("/machines/{machineId}/dispense/batch")
+    public ResponseEntity<?> dispenseBatch(@PathVariable String machineId, @RequestBody List<Integer> amountsRequested) {
+        return DispenseResponses.of(coinVendingMachineService.dispenseBatchOutcome(machineId, amountsRequested));
+    }
+
+    /**
+     * Quote the coins a machine would dispense for each of a list of amounts, without dispensing anything.
+     * @param machineId id of the machine.
+     * @param amountsRequested The amounts to quote.
+     * @return The quote for each amount, either the coins that would be dispensed or why it cannot be.
+     */
+    @PostMapping("/machines/{machineId}/quote")
+    public ResponseEntity<List<QuoteDto>> quote(@PathVariable String machineId, @RequestBody List<Integer> amountsRequested) {
+        return ResponseEntity.ok(coinVendingMachineService.quote(machineId, amountsRequested));
     }
 }
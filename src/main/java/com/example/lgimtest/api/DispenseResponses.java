@@ -0,0 +1,68 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.dto.DispensableOutcome;
+import com.example.lgimtest.dto.DispenseBatchOutcome;
+import com.example.lgimtest.dto.DispenseFailure;
+import com.example.lgimtest.dto.DispenseOutcome;
+import com.example.lgimtest.errorhandling.ErrorResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Builds dispense, dispense batch and dispensable responses from their outcomes.
+ * A failed dispense is answered with the same error body as a thrown failure, its message and a timestamp, but
+ * without an exception or stack trace.
+ */
+final class DispenseResponses {
+
+    private DispenseResponses() {
+    }
+
+    /**
+     * Build the response for an outcome.
+     * @param outcome the outcome of a dispense.
+     * @return the coins dispensed, 503 Service Unavailable with Retry-After if the machine was too busy, otherwise
+     * 400 Bad Request with why nothing was dispensed.
+     */
+    static ResponseEntity<?> of(DispenseOutcome outcome) {
+        if (outcome.isDispensed()) {
+            return ResponseEntity.ok(outcome.getDispensed());
+        }
+        return failure(outcome.getFailure(), outcome.getRetryAfterSeconds());
+    }
+
+    /**
+     * Build the response for a dispense batch outcome.
+     * @param outcome the outcome of a dispense batch.
+     * @return the result for each amount, 503 Service Unavailable with Retry-After if the machine was too busy,
+     * otherwise 400 Bad Request with why the batch was turned away.
+     */
+    static ResponseEntity<?> of(DispenseBatchOutcome outcome) {
+        if (outcome.isDispensed()) {
+            return ResponseEntity.ok(outcome.getResults());
+        }
+        return failure(outcome.getFailure(), outcome.getRetryAfterSeconds());
+    }
+
+    /**
+     * Build the response for a dispensable check outcome.
+     * @param outcome the outcome of a dispensable check.
+     * @return the answer, otherwise 400 Bad Request with why the check was not made.
+     */
+    static ResponseEntity<?> of(DispensableOutcome outcome) {
+        if (outcome.isChecked()) {
+            return ResponseEntity.ok(outcome.getDispensable());
+        }
+        return failure(outcome.getFailure(), 0);
+    }
+
+    private static ResponseEntity<?> failure(DispenseFailure failure, long retryAfterSeconds) {
+        if (failure == DispenseFailure.OVERLOADED) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                    .body(new ErrorResponse(failure.getMessage()));
+        }
+        return ResponseEntity.badRequest().body(new ErrorResponse(failure.getMessage()));
+    }
+}
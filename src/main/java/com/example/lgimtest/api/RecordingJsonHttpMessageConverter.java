@@ -0,0 +1,59 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.events.JsonBindingEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * JSON message converter that times reading request bodies and writing response bodies in flight recorder events.
+ * Takes the place of the converter Spring Boot would otherwise create, with the same object mapper. When the event
+ * is not being recorded, the only cost is checking that it is enabled.
+ */
+@Component
+public class RecordingJsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    public RecordingJsonHttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        JsonBindingEvent event = new JsonBindingEvent();
+        event.begin();
+        Object body = super.read(type, contextClass, inputMessage);
+        commit(event, "read", type);
+        return body;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        JsonBindingEvent event = new JsonBindingEvent();
+        event.begin();
+        Object body = super.readInternal(clazz, inputMessage);
+        commit(event, "read", clazz);
+        return body;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+        JsonBindingEvent event = new JsonBindingEvent();
+        event.begin();
+        super.writeInternal(object, type, outputMessage);
+        commit(event, "write", object.getClass());
+    }
+
+    private static void commit(JsonBindingEvent event, String direction, Type type) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setDirection(direction);
+            event.setType(type.getTypeName());
+            event.commit();
+        }
+    }
+}
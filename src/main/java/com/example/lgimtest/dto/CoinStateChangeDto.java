@@ -0,0 +1,35 @@
+package com.example.lgimtest.dto;
+
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * DTO to be used for a change to a machine's coins, as sent on the change feed.
+ */
+@Getter
+public class CoinStateChangeDto {
+
+    public CoinStateChangeDto(String machineId, long version, Map<String, Integer> coinAmounts) {
+        this.machineId = machineId;
+        this.version = version;
+        this.coinAmounts = coinAmounts;
+    }
+
+    /**
+     * Id of the machine.
+     */
+    private String machineId;
+
+    /**
+     * Version of the coin state after the change.
+     */
+    private long version;
+
+    /**
+     * The new amounts of coins, only for the denominations that changed.
+     * The string key is a reference to the denomination name.
+     */
+    private Map<String, Integer> coinAmounts;
+
+}
@@ -20,9 +20,12 @@ public class CoinStateDto {
         this.denominations = new ArrayList<>();
 
         if (coinState != null) {
-            this.denominations.addAll(coinState.getDenominations());
-            for (Denomination denomination : coinState.getCoins().keySet()) {
-                coinAmounts.put(denomination.getName(), coinState.getCoins().get(denomination));
+            for (int index = 0; index < coinState.getDenominationCount(); index++) {
+                Denomination denomination = coinState.getDenomination(index);
+                this.denominations.add(denomination);
+                if (coinState.getCoinCount(index) > 0) {
+                    coinAmounts.put(denomination.getName(), coinState.getCoinCount(index));
+                }
             }
         }
     }
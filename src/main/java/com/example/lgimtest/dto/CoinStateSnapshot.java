@@ -0,0 +1,32 @@
+package com.example.lgimtest.dto;
+
+import lombok.Getter;
+
+/**
+ * Immutable snapshot of a machine's coin state at one version, already serialized as a CoinStateDto.
+ */
+@Getter
+public class CoinStateSnapshot {
+
+    public CoinStateSnapshot(long version, String eTag, byte[] body) {
+        this.version = version;
+        this.eTag = eTag;
+        this.body = body;
+    }
+
+    /**
+     * Version of the coin state the snapshot was taken at.
+     */
+    private final long version;
+
+    /**
+     * Entity tag for the snapshot, quoted, for use in ETag and If-None-Match headers.
+     */
+    private final String eTag;
+
+    /**
+     * The coin state as JSON. Shared by every reader, so it must not be modified.
+     */
+    private final byte[] body;
+
+}
@@ -0,0 +1,32 @@
+package com.example.lgimtest.dto;
+
+import lombok.Getter;
+
+/**
+ * DTO to be used as the answer to whether an amount can be dispensed, without dispensing it.
+ */
+@Getter
+public class DispensableDto {
+
+    public DispensableDto(Integer amountRequested, boolean dispensable, int largestDispensableAmount) {
+        this.amountRequested = amountRequested;
+        this.dispensable = dispensable;
+        this.largestDispensableAmount = largestDispensableAmount;
+    }
+
+    /**
+     * The amount requested.
+     */
+    private Integer amountRequested;
+
+    /**
+     * Whether the available coins can make the amount exactly.
+     */
+    private boolean dispensable;
+
+    /**
+     * The largest amount that can be dispensed without going over the amount requested.
+     */
+    private int largestDispensableAmount;
+
+}
@@ -0,0 +1,50 @@
+package com.example.lgimtest.dto;
+
+import lombok.Getter;
+
+/**
+ * The outcome of a check of what a machine can dispense: either the answer, or why the check was not made.
+ * Failures are returned rather than thrown, and the outcomes for failures are shared constants, so a refused check
+ * allocates nothing.
+ */
+@Getter
+public final class DispensableOutcome {
+
+    public static final DispensableOutcome NOT_INITIALISED = new DispensableOutcome(null, DispenseFailure.NOT_INITIALISED);
+
+    public static final DispensableOutcome INVALID_AMOUNT = new DispensableOutcome(null, DispenseFailure.INVALID_AMOUNT);
+
+    public static final DispensableOutcome OVER_DISPENSABLE_CEILING = new DispensableOutcome(null, DispenseFailure.OVER_DISPENSABLE_CEILING);
+
+    /**
+     * The answer, or null if the check was not made.
+     */
+    private final DispensableDto dispensable;
+
+    /**
+     * Why the check was not made, or null if it was.
+     */
+    private final DispenseFailure failure;
+
+    private DispensableOutcome(DispensableDto dispensable, DispenseFailure failure) {
+        this.dispensable = dispensable;
+        this.failure = failure;
+    }
+
+    /**
+     * Create the outcome of a check that was made.
+     * @param dispensable the answer.
+     * @return the outcome.
+     */
+    public static DispensableOutcome checked(DispensableDto dispensable) {
+        return new DispensableOutcome(dispensable, null);
+    }
+
+    /**
+     * Check whether the check was made.
+     * @return true if there is an answer.
+     */
+    public boolean isChecked() {
+        return failure == null;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.lgimtest.dto;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The outcome of a dispense batch: either the result for each amount, or why the batch was turned away as a whole.
+ * Amounts that cannot be dispensed are rejected in their own results, so only a machine that has not been
+ * initialised or is too busy fails the batch. Those failures are returned rather than thrown and their outcomes are
+ * shared, so a turned away batch allocates nothing.
+ */
+@Getter
+public final class DispenseBatchOutcome {
+
+    public static final DispenseBatchOutcome NOT_INITIALISED = new DispenseBatchOutcome(null, DispenseFailure.NOT_INITIALISED, 0);
+
+    /**
+     * The result for each amount, or null if the batch was turned away.
+     */
+    private final List<DispenseResultDto> results;
+
+    /**
+     * Why the batch was turned away, or null if it was dispensed.
+     */
+    private final DispenseFailure failure;
+
+    /**
+     * How long the client should wait before trying again, in seconds, for an overloaded machine.
+     */
+    private final long retryAfterSeconds;
+
+    private DispenseBatchOutcome(List<DispenseResultDto> results, DispenseFailure failure, long retryAfterSeconds) {
+        this.results = results;
+        this.failure = failure;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Create the outcome of a batch that was dispensed.
+     * @param results the result for each amount.
+     * @return the outcome.
+     */
+    public static DispenseBatchOutcome dispensed(List<DispenseResultDto> results) {
+        return new DispenseBatchOutcome(results, null, 0);
+    }
+
+    /**
+     * Create the outcome of a batch turned away because the machine was too busy.
+     * @param retryAfterSeconds how long the client should wait before trying again, in seconds.
+     * @return the outcome, which may be kept and shared.
+     */
+    public static DispenseBatchOutcome overloaded(long retryAfterSeconds) {
+        return new DispenseBatchOutcome(null, DispenseFailure.OVERLOADED, retryAfterSeconds);
+    }
+
+    /**
+     * Check whether the batch was dispensed.
+     * @return true if there is a result for each amount.
+     */
+    public boolean isDispensed() {
+        return failure == null;
+    }
+}
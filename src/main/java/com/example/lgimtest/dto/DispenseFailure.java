@@ -0,0 +1,31 @@
+package com.example.lgimtest.dto;
+
+import lombok.Getter;
+
+/**
+ * The reasons a dispense, or a check of what can be dispensed, can fail in the normal course of business.
+ */
+@Getter
+public enum DispenseFailure {
+
+    NOT_INITIALISED("Vending Machine has not been initialised. Cannot dispense anything."),
+
+    INVALID_AMOUNT("Cannot dispense a negative or zero amount."),
+
+    AMOUNT_TOO_LARGE("Cannot dispense an amount over the largest the machine pays out."),
+
+    OVER_DISPENSABLE_CEILING("Cannot check an amount over the largest the machine indexes."),
+
+    CANNOT_MAKE_CHANGE("Cannot dispense correct amount with available coins."),
+
+    OVERLOADED("Vending Machine is busy. Try again later.");
+
+    /**
+     * Why the dispense failed, for the client.
+     */
+    private final String message;
+
+    DispenseFailure(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.lgimtest.dto;
+
+import lombok.Getter;
+
+/**
+ * The outcome of a dispense: either the coins dispensed, or why nothing was dispensed.
+ * Failures are returned rather than thrown, and the outcomes for failures are shared constants, so a failed
+ * dispense allocates nothing.
+ */
+@Getter
+public final class DispenseOutcome {
+
+    public static final DispenseOutcome NOT_INITIALISED = new DispenseOutcome(null, DispenseFailure.NOT_INITIALISED, 0);
+
+    public static final DispenseOutcome INVALID_AMOUNT = new DispenseOutcome(null, DispenseFailure.INVALID_AMOUNT, 0);
+
+    public static final DispenseOutcome AMOUNT_TOO_LARGE = new DispenseOutcome(null, DispenseFailure.AMOUNT_TOO_LARGE, 0);
+
+    public static final DispenseOutcome CANNOT_MAKE_CHANGE = new DispenseOutcome(null, DispenseFailure.CANNOT_MAKE_CHANGE, 0);
+
+    /**
+     * The coins dispensed, or null if the dispense failed.
+     */
+    private final DispensedDto dispensed;
+
+    /**
+     * Why the dispense failed, or null if it succeeded.
+     */
+    private final DispenseFailure failure;
+
+    /**
+     * How long the client should wait before trying again, in seconds, for an overloaded machine.
+     */
+    private final long retryAfterSeconds;
+
+    private DispenseOutcome(DispensedDto dispensed, DispenseFailure failure, long retryAfterSeconds) {
+        this.dispensed = dispensed;
+        this.failure = failure;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Create the outcome of a successful dispense.
+     * @param dispensed the coins dispensed.
+     * @return the outcome.
+     */
+    public static DispenseOutcome dispensed(DispensedDto dispensed) {
+        return new DispenseOutcome(dispensed, null, 0);
+    }
+
+    /**
+     * Create the outcome of a dispense turned away because the machine was too busy.
+     * @param retryAfterSeconds how long the client should wait before trying again, in seconds.
+     * @return the outcome, which may be kept and shared.
+     */
+    public static DispenseOutcome overloaded(long retryAfterSeconds) {
+        return new DispenseOutcome(null, DispenseFailure.OVERLOADED, retryAfterSeconds);
+    }
+
+    /**
+     * Check whether coins were dispensed.
+     * @return true if the dispense succeeded.
+     */
+    public boolean isDispensed() {
+        return failure == null;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.lgimtest.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * DTO to be used as the result of one amount in a batch dispense.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DispenseResultDto {
+
+    private DispenseResultDto(Integer amountRequested, boolean dispensed, Map<String, Integer> dispensedCoinAmounts, String message) {
+        this.amountRequested = amountRequested;
+        this.dispensed = dispensed;
+        this.dispensedCoinAmounts = dispensedCoinAmounts;
+        this.message = message;
+    }
+
+    /**
+     * Create a result for an amount that was dispensed.
+     * @param amountRequested the amount requested.
+     * @param dispensedDto the coins dispensed.
+     * @return the result.
+     */
+    public static DispenseResultDto dispensed(Integer amountRequested, DispensedDto dispensedDto) {
+        return new DispenseResultDto(amountRequested, true, dispensedDto.getDispensedCoinAmounts(), null);
+    }
+
+    /**
+     * Create a result for an amount that was rejected.
+     * @param amountRequested the amount requested.
+     * @param message why the amount was rejected.
+     * @return the result.
+     */
+    public static DispenseResultDto rejected(Integer amountRequested, String message) {
+        return new DispenseResultDto(amountRequested, false, null, message);
+    }
+
+    /**
+     * The amount requested.
+     */
+    private Integer amountRequested;
+
+    /**
+     * Whether the amount was dispensed.
+     */
+    private boolean dispensed;
+
+    /**
+     * The amounts of coins for each denomination dispensed, if the amount was dispensed.
+     * The string key is a reference to the denomination name.
+     */
+    private Map<String, Integer> dispensedCoinAmounts;
+
+    /**
+     * Why the amount was rejected, if it was not dispensed.
+     */
+    private String message;
+
+}
@@ -0,0 +1,63 @@
+package com.example.lgimtest.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * DTO to be used as the quote for one amount: the coins that would be dispensed for it, without dispensing them.
+ */
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class QuoteDto {
+
+    private QuoteDto(Integer amountRequested, boolean dispensable, Map<String, Integer> coinAmounts, String message) {
+        this.amountRequested = amountRequested;
+        this.dispensable = dispensable;
+        this.coinAmounts = coinAmounts;
+        this.message = message;
+    }
+
+    /**
+     * Create a quote for an amount that can be dispensed.
+     * @param amountRequested the amount requested.
+     * @param coinAmounts the coins that would be dispensed.
+     * @return the quote.
+     */
+    public static QuoteDto dispensable(Integer amountRequested, Map<String, Integer> coinAmounts) {
+        return new QuoteDto(amountRequested, true, coinAmounts, null);
+    }
+
+    /**
+     * Create a quote for an amount that cannot be dispensed.
+     * @param amountRequested the amount requested.
+     * @param message why the amount cannot be dispensed.
+     * @return the quote.
+     */
+    public static QuoteDto rejected(Integer amountRequested, String message) {
+        return new QuoteDto(amountRequested, false, null, message);
+    }
+
+    /**
+     * The amount requested.
+     */
+    private Integer amountRequested;
+
+    /**
+     * Whether the amount can be dispensed.
+     */
+    private boolean dispensable;
+
+    /**
+     * The amounts of coins for each denomination that would be dispensed, if the amount can be dispensed.
+     * The string key is a reference to the denomination name.
+     */
+    private Map<String, Integer> coinAmounts;
+
+    /**
+     * Why the amount cannot be dispensed, if it cannot.
+     */
+    private String message;
+
+}
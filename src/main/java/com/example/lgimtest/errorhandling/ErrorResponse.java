@@ -26,4 +26,13 @@ public class ErrorResponse {
             this.message = e.getMessage();
         }
     }
+
+    /**
+     * Create an error response for a failure that is not an exception.
+     * @param message the error message.
+     */
+    public ErrorResponse(String message) {
+        this.timestamp = LocalDateTime.now();
+        this.message = message;
+    }
 }
@@ -1,7 +1,9 @@
 package com.example.lgimtest.errorhandling;
 
 import com.example.lgimtest.LgimtestApplication;
+import com.example.lgimtest.service.MachineOverloadedException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -27,6 +29,17 @@ public class LgimTestExceptionHandler {
         return new ResponseEntity<>(errorResponse, HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler(MachineOverloadedException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorResponse> handleMachineOverloadedException(HttpServletRequest httpServletRequest, MachineOverloadedException e) {
+
+        log.debug("MachineOverloadedException found", e);
+        ErrorResponse errorResponse = new ErrorResponse(e);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                .body(errorResponse);
+    }
+
     @ExceptionHandler(Exception.class)
     @ResponseBody
     public ResponseEntity<ErrorResponse> handleAnyOtherException(HttpServletRequest httpServletRequest, Exception e) {
@@ -0,0 +1,36 @@
+package com.example.lgimtest.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Flight recorder event for changing a machine's coins, including the journal record, audit record and the
+ * change published to subscribers.
+ */
+@Name("com.example.lgimtest.CoinStateChange")
+@Label("Coin State Change")
+@Description("Time to reserve or add coins and record the change")
+@Category({"LGIM Test", "Vending Machine"})
+@StackTrace(false)
+@Setter
+public final class CoinStateChangeEvent extends Event {
+
+    @Label("Machine")
+    private String machineId;
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("Coins")
+    @Description("Coins taken or added")
+    private int coins;
+
+    @Label("Version")
+    @Description("Version of the coin state after the change, or 0 if the coins were taken first by another thread")
+    private long version;
+}
@@ -0,0 +1,43 @@
+package com.example.lgimtest.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Flight recorder event for dispensing one amount on the machine's shard, from reading the coin counts to building
+ * the response. The solve and coin state change events it encloses break the time down.
+ */
+@Name("com.example.lgimtest.Dispense")
+@Label("Dispense")
+@Description("Time to dispense an amount on the machine's shard")
+@Category({"LGIM Test", "Vending Machine", "Dispense"})
+@StackTrace(false)
+@Setter
+public final class DispenseEvent extends Event {
+
+    @Label("Machine")
+    private String machineId;
+
+    @Label("Amount")
+    private int amount;
+
+    @Label("Dispensed")
+    private boolean dispensed;
+
+    @Label("Coins")
+    @Description("Coins dispensed")
+    private int coins;
+
+    @Label("Solver Work")
+    @Description("Solver work over every attempt")
+    private long solverWork;
+
+    @Label("Attempts")
+    @Description("Times the change was worked out, more than one when other threads took the coins first")
+    private int attempts;
+}
@@ -0,0 +1,28 @@
+package com.example.lgimtest.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Flight recorder event for binding a request body from JSON or serializing a response body to JSON.
+ */
+@Name("com.example.lgimtest.JsonBinding")
+@Label("JSON Binding")
+@Description("Time to read a request body from JSON or write a response body as JSON")
+@Category({"LGIM Test", "HTTP"})
+@StackTrace(false)
+@Setter
+public final class JsonBindingEvent extends Event {
+
+    @Label("Direction")
+    @Description("read for a request body, write for a response body")
+    private String direction;
+
+    @Label("Type")
+    private String type;
+}
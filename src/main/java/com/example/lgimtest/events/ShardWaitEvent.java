@@ -0,0 +1,27 @@
+package com.example.lgimtest.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Flight recorder event for the time an operation waits in its machine's shard queue before it starts.
+ */
+@Name("com.example.lgimtest.ShardWait")
+@Label("Shard Wait")
+@Description("Time an operation waited for its machine's shard")
+@Category({"LGIM Test", "Vending Machine"})
+@StackTrace(false)
+@Setter
+public final class ShardWaitEvent extends Event {
+
+    @Label("Machine")
+    private String machineId;
+
+    @Label("Shard")
+    private int shard;
+}
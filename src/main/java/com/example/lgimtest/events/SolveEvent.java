@@ -0,0 +1,39 @@
+package com.example.lgimtest.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Flight recorder event for working out the change for one amount, once per attempt.
+ */
+@Name("com.example.lgimtest.Solve")
+@Label("Change Solve")
+@Description("Time to work out the coins for an amount")
+@Category({"LGIM Test", "Vending Machine", "Dispense"})
+@StackTrace(false)
+@Setter
+public final class SolveEvent extends Event {
+
+    @Label("Machine")
+    private String machineId;
+
+    @Label("Amount")
+    private int amount;
+
+    @Label("Greedy")
+    @Description("Whether greedy change was used instead of the change maker")
+    private boolean greedy;
+
+    @Label("Solver Work")
+    @Description("Coins considered for greedy change, or the work reported by the change maker")
+    private long solverWork;
+
+    @Label("Coins")
+    @Description("Coins in the change, or 0 if the amount cannot be made")
+    private int coins;
+}
@@ -0,0 +1,30 @@
+package com.example.lgimtest.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Flight recorder event for checking the denominations and coins a machine is initialised with.
+ */
+@Name("com.example.lgimtest.Validation")
+@Label("Initialisation Validation")
+@Description("Time to check the denominations and coins a machine is initialised with")
+@Category({"LGIM Test", "Vending Machine"})
+@StackTrace(false)
+@Setter
+public final class ValidationEvent extends Event {
+
+    @Label("Machine")
+    private String machineId;
+
+    @Label("Denominations")
+    private int denominations;
+
+    @Label("Valid")
+    private boolean valid;
+}
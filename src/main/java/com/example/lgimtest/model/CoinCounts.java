@@ -0,0 +1,62 @@
+package com.example.lgimtest.model;
+
+/**
+ * Storage for the coin count of each denomination of a machine and the version of its coin state.
+ * Every operation is atomic, so counts can be reserved with compare and set by concurrent dispenses.
+ */
+public interface CoinCounts {
+
+    /**
+     * Get the number of denominations counted.
+     * @return the number of counts.
+     */
+    int length();
+
+    /**
+     * Get a coin count.
+     * @param index index of the denomination.
+     * @return the number of coins.
+     */
+    int get(int index);
+
+    /**
+     * Add to a coin count.
+     * @param index index of the denomination.
+     * @param delta the number of coins to add, negative to remove coins.
+     * @return the count before the change.
+     */
+    int getAndAdd(int index, int delta);
+
+    /**
+     * Set a coin count if it still holds the expected count.
+     * @param index index of the denomination.
+     * @param expected the count expected.
+     * @param count the new count.
+     * @return true if the count was set.
+     */
+    boolean compareAndSet(int index, int expected, int count);
+
+    /**
+     * Get the version of the coin state.
+     * @return the version.
+     */
+    long getVersion();
+
+    /**
+     * Set the version of the coin state.
+     * @param version the version.
+     */
+    void setVersion(long version);
+
+    /**
+     * Move the coin state on to its next version.
+     * @return the new version.
+     */
+    long nextVersion();
+
+    /**
+     * Check whether the counts are shared with other processes, which may change them at any time.
+     * @return true if the counts are shared.
+     */
+    boolean isShared();
+}
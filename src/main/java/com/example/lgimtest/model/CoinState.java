@@ -1,35 +1,204 @@
 package com.example.lgimtest.model;
 
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
-@Data
+/**
+ * The coins held by a vending machine.
+ * Denominations are kept sorted by descending value in a shared {@link DenominationTable}, with the coin count
+ * for each denomination at the same index, so the dispense path works on primitive arrays and constant time
+ * index lookups.
+ * <p>
+ * The denominations are fixed once the state has been published to other threads. Coin counts are atomic
+ * counters, so concurrent dispenses reserve the coins they need with compare and set rather than a lock. The
+ * counts are held on the heap unless the state is given other {@link CoinCounts}, such as counts shared with
+ * other processes.
+ */
 public class CoinState {
 
+    private static final int NOT_FOUND = -1;
+
+    /**
+     * The denominations, sorted by descending value.
+     */
+    @Getter
+    private DenominationTable denominationTable;
+
+    /**
+     * Number of coins held for the denomination at the same index.
+     */
+    private CoinCounts counts;
+
+    /**
+     * Whether greedy change is always optimal for the denominations.
+     * Worked out once when the machine is initialised.
+     */
+    @Getter
+    @Setter
+    private boolean canonical;
+
+    /**
+     * Index of the amounts the coins can pay out, or null until it is first needed.
+     * Kept up to date by every change to the coin counts once it exists.
+     */
+    private volatile ReachableAmounts reachableAmounts;
+
+    /**
+     * Version of the coin state the index was built at, for shared counts, which other processes also change.
+     */
+    private volatile long reachableAmountsVersion;
+
+    /**
+     * Whether the index has been read since {@link #clearReachableAmountsUsed()} was last called.
+     */
+    private volatile boolean reachableAmountsUsed;
+
+    /**
+     * Create a coin state with no denominations.
+     */
+    public CoinState() {
+        this(DenominationTable.EMPTY);
+    }
+
+    /**
+     * Create a coin state with no coins.
+     * @param denominationTable the denominations, which may be shared with other machines.
+     */
+    public CoinState(DenominationTable denominationTable) {
+        this(denominationTable, new HeapCoinCounts(denominationTable.size()));
+    }
+
+    /**
+     * Create a coin state with the given counts.
+     * @param denominationTable the denominations, which may be shared with other machines.
+     * @param counts the coin count for each denomination, in denomination table order, and the version.
+     */
+    public CoinState(DenominationTable denominationTable, CoinCounts counts) {
+        this.denominationTable = denominationTable;
+        this.counts = counts;
+    }
+
+    /**
+     * Create a copy of the coin state sharing the same denomination table.
+     * @return the copy.
+     */
+    public CoinState copy() {
+        CoinState copy = new CoinState(denominationTable);
+        for (int index = 0; index < counts.length(); index++) {
+            copy.counts.getAndAdd(index, counts.get(index));
+        }
+        copy.canonical = canonical;
+        copy.counts.setVersion(counts.getVersion());
+        return copy;
+    }
+
+    /**
+     * Start keeping an index of the amounts the coins can pay out, if it is not kept already.
+     * Should be called by the thread that owns the machine, so the counts do not change while it is built.
+     * Shared counts can be changed by other processes without this state knowing, so their index is built again
+     * whenever the version has moved on.
+     * @param ceiling largest amount to index.
+     * @return the index.
+     */
+    public ReachableAmounts trackReachableAmounts(int ceiling) {
+        ReachableAmounts reachable = getReachableAmounts();
+        if (reachable == null) {
+            long builtVersion = counts.getVersion();
+            reachable = new ReachableAmounts(ceiling, denominationTable.getValues(), getCoinCounts());
+            reachableAmountsVersion = builtVersion;
+            reachableAmounts = reachable;
+        }
+        return reachable;
+    }
+
+    /**
+     * Get the index of the amounts the coins can pay out, marking it used.
+     * @return the index, or null if it has not been built, is out of date or has been released.
+     */
+    public ReachableAmounts getReachableAmounts() {
+        ReachableAmounts reachable = reachableAmounts;
+        if (reachable == null || counts.isShared() && reachableAmountsVersion != counts.getVersion()) {
+            return null;
+        }
+        if (!reachableAmountsUsed) {
+            reachableAmountsUsed = true;
+        }
+        return reachable;
+    }
+
+    /**
+     * Clear the mark set when the index is read.
+     * @return whether the index had been read since the mark was last cleared.
+     */
+    public boolean clearReachableAmountsUsed() {
+        boolean used = reachableAmountsUsed;
+        reachableAmountsUsed = false;
+        return used;
+    }
+
+    /**
+     * Stop keeping the index, freeing its memory. It is built again when next needed.
+     * May be called from any thread; a reader already holding the index gets an answer as of the release.
+     */
+    public void releaseReachableAmounts() {
+        reachableAmounts = null;
+    }
+
+    /**
+     * Get the version of the coin state, increased on every change to the coins.
+     * @return the version.
+     */
+    public long getVersion() {
+        return counts.getVersion();
+    }
+
+    /**
+     * Set the version of the coin state.
+     * @param version the version.
+     */
+    public void setVersion(long version) {
+        counts.setVersion(version);
+    }
+
     /**
-     * Set of available denominations;
+     * Move the coin state on to its next version.
+     * @return the new version.
      */
-    private Set<Denomination> denominations = new HashSet<>();
+    public long nextVersion() {
+        return counts.nextVersion();
+    }
 
     /**
-     * Map of the coins currently in the machine.
+     * Get the storage the coin counts are held in.
+     * @return the coin counts.
      */
-    private Map<Denomination, Integer> coins = new HashMap<>();
+    public CoinCounts getCounts() {
+        return counts;
+    }
 
     /**
      * Add a denomination to the state.
+     * The denomination table is rebuilt, so this is intended for initialisation only.
      * @param denomination the denomination to add.
      */
     public void addDenomination(Denomination denomination) {
-        denominations.add(denomination);
+
+        DenominationTable newDenominationTable = denominationTable.withDenomination(denomination);
+        CoinCounts newCounts = new HeapCoinCounts(newDenominationTable.size());
+        for (int index = 0; index < denominationTable.size(); index++) {
+            int newIndex = newDenominationTable.getIndexForKey(denominationTable.getDenomination(index).getName());
+            newCounts.getAndAdd(newIndex, counts.get(index));
+        }
+        newCounts.setVersion(counts.getVersion());
+
+        denominationTable = newDenominationTable;
+        counts = newCounts;
+        // the index is for the old denominations, it is built again when next needed
+        reachableAmounts = null;
     }
 
     /**
@@ -38,14 +207,21 @@ public class CoinState {
      * @param amount the amount of coins to be added for the denomination.
      */
     public void addCoins(String denominationKey, Integer amount) {
-        Denomination denomination = getDenominationForKey(denominationKey);
-        Integer currentValue = coins.get(denomination);
-        if (currentValue == null) {
-            coins.put(denomination, amount);
-        }
-        else {
-            coins.put(denomination, currentValue + amount);
+        int index = getIndexForKey(denominationKey);
+        if (index == NOT_FOUND) {
+            throw new IllegalStateException(String.format("Key %s for Denomination is not found. Cannot add coins.", denominationKey));
         }
+        addCoins(index, amount.intValue());
+    }
+
+    /**
+     * Add coins for the denomination at the given index.
+     * @param index index of the denomination.
+     * @param amount the amount of coins to add.
+     */
+    public void addCoins(int index, int amount) {
+        int oldCount = counts.getAndAdd(index, amount);
+        countChanged(index, oldCount, oldCount + amount);
     }
 
     /**
@@ -54,11 +230,8 @@ public class CoinState {
      * @return the found Denomination or null if not found
      */
     public Denomination getDenominationForKey(String key) {
-        return denominations
-                .stream()
-                .filter(d -> d.getName().equals(key))
-                .findFirst()
-                .orElse(null);
+        int index = getIndexForKey(key);
+        return index == NOT_FOUND ? null : denominationTable.getDenomination(index);
     }
 
     /**
@@ -67,11 +240,26 @@ public class CoinState {
      * @return the found Denomination or null if not found
      */
     public Denomination getDenominationForValue(Integer value) {
-        return denominations
-                .stream()
-                .filter(d -> d.getValue().equals(value))
-                .findFirst()
-                .orElse(null);
+        int index = value == null ? NOT_FOUND : getIndexForValue(value);
+        return index == NOT_FOUND ? null : denominationTable.getDenomination(index);
+    }
+
+    /**
+     * Get the index of a denomination by its name key.
+     * @param key name of the denomination
+     * @return the index or -1 if not found
+     */
+    public int getIndexForKey(String key) {
+        return denominationTable.getIndexForKey(key);
+    }
+
+    /**
+     * Get the index of a denomination by its value.
+     * @param value denomination value to find
+     * @return the index or -1 if not found
+     */
+    public int getIndexForValue(int value) {
+        return denominationTable.getIndexForValue(value);
     }
 
     /**
@@ -79,43 +267,139 @@ public class CoinState {
      * @param denominationValue denomination value to remove a coin for.
      */
     public void removeCoinByDenominationValue(Integer denominationValue) {
-        Denomination denomination = getDenominationForValue(denominationValue);
-        Integer previous = coins.put(denomination, coins.get(denomination) - 1);
-        if (previous == 1) {
-            coins.remove(denomination);
-        }
+        removeCoins(getIndexForValue(denominationValue), 1);
     }
 
     /**
-     * Get available denominations as an integer array of the denomination values.
-     * @return denomination values.
+     * Remove coins for the denomination at the given index.
+     * @param index index of the denomination.
+     * @param amount the amount of coins to remove.
      */
-    public int[] getAvailableCoinDenominations() {
+    public void removeCoins(int index, int amount) {
+        int oldCount = counts.getAndAdd(index, -amount);
+        countChanged(index, oldCount, oldCount - amount);
+    }
+
+    /**
+     * Atomically take a set of coins, if they are all still available.
+     * Each denomination is reserved in turn with compare and set. If any denomination no longer has enough coins,
+     * because another thread took them first, the denominations already reserved are given back.
+     * @param coinsToTake the number of coins to take for each denomination, in the same order as the denominations.
+     * @return true if all of the coins were taken, false if nothing was taken.
+     */
+    public boolean tryRemoveCoins(int[] coinsToTake) {
+        for (int index = 0; index < coinsToTake.length; index++) {
+            if (coinsToTake[index] > 0 && !tryRemoveCoins(index, coinsToTake[index])) {
+                for (int reserved = 0; reserved < index; reserved++) {
+                    if (coinsToTake[reserved] > 0) {
+                        addCoins(reserved, coinsToTake[reserved]);
+                    }
+                }
+                return false;
+            }
+        }
+        return true;
+    }
 
-        List<Integer> availableDenominations = new ArrayList<>();
-        for (Denomination denomination : getSortedDenominationsFromCoins()) {
-            availableDenominations.add(denomination.getValue());
+    private boolean tryRemoveCoins(int index, int amount) {
+        while (true) {
+            int current = counts.get(index);
+            if (current < amount) {
+                return false;
+            }
+            if (counts.compareAndSet(index, current, current - amount)) {
+                countChanged(index, current, current - amount);
+                return true;
+            }
         }
-        return availableDenominations.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void countChanged(int index, int oldCount, int newCount) {
+        ReachableAmounts reachable = reachableAmounts;
+        if (reachable != null) {
+            reachable.countChanged(index, oldCount, newCount);
+        }
+    }
+
+    /**
+     * Get the number of denominations.
+     * @return the number of denominations.
+     */
+    public int getDenominationCount() {
+        return denominationTable.size();
+    }
+
+    /**
+     * Get the denomination at the given index.
+     * @param index index of the denomination.
+     * @return the denomination.
+     */
+    public Denomination getDenomination(int index) {
+        return denominationTable.getDenomination(index);
+    }
+
+    /**
+     * Get the number of coins held for the denomination at the given index.
+     * @param index index of the denomination.
+     * @return the number of coins.
+     */
+    public int getCoinCount(int index) {
+        return counts.get(index);
     }
 
     /**
-     * Get available coin quantities of all coins.
-     * @return coin quantities
+     * Get all denomination values, whether or not coins are available for them.
+     * The array is shared and must not be modified.
+     * @return denomination values sorted in descending order.
      */
-    public int[] getAvailableCoinQuantities() {
+    public int[] getDenominationValues() {
+        return denominationTable.getValues();
+    }
+
+    /**
+     * Get the coin counts for all denominations, in the same order as the denomination values.
+     * Each count is read atomically, but counts may change between reads while other threads dispense.
+     * @return a copy of the coin counts.
+     */
+    public int[] getCoinCounts() {
+        int[] coinCounts = new int[counts.length()];
+        for (int index = 0; index < coinCounts.length; index++) {
+            coinCounts[index] = counts.get(index);
+        }
+        return coinCounts;
+    }
 
-        List<Integer> availableQuantities = new ArrayList<>();
-        for (Denomination denomination : getSortedDenominationsFromCoins()) {
-            availableQuantities.add(coins.get(denomination));
+    /**
+     * Copy the coin counts for all denominations into an array, without allocating.
+     * Each count is read atomically, but counts may change between reads while other threads dispense.
+     * @param coinCounts receives the coin counts, in the same order as the denomination values.
+     */
+    public void copyCoinCounts(int[] coinCounts) {
+        for (int index = 0; index < coinCounts.length; index++) {
+            coinCounts[index] = counts.get(index);
         }
-        return availableQuantities.stream().mapToInt(Integer::intValue).toArray();
     }
 
-    private List<Denomination> getSortedDenominationsFromCoins() {
-        return coins.keySet()
-                .stream()
-                .sorted(Comparator.comparing(Denomination::getValue).reversed())
-                .collect(Collectors.toList());
+    /**
+     * Get the denominations.
+     * @return denominations sorted in descending order of value.
+     */
+    public List<Denomination> getDenominations() {
+        return denominationTable.getDenominations();
+    }
+
+    /**
+     * Get the coins currently in the machine.
+     * @return a copy of the coin counts keyed by denomination, for denominations that have coins.
+     */
+    public Map<Denomination, Integer> getCoins() {
+        Map<Denomination, Integer> coins = new LinkedHashMap<>();
+        for (int index = 0; index < counts.length(); index++) {
+            int count = counts.get(index);
+            if (count > 0) {
+                coins.put(denominationTable.getDenomination(index), count);
+            }
+        }
+        return coins;
     }
 }
@@ -0,0 +1,183 @@
+package com.example.lgimtest.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of the denominations used by a vending machine.
+ * Denominations are sorted by descending value once, with constant time name and value lookups to their index.
+ * Machines with the same denominations can share one table, so an idle machine only costs its coin counts.
+ */
+public final class DenominationTable {
+
+    /**
+     * Table with no denominations.
+     */
+    public static final DenominationTable EMPTY = new DenominationTable(new Denomination[0]);
+
+    /**
+     * Most denominations a machine can have.
+     */
+    public static final int MAX_DENOMINATIONS = 255;
+
+    /**
+     * Longest denomination name, in UTF-8 bytes. With at most {@link #MAX_DENOMINATIONS} denominations, the coins of
+     * any machine fit in one binary dispense frame.
+     */
+    public static final int MAX_NAME_BYTES = 250;
+
+    /**
+     * Largest denomination value that is looked up through a dense value to index table.
+     * Larger values fall back to a binary search over the sorted values.
+     */
+    private static final int MAX_DENSE_VALUE = 1 << 12;
+
+    private static final int NOT_FOUND = -1;
+
+    /**
+     * Denominations sorted by descending value.
+     */
+    private final Denomination[] denominations;
+
+    /**
+     * Denomination values sorted in descending order.
+     */
+    private final int[] values;
+
+    /**
+     * Denomination name to index lookup.
+     */
+    private final Map<String, Integer> indexByName;
+
+    /**
+     * Denomination value to index lookup, indexed by value. Empty when a value is too large for a dense table.
+     */
+    private final int[] indexByValue;
+
+    private DenominationTable(Denomination[] sortedDenominations) {
+
+        this.denominations = sortedDenominations;
+        this.values = new int[sortedDenominations.length];
+        this.indexByName = new HashMap<>();
+        for (int index = 0; index < sortedDenominations.length; index++) {
+            values[index] = sortedDenominations[index].getValue();
+            indexByName.put(sortedDenominations[index].getName(), index);
+        }
+
+        if (values.length > 0 && values[0] < MAX_DENSE_VALUE) {
+            this.indexByValue = new int[values[0] + 1];
+            Arrays.fill(indexByValue, NOT_FOUND);
+            for (int index = 0; index < values.length; index++) {
+                if (values[index] > 0) {
+                    indexByValue[values[index]] = index;
+                }
+            }
+        }
+        else {
+            this.indexByValue = new int[0];
+        }
+    }
+
+    /**
+     * Create a table for the given denominations.
+     * @param denominations the denominations, in any order.
+     * @return the table.
+     */
+    public static DenominationTable of(List<Denomination> denominations) {
+        Denomination[] sortedDenominations = denominations.toArray(new Denomination[0]);
+        Arrays.sort(sortedDenominations, Comparator.comparing(Denomination::getValue).reversed());
+        return new DenominationTable(sortedDenominations);
+    }
+
+    /**
+     * Create a table with an extra denomination.
+     * @param denomination the denomination to add.
+     * @return the new table.
+     */
+    public DenominationTable withDenomination(Denomination denomination) {
+        Denomination[] newDenominations = Arrays.copyOf(denominations, denominations.length + 1);
+        newDenominations[denominations.length] = denomination;
+        return of(Arrays.asList(newDenominations));
+    }
+
+    /**
+     * Get the number of denominations.
+     * @return the number of denominations.
+     */
+    public int size() {
+        return denominations.length;
+    }
+
+    /**
+     * Get the denomination at the given index.
+     * @param index index of the denomination.
+     * @return the denomination.
+     */
+    public Denomination getDenomination(int index) {
+        return denominations[index];
+    }
+
+    /**
+     * Get the denominations.
+     * @return denominations sorted in descending order of value.
+     */
+    public List<Denomination> getDenominations() {
+        return Collections.unmodifiableList(Arrays.asList(denominations));
+    }
+
+    /**
+     * Get the denomination values.
+     * The array is shared and must not be modified.
+     * @return denomination values sorted in descending order.
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    /**
+     * Get the index of a denomination by its name key.
+     * @param key name of the denomination
+     * @return the index or -1 if not found
+     */
+    public int getIndexForKey(String key) {
+        Integer index = indexByName.get(key);
+        return index == null ? NOT_FOUND : index;
+    }
+
+    /**
+     * Get the index of a denomination by its value.
+     * @param value denomination value to find
+     * @return the index or -1 if not found
+     */
+    public int getIndexForValue(int value) {
+        if (value <= 0) {
+            return NOT_FOUND;
+        }
+        if (value < indexByValue.length) {
+            return indexByValue[value];
+        }
+        if (indexByValue.length > 0) {
+            return NOT_FOUND;
+        }
+        // values are sorted in descending order
+        int low = 0;
+        int high = values.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] > value) {
+                low = middle + 1;
+            }
+            else if (values[middle] < value) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        return NOT_FOUND;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.lgimtest.model;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Coin counts held on the heap, private to this process.
+ */
+public class HeapCoinCounts implements CoinCounts {
+
+    private final AtomicIntegerArray counts;
+
+    private volatile long version;
+
+    /**
+     * Create counts of zero coins.
+     * @param length the number of denominations.
+     */
+    public HeapCoinCounts(int length) {
+        this.counts = new AtomicIntegerArray(length);
+    }
+
+    @Override
+    public int length() {
+        return counts.length();
+    }
+
+    @Override
+    public int get(int index) {
+        return counts.get(index);
+    }
+
+    @Override
+    public int getAndAdd(int index, int delta) {
+        return counts.getAndAdd(index, delta);
+    }
+
+    @Override
+    public boolean compareAndSet(int index, int expected, int count) {
+        return counts.compareAndSet(index, expected, count);
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Only the thread that owns the machine changes its coins, so this is a plain increment.
+     */
+    @Override
+    public long nextVersion() {
+        long nextVersion = version + 1;
+        version = nextVersion;
+        return nextVersion;
+    }
+
+    @Override
+    public boolean isShared() {
+        return false;
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.lgimtest.model;
+
+/**
+ * Index of every amount up to a ceiling that can be paid out from a machine's coins.
+ * <p>
+ * A bitset of reachable amounts can take in a coin with a shift and or, but cannot give one back. Instead this
+ * keeps, for every amount, the number of different ways of paying it out, modulo a large prime. That count is the
+ * coefficient of x^amount in the product over denominations of (1 - x^((count + 1) * value)) / (1 - x^value),
+ * so a change to one denomination's count is one multiplication and one division by (1 - x^m), each a single
+ * pass over the table. The passes for different changes commute, so changes can be applied in any order.
+ * <p>
+ * Each change to a denomination's count costs three passes over the ceiling + 1 amounts, the two above and one
+ * to bring the largest reachable amounts up to date. They run under the index's lock on the thread changing the
+ * coins, so every dispense and update of a checked machine pays for them: about 20 microseconds at the default
+ * ceiling of 10000. Building the index is one multiplication and division per denomination. The index holds 12
+ * bytes per amount, so the service only keeps a bounded number of them and releases the least used.
+ * <p>
+ * An amount with a non zero count can always be paid out. An amount whose real count is a multiple of the
+ * prime would wrongly read as unreachable, which needs a count of at least 2^61 - 1 ways.
+ */
+public final class ReachableAmounts {
+
+    private static final long MODULUS = (1L << 61) - 1;
+
+    private final int ceiling;
+
+    private final int[] coinDenominations;
+
+    /**
+     * Number of ways of paying out each amount, modulo {@link #MODULUS}.
+     */
+    private final long[] ways;
+
+    /**
+     * Largest reachable amount at or below each amount.
+     */
+    private final int[] largestReachable;
+
+    /**
+     * Create the index for the given coins.
+     * @param ceiling largest amount to index.
+     * @param coinDenominations all denomination values, sorted in descending order.
+     * @param coinQuantities the quantity for each denomination, in the same order as the denominations.
+     */
+    public ReachableAmounts(int ceiling, int[] coinDenominations, int[] coinQuantities) {
+
+        this.ceiling = ceiling;
+        this.coinDenominations = coinDenominations;
+        this.ways = new long[ceiling + 1];
+        this.largestReachable = new int[ceiling + 1];
+
+        ways[0] = 1;
+        for (int index = 0; index < coinDenominations.length; index++) {
+            applyCountChange(index, 0, coinQuantities[index]);
+        }
+        updateLargestReachable();
+    }
+
+    /**
+     * Get the largest amount that is indexed.
+     * @return the ceiling.
+     */
+    public int getCeiling() {
+        return ceiling;
+    }
+
+    /**
+     * Update the index after the coin count for a denomination has changed.
+     * @param index index of the denomination.
+     * @param oldCount the count before the change.
+     * @param newCount the count after the change.
+     */
+    public synchronized void countChanged(int index, int oldCount, int newCount) {
+        if (oldCount != newCount) {
+            applyCountChange(index, oldCount, newCount);
+            updateLargestReachable();
+        }
+    }
+
+    /**
+     * Check whether an amount can be paid out.
+     * @param amount the amount, from zero up to the ceiling.
+     * @return true if some combination of the coins adds up to the amount.
+     */
+    public synchronized boolean isReachable(int amount) {
+        return ways[amount] != 0;
+    }
+
+    /**
+     * Get the largest amount that can be paid out without going over the given amount.
+     * @param amount the amount, from zero up to the ceiling.
+     * @return the largest reachable amount at or below the amount, zero if there is none.
+     */
+    public synchronized int getLargestReachable(int amount) {
+        return largestReachable[amount];
+    }
+
+    private void applyCountChange(int index, int oldCount, int newCount) {
+        long coinDenomination = coinDenominations[index];
+        multiplyByOneMinusPower((Math.max(newCount, 0) + 1L) * coinDenomination);
+        divideByOneMinusPower((Math.max(oldCount, 0) + 1L) * coinDenomination);
+    }
+
+    /**
+     * Multiply the table by (1 - x^power), truncated at the ceiling.
+     */
+    private void multiplyByOneMinusPower(long power) {
+        if (power > ceiling) {
+            return;
+        }
+        int step = (int) power;
+        for (int amount = ceiling; amount >= step; amount--) {
+            long value = ways[amount] - ways[amount - step];
+            ways[amount] = value < 0 ? value + MODULUS : value;
+        }
+    }
+
+    /**
+     * Divide the table by (1 - x^power), truncated at the ceiling.
+     */
+    private void divideByOneMinusPower(long power) {
+        if (power > ceiling) {
+            return;
+        }
+        int step = (int) power;
+        for (int amount = step; amount <= ceiling; amount++) {
+            long value = ways[amount] + ways[amount - step];
+            ways[amount] = value >= MODULUS ? value - MODULUS : value;
+        }
+    }
+
+    private void updateLargestReachable() {
+        int largest = 0;
+        for (int amount = 0; amount <= ceiling; amount++) {
+            if (ways[amount] != 0) {
+                largest = amount;
+            }
+            largestReachable[amount] = largest;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import com.example.lgimtest.model.Denomination;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal of every change to the coin state of the machines, so the state can be recovered after a restart.
+ * Each record carries the version of the machine state after the change, so records already covered by a
+ * snapshot can be skipped when replaying.
+ */
+public interface CoinStateJournal {
+
+    /**
+     * Replay the latest snapshot and the journal into the listener, then start journaling.
+     * Called once at start up, before any change is recorded.
+     * @param listener receives the recovered state and later supplies the state for snapshots.
+     */
+    void open(Listener listener);
+
+    /**
+     * Record that a machine has been initialised.
+     * Called before the machine is published, so a machine whose state cannot be journaled is never served.
+     * @param machineId id of the machine.
+     * @param coinState the initialised coin state.
+     * @throws IllegalStateException if the state cannot be journaled.
+     */
+    void initialised(String machineId, CoinState coinState);
+
+    /**
+     * Record that coins have been added to a machine.
+     * @param machineId id of the machine.
+     * @param version version of the coin state after the change.
+     * @param coins the number of coins added for each denomination, in denomination table order.
+     */
+    void coinsAdded(String machineId, long version, int[] coins);
+
+    /**
+     * Record that coins have been removed from a machine.
+     * @param machineId id of the machine.
+     * @param version version of the coin state after the change.
+     * @param coins the number of coins removed for each denomination, in denomination table order.
+     */
+    void coinsRemoved(String machineId, long version, int[] coins);
+
+    /**
+     * Receives recovered state and supplies the state of every machine for snapshots.
+     */
+    interface Listener {
+
+        /**
+         * A machine was initialised, or its state was loaded from a snapshot.
+         * @param machineId id of the machine.
+         * @param version version of the coin state.
+         * @param denominations the denominations.
+         * @param coinCounts the coin count for each denomination, in the same order.
+         */
+        void replayInitialised(String machineId, long version, List<Denomination> denominations, int[] coinCounts);
+
+        /**
+         * Coins were added to a machine.
+         * @param machineId id of the machine.
+         * @param version version of the coin state after the change.
+         * @param coins the number of coins added for each denomination, in denomination table order.
+         */
+        void replayCoinsAdded(String machineId, long version, int[] coins);
+
+        /**
+         * Coins were removed from a machine.
+         * @param machineId id of the machine.
+         * @param version version of the coin state after the change.
+         * @param coins the number of coins removed for each denomination, in denomination table order.
+         */
+        void replayCoinsRemoved(String machineId, long version, int[] coins);
+
+        /**
+         * Copy the state of every machine for a snapshot.
+         * Each copy must include every change recorded before this call.
+         * @return copies of the coin state keyed by machine id.
+         */
+        Map<String, CoinState> copyCoinStates();
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+
+/**
+ * Where the coin counts of the machines are held.
+ */
+public interface CoinStateStore {
+
+    /**
+     * Store the coin state of a newly initialised machine.
+     * @param machineId id of the machine.
+     * @param coinState the initialised coin state.
+     * @return the coin state to serve the machine from, which holds the same coins but may be a different object,
+     * or null if the machine has already been initialised elsewhere.
+     */
+    CoinState store(String machineId, CoinState coinState);
+
+    /**
+     * Load the coin state of a machine that was initialised elsewhere, such as by another process.
+     * @param machineId id of the machine.
+     * @return the coin state, or null if the machine has not been initialised.
+     */
+    CoinState load(String machineId);
+}
@@ -0,0 +1,20 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+
+/**
+ * Audit trail of every dispense, for reconciling what the machines paid out.
+ * Unlike the journal it is never read back by the service.
+ */
+public interface DispenseAuditLog {
+
+    /**
+     * Record that coins have been dispensed. Called on the request path, so it must not block or do I/O.
+     * @param machineId id of the machine.
+     * @param version version of the coin state after the dispense.
+     * @param amountRequested the amount dispensed.
+     * @param coins the number of coins dispensed for each denomination, in denomination table order.
+     * @param coinState the coin state after the dispense.
+     */
+    void dispensed(String machineId, long version, int amountRequested, int[] coins, CoinState coinState);
+}
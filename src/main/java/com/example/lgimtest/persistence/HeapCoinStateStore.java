@@ -0,0 +1,23 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Store used when the coin counts are not shared. Each coin state keeps its counts on the heap of this process.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.inventory.shared", havingValue = "false", matchIfMissing = true)
+public class HeapCoinStateStore implements CoinStateStore {
+
+    @Override
+    public CoinState store(String machineId, CoinState coinState) {
+        return coinState;
+    }
+
+    @Override
+    public CoinState load(String machineId) {
+        return null;
+    }
+}
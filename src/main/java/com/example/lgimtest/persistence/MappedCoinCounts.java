@@ -0,0 +1,92 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinCounts;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Coin counts held in a memory mapped file, which every process mapping the file updates in place.
+ * The counts and the version are read and written through var handles, so each update is a single atomic
+ * instruction on the shared memory and is seen by the other processes straight away.
+ */
+class MappedCoinCounts implements CoinCounts {
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+
+    private final int versionOffset;
+
+    private final int countsOffset;
+
+    private final int length;
+
+    /**
+     * Create counts over a mapped file.
+     * @param buffer the mapped file.
+     * @param versionOffset offset of the version, a multiple of 8.
+     * @param countsOffset offset of the first count, a multiple of 4.
+     * @param length the number of counts.
+     */
+    MappedCoinCounts(ByteBuffer buffer, int versionOffset, int countsOffset, int length) {
+        this.buffer = buffer;
+        this.versionOffset = versionOffset;
+        this.countsOffset = countsOffset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public int get(int index) {
+        return (int) INT.getVolatile(buffer, offset(index));
+    }
+
+    @Override
+    public int getAndAdd(int index, int delta) {
+        return (int) INT.getAndAdd(buffer, offset(index), delta);
+    }
+
+    @Override
+    public boolean compareAndSet(int index, int expected, int count) {
+        return INT.compareAndSet(buffer, offset(index), expected, count);
+    }
+
+    @Override
+    public long getVersion() {
+        return (long) LONG.getVolatile(buffer, versionOffset);
+    }
+
+    @Override
+    public void setVersion(long version) {
+        LONG.setVolatile(buffer, versionOffset, version);
+    }
+
+    /**
+     * Other processes move the version on too, so this is an atomic increment.
+     */
+    @Override
+    public long nextVersion() {
+        return (long) LONG.getAndAdd(buffer, versionOffset, 1L) + 1;
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    private int offset(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+        return countsOffset + (index << 2);
+    }
+}
@@ -0,0 +1,656 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import com.example.lgimtest.model.Denomination;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal that appends binary records to memory mapped segment files.
+ * <p>
+ * Appending a record only copies it into the mapped segment, so it costs a few hundred nanoseconds on the request
+ * thread and survives a crash of the process. A background thread forces dirty segments to disk every flush
+ * interval, so one force commits every record appended in that window (group commit). Snapshots of every machine
+ * are written periodically, after which the segments they cover are deleted, so recovery loads the latest
+ * snapshot and replays only the records since.
+ * <p>
+ * Record layout: int body length, int CRC32 of the body, then the body: byte type, long version, machine id as
+ * a short length and chars, short denomination count, then for an initialise record the name, value and count of
+ * each denomination, or for a coins record one int per denomination. Records are padded to a multiple of 8 bytes.
+ * <p>
+ * An appending thread claims its space by compare and set of the length slot from zero to minus the padded record
+ * size, and writes the body length over it once the record is complete. A claimed record that was never finished,
+ * because the process stopped while writing it, is skipped on replay, so it cannot hide the records after it.
+ * A zero length, or the sealed marker written when the journal moves on to the next segment, ends a segment.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "lgimtest.journal.enabled", havingValue = "true")
+public class MappedCoinStateJournal implements CoinStateJournal, DisposableBean {
+
+    private static final byte INITIALISED = 1;
+    private static final byte COINS_ADDED = 2;
+    private static final byte COINS_REMOVED = 3;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int RECORD_ALIGNMENT = 8;
+    private static final int INITIAL_RECORD_SIZE = 1 << 12;
+
+    /**
+     * Length slot marking the end of a sealed segment.
+     */
+    private static final int SEALED = Integer.MIN_VALUE;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int SNAPSHOT_MAGIC = 0x43534E50;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.journal");
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)\\.snapshot");
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long flushIntervalMillis;
+    private final long snapshotIntervalMillis;
+
+    private final ThreadLocal<ByteBuffer> recordBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_RECORD_SIZE));
+    private final ThreadLocal<CRC32> checksums = ThreadLocal.withInitial(CRC32::new);
+
+    /**
+     * Segments that may still hold records not covered by a snapshot, oldest first.
+     */
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    private volatile Segment currentSegment;
+
+    /**
+     * Forces dirty segments to disk.
+     */
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Writes snapshots, on its own thread so a long snapshot does not hold up flushing.
+     */
+    private ScheduledExecutorService snapshotter;
+
+    private Listener listener;
+
+    public MappedCoinStateJournal(@Value("${lgimtest.journal.directory:data/journal}") String directory,
+                                  @Value("${lgimtest.journal.segment-size:67108864}") int segmentSize,
+                                  @Value("${lgimtest.journal.flush-interval-ms:2}") long flushIntervalMillis,
+                                  @Value("${lgimtest.journal.snapshot-interval-ms:60000}") long snapshotIntervalMillis) {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    @Override
+    public synchronized void open(Listener listener) {
+
+        this.listener = listener;
+        try {
+            Files.createDirectories(directory);
+
+            long firstSegment = loadLatestSnapshot();
+            long lastSegment = firstSegment - 1;
+            for (Path path : listFiles(SEGMENT_NAME)) {
+                long number = fileNumber(path, SEGMENT_NAME);
+                if (number < firstSegment) {
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                replaySegment(path);
+                segments.add(Segment.open(path, number, Files.size(path), true));
+                lastSegment = number;
+            }
+
+            currentSegment = Segment.open(segmentPath(lastSegment + 1), lastSegment + 1, segmentSize, false);
+            segments.add(currentSegment);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot open coin state journal in " + directory, e);
+        }
+
+        flusher = daemonScheduler("coin-state-journal");
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        snapshotter = daemonScheduler("coin-state-snapshot");
+        snapshotter.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalStateException if a name is too long or the record does not fit in a segment, before
+     * anything is appended.
+     */
+    @Override
+    public void initialised(String machineId, CoinState coinState) {
+        ByteBuffer record = startRecord(INITIALISED, coinState.getVersion(), machineId, coinStateSize(coinState));
+        writeCoinState(record, coinState);
+        append(record);
+    }
+
+    @Override
+    public void coinsAdded(String machineId, long version, int[] coins) {
+        append(coinsRecord(COINS_ADDED, machineId, version, coins));
+    }
+
+    @Override
+    public void coinsRemoved(String machineId, long version, int[] coins) {
+        append(coinsRecord(COINS_REMOVED, machineId, version, coins));
+    }
+
+    /**
+     * Write a snapshot of every machine and delete the segments it covers.
+     * The journal moves to a new segment first, so every record in the older segments was appended before the
+     * machine states are copied and is included in the copies.
+     */
+    public synchronized void snapshot() {
+
+        Segment firstUncovered = roll(currentSegment);
+        Map<String, CoinState> coinStates = listener.copyCoinStates();
+
+        try {
+            Path temporary = directory.resolve("snapshot.tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(16);
+                header.putInt(SNAPSHOT_MAGIC).putLong(firstUncovered.number).putInt(coinStates.size()).flip();
+                writeFully(channel, header);
+                for (Map.Entry<String, CoinState> entry : coinStates.entrySet()) {
+                    ByteBuffer record = startRecord(INITIALISED, entry.getValue().getVersion(), entry.getKey(),
+                            coinStateSize(entry.getValue()));
+                    writeCoinState(record, entry.getValue());
+                    finishRecord(record);
+                    writeFully(channel, record);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, snapshotPath(firstUncovered.number), StandardCopyOption.ATOMIC_MOVE);
+
+            for (Path path : listFiles(SNAPSHOT_NAME)) {
+                if (fileNumber(path, SNAPSHOT_NAME) < firstUncovered.number) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            for (Segment segment : segments) {
+                if (segment.number < firstUncovered.number) {
+                    segments.remove(segment);
+                    segment.close();
+                    Files.deleteIfExists(segment.path);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot write coin state snapshot in " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (flusher != null) {
+            flusher.shutdown();
+            snapshotter.shutdown();
+        }
+        flush();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        }
+        catch (RuntimeException e) {
+            log.warn("Coin state snapshot failed", e);
+        }
+    }
+
+    /**
+     * Force every segment with unflushed records to disk.
+     */
+    private void flush() {
+        for (Segment segment : segments) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+    }
+
+    private static ScheduledExecutorService daemonScheduler(String threadName) {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private ByteBuffer coinsRecord(byte type, String machineId, long version, int[] coins) {
+        ByteBuffer record = startRecord(type, version, machineId, Short.BYTES + coins.length * Integer.BYTES);
+        record.putShort((short) coins.length);
+        for (int coin : coins) {
+            record.putInt(coin);
+        }
+        return record;
+    }
+
+    /**
+     * Start a record in this thread's record buffer, growing it if the record needs more room.
+     * @param coinsSize size of the part of the body after the machine id.
+     * @throws IllegalStateException if the machine id is too long or the record does not fit in a segment.
+     */
+    private ByteBuffer startRecord(byte type, long version, String machineId, long coinsSize) {
+
+        checkLength("Machine id", machineId.length());
+        long size = align(RECORD_HEADER_SIZE + Byte.BYTES + Long.BYTES + stringSize(machineId) + coinsSize);
+        // room is kept at the end of a segment for the length slot that ends it
+        if (size + Integer.BYTES > segmentSize) {
+            throw new IllegalStateException(String.format("Journal record of %d bytes for machine %s does not fit in a journal segment.", size, machineId));
+        }
+
+        ByteBuffer record = recordBuffers.get();
+        if (record.capacity() < size) {
+            record = ByteBuffer.allocate((int) size);
+            recordBuffers.set(record);
+        }
+        record.clear();
+        record.position(RECORD_HEADER_SIZE);
+        record.put(type);
+        record.putLong(version);
+        writeString(record, machineId);
+        return record;
+    }
+
+    /**
+     * Get the size of the part of an initialise record after the machine id.
+     * @throws IllegalStateException if there are too many denominations or a name is too long.
+     */
+    private static long coinStateSize(CoinState coinState) {
+        checkLength("Denomination count", coinState.getDenominationCount());
+        long size = Short.BYTES;
+        for (int index = 0; index < coinState.getDenominationCount(); index++) {
+            String name = coinState.getDenomination(index).getName();
+            checkLength("Denomination name", name.length());
+            size += stringSize(name) + Integer.BYTES + Integer.BYTES;
+        }
+        return size;
+    }
+
+    private static void checkLength(String what, int length) {
+        if (length > Short.MAX_VALUE) {
+            throw new IllegalStateException(String.format("%s of %d is too long to journal, the most is %d.", what, length, Short.MAX_VALUE));
+        }
+    }
+
+    private static long stringSize(String value) {
+        return Short.BYTES + (long) value.length() * Character.BYTES;
+    }
+
+    private static long align(long size) {
+        return (size + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+
+    private void writeCoinState(ByteBuffer record, CoinState coinState) {
+        record.putShort((short) coinState.getDenominationCount());
+        for (int index = 0; index < coinState.getDenominationCount(); index++) {
+            Denomination denomination = coinState.getDenomination(index);
+            writeString(record, denomination.getName());
+            record.putInt(denomination.getValue());
+            record.putInt(coinState.getCoinCount(index));
+        }
+    }
+
+    /**
+     * Fill in the length and checksum of a record, pad it and flip it ready to be copied.
+     */
+    private void finishRecord(ByteBuffer record) {
+        int length = record.position() - RECORD_HEADER_SIZE;
+        CRC32 checksum = checksums.get();
+        checksum.reset();
+        checksum.update(record.array(), RECORD_HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(4, (int) checksum.getValue());
+        while (record.position() % RECORD_ALIGNMENT != 0) {
+            record.put((byte) 0);
+        }
+        record.flip();
+    }
+
+    private void append(ByteBuffer record) {
+        finishRecord(record);
+        int size = record.limit();
+
+        Segment segment = currentSegment;
+        int offset = segment.reserve(size);
+        while (offset < 0) {
+            segment = roll(segment);
+            offset = segment.reserve(size);
+        }
+        segment.write(offset, record);
+    }
+
+    /**
+     * Move appends to a new segment, unless another thread already has.
+     * @param full the segment that is full or being retired.
+     * @return the current segment.
+     */
+    private synchronized Segment roll(Segment full) {
+        if (currentSegment != full) {
+            return currentSegment;
+        }
+        try {
+            Segment next = Segment.open(segmentPath(full.number + 1), full.number + 1, segmentSize, false);
+            segments.add(next);
+            full.seal();
+            currentSegment = next;
+            return next;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot open coin state journal segment in " + directory, e);
+        }
+    }
+
+    /**
+     * Load the latest readable snapshot into the listener.
+     * @return the number of the first segment not covered by the snapshot.
+     */
+    private long loadLatestSnapshot() throws IOException {
+
+        List<Path> snapshots = listFiles(SNAPSHOT_NAME);
+        for (int position = snapshots.size() - 1; position >= 0; position--) {
+            Path path = snapshots.get(position);
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buffer.remaining() < 16 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                log.warn("Ignoring unreadable coin state snapshot {}", path);
+                continue;
+            }
+            long firstSegment = buffer.getLong();
+            int machines = buffer.getInt();
+            int loaded = replayRecords(buffer);
+            if (loaded != machines) {
+                log.warn("Coin state snapshot {} holds {} of {} machines", path, loaded, machines);
+            }
+            log.info("Loaded {} machines from coin state snapshot {}", loaded, path);
+            return firstSegment;
+        }
+        return 0;
+    }
+
+    private void replaySegment(Path path) throws IOException {
+        int replayed = replayRecords(ByteBuffer.wrap(Files.readAllBytes(path)));
+        log.info("Replayed {} records from coin state journal segment {}", replayed, path);
+    }
+
+    /**
+     * Replay records until the end of the buffer, a zero length, the sealed marker or a record that fails its
+     * checksum. Space claimed for a record that was never finished is skipped.
+     * @return the number of records replayed.
+     */
+    private int replayRecords(ByteBuffer buffer) {
+
+        CRC32 checksum = new CRC32();
+        int replayed = 0;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length == 0 || length == SEALED) {
+                break;
+            }
+            if (length < 0) {
+                if (-length > buffer.limit() - start) {
+                    break;
+                }
+                log.warn("Skipping an unfinished coin state journal record of {} bytes", -length);
+                buffer.position(start - length);
+                continue;
+            }
+            int expectedChecksum = buffer.getInt();
+            if (length > buffer.remaining()) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(buffer.array(), buffer.position(), length);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                log.warn("Coin state journal record failed its checksum, ignoring the rest of the file");
+                break;
+            }
+
+            ByteBuffer body = buffer.slice();
+            body.limit(length);
+            buffer.position((int) Math.min(buffer.limit(), start + align(RECORD_HEADER_SIZE + length)));
+            replayRecord(body);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    private void replayRecord(ByteBuffer body) {
+
+        byte type = body.get();
+        long version = body.getLong();
+        String machineId = readString(body);
+        int size = body.getShort();
+
+        if (type == INITIALISED) {
+            List<Denomination> denominations = new ArrayList<>(size);
+            int[] coinCounts = new int[size];
+            for (int index = 0; index < size; index++) {
+                String name = readString(body);
+                denominations.add(new Denomination(name, body.getInt()));
+                coinCounts[index] = body.getInt();
+            }
+            listener.replayInitialised(machineId, version, denominations, coinCounts);
+            return;
+        }
+
+        int[] coins = new int[size];
+        for (int index = 0; index < size; index++) {
+            coins[index] = body.getInt();
+        }
+        if (type == COINS_ADDED) {
+            listener.replayCoinsAdded(machineId, version, coins);
+        }
+        else if (type == COINS_REMOVED) {
+            listener.replayCoinsRemoved(machineId, version, coins);
+        }
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        buffer.putShort((short) value.length());
+        for (int index = 0; index < value.length(); index++) {
+            buffer.putChar(value.charAt(index));
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        char[] chars = new char[buffer.getShort()];
+        for (int index = 0; index < chars.length; index++) {
+            chars[index] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private List<Path> listFiles(Pattern pattern) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> paths = new ArrayList<>();
+            files.filter(path -> pattern.matcher(path.getFileName().toString()).matches())
+                    .sorted((first, second) -> Long.compare(fileNumber(first, pattern), fileNumber(second, pattern)))
+                    .forEach(paths::add);
+            return paths;
+        }
+    }
+
+    private static long fileNumber(Path path, Pattern pattern) {
+        Matcher matcher = pattern.matcher(path.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("segment-%016d.journal", number));
+    }
+
+    private Path snapshotPath(long number) {
+        return directory.resolve(String.format("snapshot-%016d.snapshot", number));
+    }
+
+    /**
+     * A memory mapped journal segment. Appending threads claim disjoint regions with compare and set on the length
+     * slot in the segment itself and copy their records in with absolute puts, so they never wait for each other,
+     * and a claimed region is always marked in the file.
+     */
+    private static final class Segment {
+
+        private final long number;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        /**
+         * Offset the next claim starts looking from. Every region before it has been claimed.
+         */
+        private final AtomicInteger position = new AtomicInteger();
+        private volatile boolean dirty;
+
+        private Segment(long number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Open a segment.
+         * @param recovered true for a segment left by an earlier run, which is only read, never appended to.
+         */
+        static Segment open(Path path, long number, long size, boolean recovered) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(number, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            if (recovered) {
+                segment.position.set(segment.buffer.capacity());
+            }
+            return segment;
+        }
+
+        /**
+         * Claim space for a record, keeping room for a length slot after it to mark the end of the segment.
+         * @param size padded size of the record.
+         * @return the offset of the claimed space, or -1 if the segment is full or sealed.
+         */
+        int reserve(int size) {
+            int offset = position.get();
+            while (offset + Integer.BYTES <= buffer.capacity()) {
+                int length = (int) INT.getVolatile(buffer, offset);
+                if (length == SEALED) {
+                    return -1;
+                }
+                if (length != 0) {
+                    offset += claimedSize(length);
+                    continue;
+                }
+                if (offset + size + Integer.BYTES > buffer.capacity()) {
+                    return -1;
+                }
+                if (INT.compareAndSet(buffer, offset, 0, -size)) {
+                    int end = offset + size;
+                    position.accumulateAndGet(end, Math::max);
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Copy a record into claimed space. The length goes in last, over the claim, so a reader never sees a
+         * length before the rest of the record.
+         */
+        void write(int offset, ByteBuffer record) {
+            int size = record.limit();
+            int index = 4;
+            for (; index + 8 <= size; index += 8) {
+                buffer.putLong(offset + index, record.getLong(index));
+            }
+            for (; index < size; index++) {
+                buffer.put(offset + index, record.get(index));
+            }
+            INT.setRelease(buffer, offset, record.getInt(0));
+            if (!dirty) {
+                dirty = true;
+            }
+        }
+
+        /**
+         * Stop further appends to the segment, by claiming the length slot after the last claimed record with
+         * the sealed marker.
+         */
+        void seal() {
+            int offset = position.get();
+            while (offset + Integer.BYTES <= buffer.capacity()) {
+                int length = (int) INT.getVolatile(buffer, offset);
+                if (length == SEALED) {
+                    break;
+                }
+                if (length != 0) {
+                    offset += claimedSize(length);
+                    continue;
+                }
+                if (INT.compareAndSet(buffer, offset, 0, SEALED)) {
+                    break;
+                }
+            }
+            position.set(buffer.capacity());
+            dirty = true;
+        }
+
+        /**
+         * Get the space taken by a record from its length slot, either a claim or a finished record's length.
+         */
+        private static int claimedSize(int length) {
+            return length < 0 ? -length : (int) align(RECORD_HEADER_SIZE + length);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                log.warn("Cannot close coin state journal segment {}", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import com.example.lgimtest.model.Denomination;
+import com.example.lgimtest.model.DenominationTable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Store that keeps the coin counts of each machine in memory mapped files shared by every process on the host.
+ * <p>
+ * Every process that serves a machine maps the files and updates the counts in place with atomic instructions, so
+ * dispenses from different processes reserve coins from the one inventory with compare and set, as threads in one
+ * process do. The files are the state, so they survive a restart of any or all of the processes without a journal.
+ * A machine initialised by one process is found by the others the first time they are asked for it.
+ * <p>
+ * The machines live in fixed size slots of a few large region files, each mapped once, so the number of mappings
+ * does not grow with the fleet. A machine's slot is found by hashing its id and probing the slots after it in turn.
+ * Slots are claimed under a lock on the lock file, which the operating system releases if the process dies, and
+ * are never given up, so the machines sharing a hash always form an unbroken run of slots.
+ * <p>
+ * Slot layout, in native byte order: int magic, int denomination count, long version, one int count per
+ * denomination in denomination table order, the machine id, then the name and int value of each denomination.
+ * Strings are an unsigned short length and UTF-8 bytes. The magic is written last, so a slot being written, or
+ * left half written by a crash, is read as empty and is written over by the next machine to claim it.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.inventory.shared", havingValue = "true")
+public class MappedCoinStateStore implements CoinStateStore {
+
+    private static final int MAGIC = 0x434E5456;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int COUNT_OFFSET = 4;
+    private static final int VERSION_OFFSET = 8;
+    private static final int COUNTS_OFFSET = 16;
+
+    private static final int REGION_BYTES = 1 << 24;
+
+    private static final int MAXIMUM_SLOT_SIZE = 1 << 16;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Claims are serialised in this process too, as a file lock cannot be taken twice by one process.
+     */
+    private static final Object CLAIM_LOCK = new Object();
+
+    private final int capacity;
+
+    private final int slotSize;
+
+    private final int slotsPerRegion;
+
+    private final ByteBuffer[] regions;
+
+    private final FileChannel lockChannel;
+
+    public MappedCoinStateStore(@Value("${lgimtest.inventory.directory:data/inventory}") String directory,
+                                @Value("${lgimtest.inventory.capacity:131072}") int capacity,
+                                @Value("${lgimtest.inventory.slot-size:512}") int slotSize,
+                                @Value("${lgimtest.journal.enabled:false}") boolean journalEnabled) {
+        if (journalEnabled) {
+            throw new IllegalStateException("The journal cannot be enabled with a shared inventory, which is kept in its own files.");
+        }
+        if (capacity < 1) {
+            throw new IllegalStateException("The shared inventory must hold at least one machine.");
+        }
+        if (slotSize < COUNTS_OFFSET || slotSize > MAXIMUM_SLOT_SIZE || slotSize % Long.BYTES != 0) {
+            throw new IllegalStateException("The shared inventory slot size must be a multiple of 8 from "
+                    + COUNTS_OFFSET + " to " + MAXIMUM_SLOT_SIZE + " bytes.");
+        }
+        this.capacity = capacity;
+        this.slotSize = slotSize;
+        this.slotsPerRegion = Math.min(capacity, REGION_BYTES / slotSize);
+        this.regions = new ByteBuffer[(capacity + slotsPerRegion - 1) / slotsPerRegion];
+
+        Path path = Paths.get(directory);
+        try {
+            Files.createDirectories(path);
+            lockChannel = FileChannel.open(path.resolve("inventory.lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            checkLayout();
+            for (int region = 0; region < regions.length; region++) {
+                int slots = Math.min(slotsPerRegion, capacity - region * slotsPerRegion);
+                try (FileChannel channel = FileChannel.open(path.resolve("inventory-" + region + ".region"),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    regions[region] = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * slotSize)
+                            .order(ByteOrder.nativeOrder());
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot open shared inventory in " + directory, e);
+        }
+    }
+
+    @Override
+    public CoinState store(String machineId, CoinState coinState) {
+
+        byte[] id = machineId.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> names = new ArrayList<>();
+        int size = COUNTS_OFFSET + coinState.getDenominationCount() * Integer.BYTES + Short.BYTES + id.length;
+        for (Denomination denomination : coinState.getDenominations()) {
+            byte[] name = denomination.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += Short.BYTES + name.length + Integer.BYTES;
+        }
+        if (size > slotSize) {
+            throw new IllegalStateException("Vending Machine needs " + size + " bytes, more than the "
+                    + slotSize + " of a shared inventory slot.");
+        }
+
+        int slot;
+        synchronized (CLAIM_LOCK) {
+            FileLock lock = lock("Cannot lock shared inventory for machine " + machineId);
+            try {
+                slot = claim(id);
+                if (slot < 0) {
+                    return null;
+                }
+                write(slot, id, names, coinState);
+            }
+            finally {
+                release(lock);
+            }
+        }
+
+        CoinState mappedCoinState = new CoinState(coinState.getDenominationTable(), counts(slot, coinState.getDenominationCount()));
+        mappedCoinState.setCanonical(coinState.isCanonical());
+        return mappedCoinState;
+    }
+
+    @Override
+    public CoinState load(String machineId) {
+
+        byte[] id = machineId.getBytes(StandardCharsets.UTF_8);
+        int slot = find(id);
+        if (slot < 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = slotBuffer(slot);
+        int denominationCount = buffer.getInt(COUNT_OFFSET);
+        buffer.position(COUNTS_OFFSET + denominationCount * Integer.BYTES);
+        skipString(buffer);
+        List<Denomination> denominations = new ArrayList<>();
+        for (int index = 0; index < denominationCount; index++) {
+            denominations.add(new Denomination(getString(buffer), buffer.getInt()));
+        }
+
+        return new CoinState(DenominationTable.of(denominations), counts(slot, denominationCount));
+    }
+
+    /**
+     * Find the slot of an initialised machine, stopping at the first slot without the magic.
+     * @return the slot, or -1 if the machine has not been initialised.
+     */
+    private int find(byte[] id) {
+        int home = home(id);
+        for (int probe = 0; probe < capacity; probe++) {
+            int slot = (home + probe) % capacity;
+            if (!isWritten(slot)) {
+                return -1;
+            }
+            if (hasId(slot, id)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the slot to write a new machine to, holding the lock.
+     * @return the first slot without the magic, or -1 if the machine has already been initialised.
+     */
+    private int claim(byte[] id) {
+        int home = home(id);
+        for (int probe = 0; probe < capacity; probe++) {
+            int slot = (home + probe) % capacity;
+            if (!isWritten(slot)) {
+                return slot;
+            }
+            if (hasId(slot, id)) {
+                return -1;
+            }
+        }
+        throw new IllegalStateException("The shared inventory is full. Raise lgimtest.inventory.capacity.");
+    }
+
+    private void write(int slot, byte[] id, List<byte[]> names, CoinState coinState) {
+        ByteBuffer buffer = slotBuffer(slot);
+        buffer.putInt(COUNT_OFFSET, coinState.getDenominationCount());
+        buffer.putLong(VERSION_OFFSET, coinState.getVersion());
+        buffer.position(COUNTS_OFFSET);
+        for (int index = 0; index < coinState.getDenominationCount(); index++) {
+            buffer.putInt(coinState.getCoinCount(index));
+        }
+        putString(buffer, id);
+        for (int index = 0; index < coinState.getDenominationCount(); index++) {
+            putString(buffer, names.get(index));
+            buffer.putInt(coinState.getDenomination(index).getValue());
+        }
+        INT.setRelease(regions[slot / slotsPerRegion], slotOffset(slot) + MAGIC_OFFSET, MAGIC);
+    }
+
+    private boolean isWritten(int slot) {
+        return (int) INT.getAcquire(regions[slot / slotsPerRegion], slotOffset(slot) + MAGIC_OFFSET) == MAGIC;
+    }
+
+    private boolean hasId(int slot, byte[] id) {
+        ByteBuffer buffer = slotBuffer(slot);
+        buffer.position(COUNTS_OFFSET + buffer.getInt(COUNT_OFFSET) * Integer.BYTES);
+        if (Short.toUnsignedInt(buffer.getShort()) != id.length) {
+            return false;
+        }
+        for (byte b : id) {
+            if (buffer.get() != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MappedCoinCounts counts(int slot, int denominationCount) {
+        int offset = slotOffset(slot);
+        return new MappedCoinCounts(regions[slot / slotsPerRegion], offset + VERSION_OFFSET,
+                offset + COUNTS_OFFSET, denominationCount);
+    }
+
+    /**
+     * A view of one slot, with its own position so threads can read different slots at once.
+     */
+    private ByteBuffer slotBuffer(int slot) {
+        ByteBuffer buffer = regions[slot / slotsPerRegion].duplicate();
+        buffer.position(slotOffset(slot)).limit(slotOffset(slot) + slotSize);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private int slotOffset(int slot) {
+        return (slot % slotsPerRegion) * slotSize;
+    }
+
+    private int home(byte[] id) {
+        int hash = 1;
+        for (byte b : id) {
+            hash = 31 * hash + b;
+        }
+        return Math.floorMod(hash ^ (hash >>> 16), capacity);
+    }
+
+    /**
+     * Check every process lays the slots out the same way, as a machine's slot depends on the capacity.
+     */
+    private void checkLayout() throws IOException {
+        synchronized (CLAIM_LOCK) {
+            FileLock lock = lock("Cannot lock shared inventory");
+            try {
+                ByteBuffer layout = ByteBuffer.allocate(2 * Integer.BYTES);
+                if (lockChannel.read(layout, 0) < layout.capacity()) {
+                    lockChannel.write(layout.clear().putInt(capacity).putInt(slotSize).flip(), 0);
+                }
+                else if (layout.getInt(0) != capacity || layout.getInt(Integer.BYTES) != slotSize) {
+                    throw new IllegalStateException("The shared inventory was created with a capacity of "
+                            + layout.getInt(0) + " and slot size of " + layout.getInt(Integer.BYTES)
+                            + ", which every process must keep.");
+                }
+            }
+            finally {
+                release(lock);
+            }
+        }
+    }
+
+    private FileLock lock(String message) {
+        try {
+            return lockChannel.lock();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(message, e);
+        }
+    }
+
+    private static void release(FileLock lock) {
+        try {
+            lock.release();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot unlock shared inventory", e);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        buffer.position(buffer.position() + length);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Journal used when persistence is disabled. State is held in memory only and lost on restart.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.journal.enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpCoinStateJournal implements CoinStateJournal {
+
+    @Override
+    public void open(Listener listener) {
+    }
+
+    @Override
+    public void initialised(String machineId, CoinState coinState) {
+    }
+
+    @Override
+    public void coinsAdded(String machineId, long version, int[] coins) {
+    }
+
+    @Override
+    public void coinsRemoved(String machineId, long version, int[] coins) {
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Audit log used when auditing is disabled. Dispenses are not recorded.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.audit.enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpDispenseAuditLog implements DispenseAuditLog {
+
+    @Override
+    public void dispensed(String machineId, long version, int amountRequested, int[] coins, CoinState coinState) {
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Audit log that hands dispenses to a background writer through a preallocated ring buffer.
+ * <p>
+ * A request thread claims a slot with one compare and set, copies the dispense into the slot's arrays and marks
+ * the slot published, so recording a dispense takes no lock, does no I/O and allocates nothing. When the writer
+ * has fallen a whole buffer behind, the dispense is dropped and counted rather than holding up the request.
+ * The writer drains published records in batches, one JSON object per line, into files of up to the configured
+ * size in the audit directory, keeping the newest few files.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "lgimtest.audit.enabled", havingValue = "true")
+public class RingBufferDispenseAuditLog implements DispenseAuditLog, DisposableBean {
+
+    private static final Pattern FILE_NAME = Pattern.compile("audit-(\\d+)\\.log");
+
+    private static final int INITIAL_DENOMINATIONS = 16;
+
+    /**
+     * How long the writer sleeps when there is nothing to write.
+     */
+    private static final long IDLE_NANOS = 1_000_000;
+
+    private final Path directory;
+
+    private final int batchSize;
+
+    private final long fileSize;
+
+    private final int maxFiles;
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    /**
+     * Sequence of the record each slot holds, set once the record is fully written.
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * Next sequence for a request thread to claim.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Next sequence for the writer to read. Slots for earlier sequences are free.
+     */
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Lines of the batch being written. Only used by the writer.
+     */
+    private final StringBuilder batch = new StringBuilder();
+
+    private FileChannel file;
+
+    private long fileNumber;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    /**
+     * Create the audit log. The writer starts with {@link #start()}.
+     * @param directory directory the audit files are written to.
+     * @param capacity number of records the ring buffer holds, rounded up to a power of two.
+     * @param batchSize most records written in one write.
+     * @param fileSize size in bytes at which the writer moves on to a new file.
+     * @param maxFiles number of audit files kept, including the one being written.
+     * @param meterRegistry registry the written, dropped and failed counts are added to.
+     */
+    public RingBufferDispenseAuditLog(@Value("${lgimtest.audit.directory:data/audit}") String directory,
+                                      @Value("${lgimtest.audit.capacity:65536}") int capacity,
+                                      @Value("${lgimtest.audit.batch-size:1024}") int batchSize,
+                                      @Value("${lgimtest.audit.file-size:67108864}") long fileSize,
+                                      @Value("${lgimtest.audit.max-files:10}") int maxFiles,
+                                      MeterRegistry meterRegistry) {
+
+        this.directory = Paths.get(directory);
+        this.batchSize = batchSize;
+        this.fileSize = fileSize;
+        this.maxFiles = maxFiles;
+
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Slot[size];
+        this.published = new AtomicLongArray(size);
+        for (int index = 0; index < size; index++) {
+            slots[index] = new Slot();
+            published.set(index, -1);
+        }
+        this.mask = size - 1;
+
+        FunctionCounter.builder("lgimtest.audit.records", written, LongAdder::sum)
+                .description("Dispense audit records")
+                .tag("result", "written")
+                .register(meterRegistry);
+        FunctionCounter.builder("lgimtest.audit.records", dropped, LongAdder::sum)
+                .description("Dispense audit records")
+                .tag("result", "dropped")
+                .register(meterRegistry);
+        FunctionCounter.builder("lgimtest.audit.records", failed, LongAdder::sum)
+                .description("Dispense audit records")
+                .tag("result", "failed")
+                .register(meterRegistry);
+        Gauge.builder("lgimtest.audit.backlog", this, log -> log.claimed.get() - log.consumed.get())
+                .description("Dispense audit records waiting for the writer")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Open a new audit file and start the writer.
+     */
+    @PostConstruct
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> paths = Files.list(directory)) {
+                fileNumber = paths.mapToLong(RingBufferDispenseAuditLog::fileNumber).max().orElse(0);
+            }
+            nextFile();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot open dispense audit log in " + directory, e);
+        }
+
+        running = true;
+        writer = new Thread(this::drain, "dispense-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void dispensed(String machineId, long version, int amountRequested, int[] coins, CoinState coinState) {
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= slots.length) {
+                dropped.increment();
+                return;
+            }
+        }
+        while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) sequence & mask;
+        Slot slot = slots[index];
+        slot.timestamp = System.currentTimeMillis();
+        slot.machineId = machineId;
+        slot.version = version;
+        slot.amountRequested = amountRequested;
+        slot.coinState = coinState;
+        slot.denominationCount = coins.length;
+        if (slot.coins.length < coins.length) {
+            slot.coins = new int[coins.length];
+            slot.inventory = new int[coins.length];
+        }
+        for (int counter = 0; counter < coins.length; counter++) {
+            slot.coins[counter] = coins[counter];
+            slot.inventory[counter] = coinState.getCoinCount(counter);
+        }
+        published.lazySet(index, sequence);
+    }
+
+    /**
+     * Get the number of records written to the audit files.
+     * @return the number of records written.
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Get the number of records dropped because the ring buffer was full.
+     * @return the number of records dropped.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop the writer once it has written every published record.
+     */
+    @Override
+    public void destroy() {
+        running = false;
+        if (writer == null) {
+            return;
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write batches until stopped and nothing is left. Runs on the writer thread.
+     */
+    private void drain() {
+        while (writeBatch() > 0 || running) {
+            if (consumed.get() == claimed.get()) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        try {
+            file.force(false);
+            file.close();
+        }
+        catch (IOException e) {
+            log.warn("Cannot close dispense audit file {}", filePath(fileNumber), e);
+        }
+    }
+
+    /**
+     * Write the published records at the head of the ring buffer, up to a batch.
+     * @return the number of records taken from the ring buffer.
+     */
+    private int writeBatch() {
+
+        long next = consumed.get();
+        int count = 0;
+        batch.setLength(0);
+        while (count < batchSize) {
+            long sequence = next + count;
+            int index = (int) sequence & mask;
+            if (published.get(index) != sequence) {
+                break;
+            }
+            appendRecord(slots[index]);
+            count++;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        // the records are in the batch, so their slots can be reused while it is written
+        consumed.set(next + count);
+
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+            if (file.size() > 0 && file.size() + bytes.remaining() > fileSize) {
+                nextFile();
+            }
+            while (bytes.hasRemaining()) {
+                file.write(bytes);
+            }
+            written.add(count);
+        }
+        catch (IOException e) {
+            failed.add(count);
+            log.warn("Cannot write {} dispense audit records to {}", count, filePath(fileNumber), e);
+        }
+        return count;
+    }
+
+    /**
+     * Move on to a new audit file, deleting the oldest files beyond the number kept.
+     */
+    private void nextFile() throws IOException {
+        if (file != null) {
+            file.force(false);
+            file.close();
+        }
+        fileNumber++;
+        file = FileChannel.open(filePath(fileNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                long number = fileNumber(path);
+                if (number > 0 && number <= fileNumber - maxFiles) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private void appendRecord(Slot slot) {
+        batch.append("{\"time\":\"").append(Instant.ofEpochMilli(slot.timestamp))
+                .append("\",\"machineId\":");
+        appendString(slot.machineId);
+        batch.append(",\"version\":").append(slot.version)
+                .append(",\"amount\":").append(slot.amountRequested)
+                .append(",\"dispensed\":{");
+        boolean first = true;
+        for (int index = 0; index < slot.denominationCount; index++) {
+            if (slot.coins[index] > 0) {
+                if (!first) {
+                    batch.append(',');
+                }
+                appendString(slot.coinState.getDenomination(index).getName());
+                batch.append(':').append(slot.coins[index]);
+                first = false;
+            }
+        }
+        batch.append("},\"inventory\":{");
+        for (int index = 0; index < slot.denominationCount; index++) {
+            if (index > 0) {
+                batch.append(',');
+            }
+            appendString(slot.coinState.getDenomination(index).getName());
+            batch.append(':').append(slot.inventory[index]);
+        }
+        batch.append("}}\n");
+    }
+
+    private void appendString(String value) {
+        batch.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            char character = value.charAt(index);
+            if (character == '"' || character == '\\') {
+                batch.append('\\').append(character);
+            }
+            else if (character < 0x20) {
+                batch.append(String.format("\\u%04x", (int) character));
+            }
+            else {
+                batch.append(character);
+            }
+        }
+        batch.append('"');
+    }
+
+    private Path filePath(long number) {
+        return directory.resolve("audit-" + number + ".log");
+    }
+
+    private static long fileNumber(Path path) {
+        Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    /**
+     * A preallocated ring buffer entry, reused for every record that lands on it.
+     */
+    private static final class Slot {
+
+        private long timestamp;
+
+        private String machineId;
+
+        private long version;
+
+        private int amountRequested;
+
+        private CoinState coinState;
+
+        private int denominationCount;
+
+        private int[] coins = new int[INITIAL_DENOMINATIONS];
+
+        private int[] inventory = new int[INITIAL_DENOMINATIONS];
+    }
+}
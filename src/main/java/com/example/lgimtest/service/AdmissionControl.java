@@ -0,0 +1,94 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.dto.DispenseBatchOutcome;
+import com.example.lgimtest.dto.DispenseOutcome;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the dispense work in flight for each machine, counting work from when it is queued on the machine's shard
+ * until it completes.
+ * <p>
+ * Without a cap a burst of dispenses queues without limit on the shard, and every request behind it waits for the
+ * whole queue. With one, work beyond the cap is turned away at once, so the wait for admitted work stays bounded.
+ * Updates are not counted and never turned away, so a machine can always be refilled. They are queued ahead of the
+ * dispenses on the shard, so an update waits for the operation the shard is running and any updates queued before
+ * it, not for the capped dispenses. The operation running can be a dispense batch, which takes as long as all of
+ * its amounts.
+ */
+@Component
+public class AdmissionControl {
+
+    private final int maximumInFlight;
+
+    /**
+     * Outcome of every dispense that is turned away, shared so turning work away allocates nothing.
+     */
+    private final DispenseOutcome overloadedOutcome;
+
+    private final DispenseBatchOutcome overloadedBatchOutcome;
+
+    /**
+     * Dispense work in flight for each machine that has had any.
+     */
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Create the admission control.
+     * @param maximumInFlight the most dispense operations in flight for one machine, or zero for no limit.
+     * @param retryAfterSeconds how long turned away clients are asked to wait before trying again, in seconds.
+     */
+    public AdmissionControl(@Value("${lgimtest.admission.max-in-flight:256}") int maximumInFlight,
+                            @Value("${lgimtest.admission.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.maximumInFlight = maximumInFlight;
+        this.overloadedOutcome = DispenseOutcome.overloaded(retryAfterSeconds);
+        this.overloadedBatchOutcome = DispenseBatchOutcome.overloaded(retryAfterSeconds);
+    }
+
+    /**
+     * Admit a dispense operation for a machine, which must be released when it completes.
+     * @param machineId id of the machine, which must have been initialised.
+     * @return true if admitted, false if the machine already has the most dispense operations in flight.
+     */
+    public boolean tryAdmit(String machineId) {
+        if (maximumInFlight <= 0) {
+            return true;
+        }
+        AtomicInteger machineInFlight = inFlight.computeIfAbsent(machineId, id -> new AtomicInteger());
+        if (machineInFlight.incrementAndGet() > maximumInFlight) {
+            machineInFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Release an admitted dispense operation once it has completed.
+     * @param machineId id of the machine.
+     */
+    public void release(String machineId) {
+        if (maximumInFlight > 0) {
+            inFlight.get(machineId).decrementAndGet();
+        }
+    }
+
+    /**
+     * Get the outcome of a dispense that was not admitted.
+     * @return the outcome.
+     */
+    public DispenseOutcome getOverloadedOutcome() {
+        return overloadedOutcome;
+    }
+
+    /**
+     * Get the outcome of a dispense batch that was not admitted.
+     * @return the outcome.
+     */
+    public DispenseBatchOutcome getOverloadedBatchOutcome() {
+        return overloadedBatchOutcome;
+    }
+}
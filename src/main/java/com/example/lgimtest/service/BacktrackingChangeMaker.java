@@ -0,0 +1,143 @@
+package com.example.lgimtest.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original recursive backtracking change maker.
+ * Kept for comparison with the knapsack change maker. It can take exponential time for awkward amounts,
+ * so it is only used when lgimtest.dispense.solver=backtracking.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.dispense.solver", havingValue = "backtracking")
+public class BacktrackingChangeMaker implements ChangeMaker {
+
+    @Override
+    public int[] makeChange(int amount, int[] coinDenominations, int[] coinQuantities, ChangeMakerContext context) {
+
+        List<Integer> coinsToDispense = new ArrayList<>();
+
+        // create a list of coins by denomination to be dispensed, working on a copy of the quantities
+        createCoinsToDispense(amount, coinDenominations, coinQuantities.clone(), coinsToDispense, 0, context);
+
+        if (coinsToDispense.isEmpty()) {
+            return null;
+        }
+
+        int[] result = new int[coinDenominations.length];
+        for (int coinDenomination : coinsToDispense) {
+            for (int counter = 0; counter < coinDenominations.length; counter++) {
+                if (coinDenominations[counter] == coinDenomination) {
+                    result[counter]++;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every combination of coins is tried, largest denominations first, abandoning a branch once it weighs as much
+     * as the best change found so far.
+     */
+    @Override
+    public int[] makeChange(int amount, int[] coinDenominations, int[] coinQuantities, int[] coinWeights,
+                            ChangeMakerContext context) {
+        WeightedSearch search = new WeightedSearch(coinDenominations, coinQuantities, coinWeights, context);
+        search.search(amount, 0, 0);
+        return search.bestWeight == Long.MAX_VALUE ? null : search.best;
+    }
+
+    private int createCoinsToDispense(int targetValue, int[] coinDenominations, int[] coinQuantities, List<Integer> listOfCoins, int position,
+                                      ChangeMakerContext context) {
+
+        context.addWork(1);
+
+        //if total is 0 then return
+        if (targetValue == 0) {
+            return 0;
+        }
+
+        int pushedToList = 0;
+        for (int counter = position; counter < coinDenominations.length; counter++) {
+
+            int coinDenomination = coinDenominations[counter];
+
+            //Continue if coin is greater than the total
+            if (coinDenomination > targetValue) {
+                continue;
+            }
+
+            // Continue if the coin isnt available to dispense as change
+            if (coinQuantities[counter] == 0) {
+                continue;
+            }
+
+            coinQuantities[counter] -= 1;
+            listOfCoins.add(coinDenomination);
+            pushedToList = coinDenomination;
+            targetValue -= coinDenomination;
+
+            targetValue = createCoinsToDispense(targetValue, coinDenominations, coinQuantities, listOfCoins, counter, context);
+            if (targetValue > 0) {
+                if (pushedToList > 0) {
+                    targetValue += pushedToList;
+                    listOfCoins.remove(listOfCoins.size() - 1);
+                    pushedToList = 0;
+                }
+            }
+        }
+        return targetValue;
+    }
+
+    /**
+     * Depth first search for the change with the smallest total weight.
+     */
+    private static final class WeightedSearch {
+
+        private final int[] coinDenominations;
+        private final int[] coinQuantities;
+        private final int[] coinWeights;
+        private final ChangeMakerContext context;
+        private final int[] current;
+        private final int[] best;
+        private long bestWeight = Long.MAX_VALUE;
+
+        private WeightedSearch(int[] coinDenominations, int[] coinQuantities, int[] coinWeights, ChangeMakerContext context) {
+            this.coinDenominations = coinDenominations;
+            this.coinQuantities = coinQuantities;
+            this.coinWeights = coinWeights;
+            this.context = context;
+            this.current = new int[coinDenominations.length];
+            this.best = new int[coinDenominations.length];
+        }
+
+        private void search(int remaining, int position, long weight) {
+
+            context.addWork(1);
+
+            if (weight >= bestWeight) {
+                return;
+            }
+            if (remaining == 0) {
+                System.arraycopy(current, 0, best, 0, current.length);
+                bestWeight = weight;
+                return;
+            }
+            if (position == coinDenominations.length) {
+                return;
+            }
+
+            int most = Math.min(coinQuantities[position], remaining / coinDenominations[position]);
+            for (int count = most; count >= 0; count--) {
+                current[position] = count;
+                search(remaining - count * coinDenominations[position], position + 1, weight + (long) count * coinWeights[position]);
+            }
+            current[position] = 0;
+        }
+    }
+}
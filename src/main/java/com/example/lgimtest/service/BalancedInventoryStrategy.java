@@ -0,0 +1,37 @@
+package com.example.lgimtest.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dispense from the denominations with the most coins, keeping the inventory even.
+ * Each coin weighs 1 + (maximum weight - 1) * mean / (mean + count), where mean is the average count across
+ * denominations: an empty denomination weighs the maximum, one at the average about half of it, and
+ * denominations well above the average approach 1.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.dispense.strategy", havingValue = BalancedInventoryStrategy.NAME)
+public class BalancedInventoryStrategy implements DispenseStrategy {
+
+    public static final String NAME = "balanced";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void weighCoins(int[] coinDenominations, int[] coinQuantities, int[] coinWeights) {
+
+        long totalCoins = 0;
+        for (int coinQuantity : coinQuantities) {
+            totalCoins += coinQuantity;
+        }
+        long meanCoins = coinQuantities.length == 0 ? 0 : totalCoins / coinQuantities.length;
+
+        for (int index = 0; index < coinWeights.length; index++) {
+            long denominator = meanCoins + coinQuantities[index];
+            coinWeights[index] = denominator == 0 ? 1 : 1 + (int) ((MAX_COIN_WEIGHT - 1) * meanCoins / denominator);
+        }
+    }
+}
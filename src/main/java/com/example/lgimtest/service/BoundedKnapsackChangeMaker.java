@@ -0,0 +1,115 @@
+package com.example.lgimtest.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * Minimum coin change maker using dynamic programming over bounded coin quantities.
+ * Each denomination is folded into the table with a sliding window minimum per residue class,
+ * so the run time is O(amount x denominations) regardless of the quantities available.
+ * Coins can also be weighed, in which case the change with the smallest total weight is made, at the same cost.
+ * The tables take O(amount x denominations) memory too, so callers cap the amounts they pass in.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.dispense.solver", havingValue = "knapsack", matchIfMissing = true)
+public class BoundedKnapsackChangeMaker implements ChangeMaker {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+    @Override
+    public int[] makeChange(int amount, int[] coinDenominations, int[] coinQuantities, ChangeMakerContext context) {
+        return makeChange(amount, coinDenominations, coinQuantities, null, context);
+    }
+
+    @Override
+    public int[] makeChange(int amount, int[] coinDenominations, int[] coinQuantities, int[] coinWeights,
+                            ChangeMakerContext context) {
+
+        // fail fast when the machine does not hold enough money in total
+        long totalValue = 0;
+        for (int counter = 0; counter < coinDenominations.length; counter++) {
+            totalValue += (long) coinDenominations[counter] * coinQuantities[counter];
+        }
+        if (totalValue < amount) {
+            return null;
+        }
+
+        // the tables are scratch arrays reused by the calling thread, so they may be longer than needed
+        int size = Math.addExact(amount, 1);
+        int coinsTakenSize = Math.multiplyExact(coinDenominations.length, size);
+        int[] minCoins = context.minCoins(size);
+        int[] nextMinCoins = context.nextMinCoins(size);
+        int[] window = context.window(size);
+        int[] coinsTaken = context.coinsTaken(coinsTakenSize);
+
+        Arrays.fill(minCoins, 0, size, UNREACHABLE);
+        minCoins[0] = 0;
+
+        for (int counter = 0; counter < coinDenominations.length; counter++) {
+            foldDenomination(amount, coinDenominations[counter], coinQuantities[counter],
+                    coinWeights == null ? 1 : coinWeights[counter],
+                    minCoins, nextMinCoins, window, coinsTaken, counter * size);
+            context.addWork(size);
+            int[] swap = minCoins;
+            minCoins = nextMinCoins;
+            nextMinCoins = swap;
+        }
+
+        if (minCoins[amount] >= UNREACHABLE) {
+            return null;
+        }
+
+        // walk back through the denominations to recover how many of each coin was used
+        int[] result = context.coinsToTake(coinDenominations.length);
+        int remaining = amount;
+        for (int counter = coinDenominations.length - 1; counter >= 0; counter--) {
+            result[counter] = coinsTaken[counter * size + remaining];
+            remaining -= result[counter] * coinDenominations[counter];
+        }
+        return result;
+    }
+
+    /**
+     * Fold a single denomination into the minimum coins table, where each coin counts as its weight.
+     * For amounts v = r + t * coin, taking j coins costs minCoins[v - j * coin] + j * weight, so the best choice is
+     * the minimum of (minCoins[r + s * coin] - s * weight) over the last quantity + 1 values of s, plus t * weight.
+     * A monotonic queue keeps that minimum in amortised constant time per amount. The coins taken for each amount
+     * are written to coinsTaken from offset onwards.
+     */
+    private void foldDenomination(int amount, int coin, int quantity, int weight,
+                                  int[] minCoins, int[] nextMinCoins, int[] window, int[] coinsTaken, int offset) {
+
+        int usableQuantity = Math.min(quantity, amount / coin);
+
+        for (int residue = 0; residue < coin && residue <= amount; residue++) {
+            int head = 0;
+            int tail = 0;
+            for (int t = 0, value = residue; value <= amount; t++, value += coin) {
+
+                if (minCoins[value] < UNREACHABLE) {
+                    int candidate = minCoins[value] - t * weight;
+                    while (tail > head && minCoins[residue + window[tail - 1] * coin] - window[tail - 1] * weight >= candidate) {
+                        tail--;
+                    }
+                    window[tail++] = t;
+                }
+
+                while (tail > head && window[head] < t - usableQuantity) {
+                    head++;
+                }
+
+                if (tail > head) {
+                    int best = window[head];
+                    nextMinCoins[value] = minCoins[residue + best * coin] + (t - best) * weight;
+                    coinsTaken[offset + value] = t - best;
+                }
+                else {
+                    nextMinCoins[value] = UNREACHABLE;
+                    coinsTaken[offset + value] = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.lgimtest.service;
+
+/**
+ * Checks and greedy change making for canonical coin systems.
+ * A coin system is canonical when the greedy algorithm always gives the minimum number of coins, as is the case
+ * for sterling (1, 2, 5, 10, 20, 50, 100, 200).
+ */
+public final class CanonicalCoinSystem {
+
+    private CanonicalCoinSystem() {
+    }
+
+    /**
+     * Check whether a coin system is canonical using Pearson's O(n^3) test.
+     * The smallest counterexample, if there is one, is found by taking the greedy representation of
+     * one less than a coin, keeping its first j - 1 counts, adding a coin at position j and dropping the rest.
+     * @param coinDenominations all denomination values, sorted in descending order.
+     * @return true if greedy change is always optimal for the coin system.
+     */
+    public static boolean isCanonical(int[] coinDenominations) {
+
+        int size = coinDenominations.length;
+
+        // without a unit coin greedy can fail for amounts that can be made, so always use the full solver
+        if (size == 0 || coinDenominations[size - 1] != 1) {
+            return false;
+        }
+
+        for (int i = 1; i < size; i++) {
+            int[] greedy = greedyRepresentation(coinDenominations[i - 1] - 1, coinDenominations);
+
+            for (int j = i; j < size; j++) {
+                long candidateValue = 0;
+                int candidateCoins = 0;
+                for (int counter = 0; counter < j; counter++) {
+                    candidateValue += (long) greedy[counter] * coinDenominations[counter];
+                    candidateCoins += greedy[counter];
+                }
+                candidateValue += (long) (greedy[j] + 1) * coinDenominations[j];
+                candidateCoins += greedy[j] + 1;
+
+                if (candidateCoins < greedyCoinCount(candidateValue, coinDenominations)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether unrestricted greedy change for the amount can be paid from the available coins.
+     * For a canonical coin system that greedy change is the minimum coin solution, so when it fits the available
+     * quantities nothing better exists. Does not allocate.
+     * @param amount the amount to make change for.
+     * @param coinDenominations all denomination values, sorted in descending order.
+     * @param coinQuantities the available quantity for each denomination, in the same order as the denominations.
+     * @return true if the greedy change can be dispensed.
+     */
+    public static boolean greedyChangeFits(int amount, int[] coinDenominations, int[] coinQuantities) {
+
+        int remaining = amount;
+        for (int counter = 0; counter < coinDenominations.length; counter++) {
+            int coins = remaining / coinDenominations[counter];
+            if (coins > coinQuantities[counter]) {
+                return false;
+            }
+            remaining -= coins * coinDenominations[counter];
+        }
+        return remaining == 0;
+    }
+
+    /**
+     * Write the unrestricted greedy change for the amount. Does not allocate.
+     * @param amount the amount to make change for.
+     * @param coinDenominations all denomination values, sorted in descending order.
+     * @param coinsToTake receives the number of coins to take for each denomination.
+     */
+    public static void greedyChange(int amount, int[] coinDenominations, int[] coinsToTake) {
+
+        int remaining = amount;
+        for (int counter = 0; counter < coinDenominations.length; counter++) {
+            coinsToTake[counter] = remaining / coinDenominations[counter];
+            remaining -= coinsToTake[counter] * coinDenominations[counter];
+        }
+    }
+
+    private static int[] greedyRepresentation(int amount, int[] coinDenominations) {
+        int[] counts = new int[coinDenominations.length];
+        int remaining = amount;
+        for (int counter = 0; counter < coinDenominations.length; counter++) {
+            counts[counter] = remaining / coinDenominations[counter];
+            remaining -= counts[counter] * coinDenominations[counter];
+        }
+        return counts;
+    }
+
+    private static long greedyCoinCount(long amount, int[] coinDenominations) {
+        long coins = 0;
+        long remaining = amount;
+        for (int coinDenomination : coinDenominations) {
+            coins += remaining / coinDenomination;
+            remaining %= coinDenomination;
+        }
+        return coins;
+    }
+}
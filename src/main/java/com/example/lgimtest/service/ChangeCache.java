@@ -0,0 +1,203 @@
+package com.example.lgimtest.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used cache of change maker solutions, in front of the change maker.
+ * <p>
+ * Solutions are keyed by the amount, the denomination values and the coin quantities. Only
+ * min(quantity, amount / value) coins of a denomination can ever be used for an amount, so quantities are capped
+ * at that before they are compared. Restocking a machine that already has plenty of a coin, or dispensing from
+ * it, does not change the key. Any change that could change the solution does, so a cached solution is
+ * never stale. The whole key is compared on a lookup, not just its hash.
+ * <p>
+ * Each shard thread has its own cache, so lookups take no locks.
+ */
+@Component
+public class ChangeCache {
+
+    /**
+     * Cached answer for amounts that cannot be made.
+     */
+    private static final int[] NO_CHANGE = new int[0];
+
+    private final int maximumSize;
+
+    private final ThreadLocal<Cache> caches;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create the cache.
+     * @param maximumSize the most solutions each shard thread keeps, or zero to turn the cache off.
+     * @param meterRegistry registry the hit, miss and eviction counts are added to.
+     */
+    public ChangeCache(@Value("${lgimtest.dispense.cache-size:1024}") int maximumSize, MeterRegistry meterRegistry) {
+
+        this.maximumSize = maximumSize;
+        this.caches = ThreadLocal.withInitial(Cache::new);
+
+        FunctionCounter.builder("lgimtest.dispense.cache", hits, LongAdder::sum)
+                .description("Change maker solution cache lookups")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("lgimtest.dispense.cache", misses, LongAdder::sum)
+                .description("Change maker solution cache lookups")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        FunctionCounter.builder("lgimtest.dispense.cache.evictions", evictions, LongAdder::sum)
+                .description("Change maker solutions evicted from the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Work out the coins to dispense for the requested amount, using a cached solution if there is one.
+     * @param changeMaker the change maker to use when there is no cached solution.
+     * @param amount the amount to make change for, greater than zero.
+     * @param coinDenominations the denomination values, sorted in descending order.
+     * @param coinQuantities the available quantity for each denomination, in the same order as the denominations.
+     * @param context working state for the change maker, which receives the work done.
+     * @return the number of coins to take for each denomination, or null if the amount cannot be made.
+     * The array may be cached or a scratch array from the context, and must not be modified or kept.
+     */
+    public int[] makeChange(ChangeMaker changeMaker, int amount, int[] coinDenominations, int[] coinQuantities,
+                            ChangeMakerContext context) {
+
+        if (maximumSize <= 0) {
+            return changeMaker.makeChange(amount, coinDenominations, coinQuantities, context);
+        }
+
+        Cache cache = caches.get();
+        Key probe = cache.probe(amount, coinDenominations, coinQuantities);
+        int[] coinsToTake = cache.get(probe);
+        if (coinsToTake != null) {
+            hits.increment();
+            return coinsToTake == NO_CHANGE ? null : coinsToTake;
+        }
+
+        misses.increment();
+        Key key = probe.copy();
+        coinsToTake = changeMaker.makeChange(amount, coinDenominations, key.coinQuantities, context);
+        // the change maker may have used a scratch array from the context, so the cache keeps its own copy
+        cache.put(key, coinsToTake == null ? NO_CHANGE : coinsToTake.clone());
+        return coinsToTake;
+    }
+
+    /**
+     * Get the number of lookups that found a solution.
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that had to run the change maker.
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of solutions evicted to make room for newer ones.
+     * @return the number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * The cache for one thread, in least recently used order.
+     */
+    private final class Cache extends LinkedHashMap<Key, int[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Key reused for lookups, so a hit does not allocate.
+         */
+        private final Key probe = new Key();
+
+        private Cache() {
+            super(16, 0.75f, true);
+        }
+
+        private Key probe(int amount, int[] coinDenominations, int[] coinQuantities) {
+            if (probe.coinQuantities == null || probe.coinQuantities.length != coinQuantities.length) {
+                probe.coinQuantities = new int[coinQuantities.length];
+            }
+            probe.amount = amount;
+            probe.coinDenominations = coinDenominations;
+            int hash = amount;
+            for (int index = 0; index < coinQuantities.length; index++) {
+                probe.coinQuantities[index] = Math.min(coinQuantities[index], amount / coinDenominations[index]);
+                hash = 31 * hash + coinDenominations[index];
+                hash = 31 * hash + probe.coinQuantities[index];
+            }
+            probe.hash = hash;
+            return probe;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+            if (size() > maximumSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Key {
+
+        private int amount;
+
+        private int[] coinDenominations;
+
+        /**
+         * Coin quantities, capped at the most that could be used for the amount.
+         */
+        private int[] coinQuantities;
+
+        private int hash;
+
+        private Key copy() {
+            Key copy = new Key();
+            copy.amount = amount;
+            copy.coinDenominations = coinDenominations;
+            copy.coinQuantities = coinQuantities.clone();
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hash == key.hash
+                    && amount == key.amount
+                    && Arrays.equals(coinDenominations, key.coinDenominations)
+                    && Arrays.equals(coinQuantities, key.coinQuantities);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.lgimtest.service;
+
+/**
+ * Change making engine used by the coin vending machine service to work out which coins to dispense.
+ */
+public interface ChangeMaker {
+
+    /**
+     * Work out the coins to dispense for the requested amount.
+     * @param amount the amount to make change for, greater than zero.
+     * @param coinDenominations the denomination values, sorted in descending order.
+     * @param coinQuantities the available quantity for each denomination, in the same order as the denominations.
+     * Quantities may be zero and must not be modified.
+     * @return the number of coins to take for each denomination, in the same order as the denominations,
+     * or null if the amount cannot be made with the available coins.
+     */
+    default int[] makeChange(int amount, int[] coinDenominations, int[] coinQuantities) {
+        return makeChange(amount, coinDenominations, coinQuantities, new ChangeMakerContext());
+    }
+
+    /**
+     * Work out the coins to dispense for the requested amount, recording the work done in the context.
+     * @param amount the amount to make change for, greater than zero.
+     * @param coinDenominations the denomination values, sorted in descending order.
+     * @param coinQuantities the available quantity for each denomination, in the same order as the denominations.
+     * Quantities may be zero and must not be modified.
+     * @param context working state for the call, which receives the work done and provides scratch arrays.
+     * @return the number of coins to take for each denomination, in the same order as the denominations,
+     * or null if the amount cannot be made with the available coins. The array may be a scratch array from the
+     * context, only valid until the context is next used.
+     */
+    int[] makeChange(int amount, int[] coinDenominations, int[] coinQuantities, ChangeMakerContext context);
+
+    /**
+     * Work out the coins to dispense for the requested amount, making the change with the smallest total weight
+     * rather than the fewest coins.
+     * @param amount the amount to make change for, greater than zero.
+     * @param coinDenominations the denomination values, sorted in descending order.
+     * @param coinQuantities the available quantity for each denomination, in the same order as the denominations.
+     * Quantities may be zero and must not be modified.
+     * @param coinWeights the weight of one coin of each denomination, from 1 to {@link DispenseStrategy#MAX_COIN_WEIGHT},
+     * in the same order as the denominations.
+     * @param context working state for the call, which receives the work done and provides scratch arrays.
+     * @return the number of coins to take for each denomination, in the same order as the denominations,
+     * or null if the amount cannot be made with the available coins. The array may be a scratch array from the
+     * context, only valid until the context is next used.
+     */
+    int[] makeChange(int amount, int[] coinDenominations, int[] coinQuantities, int[] coinWeights, ChangeMakerContext context);
+}
@@ -0,0 +1,155 @@
+package com.example.lgimtest.service;
+
+/**
+ * Working state for one change maker call, reused by a thread across calls.
+ * Records how much work the change maker did, so pathological amounts can be spotted, and holds the scratch
+ * arrays for the coin counts, the result and the change maker's tables, so a dispense does not allocate them.
+ * <p>
+ * Arrays handed out are only valid until the next call for the same array, and must not be kept.
+ */
+public class ChangeMakerContext {
+
+    /**
+     * Largest table, in ints, that is kept for reuse. Larger tables are allocated for the call and then dropped,
+     * so one very large amount does not pin its table to the thread.
+     */
+    private static final int MAX_RETAINED_TABLE_SIZE = 1 << 20;
+
+    private long work;
+
+    private int[] coinQuantities = new int[0];
+
+    private int[] coinsToTake = new int[0];
+
+    private int[] coinWeights = new int[0];
+
+    private int[] minCoins = new int[0];
+
+    private int[] nextMinCoins = new int[0];
+
+    private int[] window = new int[0];
+
+    private int[] coinsTaken = new int[0];
+
+    /**
+     * Clear the work count ready for the next call.
+     */
+    public void reset() {
+        work = 0;
+    }
+
+    /**
+     * Record work done by the change maker.
+     * @param steps the number of table cells, recursive calls or coins considered.
+     */
+    public void addWork(long steps) {
+        work += steps;
+    }
+
+    /**
+     * Get the work done since the last reset.
+     * @return the number of steps.
+     */
+    public long getWork() {
+        return work;
+    }
+
+    /**
+     * Get a scratch array for coin quantities.
+     * @param length the number of denominations.
+     * @return an array of exactly that length, with undefined contents.
+     */
+    public int[] coinQuantities(int length) {
+        if (coinQuantities.length != length) {
+            coinQuantities = new int[length];
+        }
+        return coinQuantities;
+    }
+
+    /**
+     * Get a scratch array for the coins to take.
+     * @param length the number of denominations.
+     * @return an array of exactly that length, with undefined contents.
+     */
+    public int[] coinsToTake(int length) {
+        if (coinsToTake.length != length) {
+            coinsToTake = new int[length];
+        }
+        return coinsToTake;
+    }
+
+    /**
+     * Get a scratch array for coin weights.
+     * @param length the number of denominations.
+     * @return an array of exactly that length, with undefined contents.
+     */
+    public int[] coinWeights(int length) {
+        if (coinWeights.length != length) {
+            coinWeights = new int[length];
+        }
+        return coinWeights;
+    }
+
+    /**
+     * Get a scratch table for the minimum coins for each amount.
+     * @param minimumLength the number of amounts.
+     * @return an array of at least that length, with undefined contents.
+     */
+    public int[] minCoins(int minimumLength) {
+        int[] table = ensureLength(minCoins, minimumLength);
+        if (table.length <= MAX_RETAINED_TABLE_SIZE) {
+            minCoins = table;
+        }
+        return table;
+    }
+
+    /**
+     * Get a second scratch table for the minimum coins for each amount.
+     * @param minimumLength the number of amounts.
+     * @return an array of at least that length, with undefined contents.
+     */
+    public int[] nextMinCoins(int minimumLength) {
+        int[] table = ensureLength(nextMinCoins, minimumLength);
+        if (table.length <= MAX_RETAINED_TABLE_SIZE) {
+            nextMinCoins = table;
+        }
+        return table;
+    }
+
+    /**
+     * Get a scratch array for a sliding window.
+     * @param minimumLength the most entries the window can hold.
+     * @return an array of at least that length, with undefined contents.
+     */
+    public int[] window(int minimumLength) {
+        int[] table = ensureLength(window, minimumLength);
+        if (table.length <= MAX_RETAINED_TABLE_SIZE) {
+            window = table;
+        }
+        return table;
+    }
+
+    /**
+     * Get a scratch table for the coins taken of each denomination for each amount.
+     * @param minimumLength the number of denominations times the number of amounts.
+     * @return an array of at least that length, with undefined contents.
+     */
+    public int[] coinsTaken(int minimumLength) {
+        int[] table = ensureLength(coinsTaken, minimumLength);
+        if (table.length <= MAX_RETAINED_TABLE_SIZE) {
+            coinsTaken = table;
+        }
+        return table;
+    }
+
+    private static int[] ensureLength(int[] array, int minimumLength) {
+        if (array.length >= minimumLength) {
+            return array;
+        }
+        if (minimumLength > MAX_RETAINED_TABLE_SIZE) {
+            // a one off table, which the caller does not keep
+            return new int[minimumLength];
+        }
+        return new int[Math.max(minimumLength, Math.min(array.length * 2, MAX_RETAINED_TABLE_SIZE))];
+    }
+}
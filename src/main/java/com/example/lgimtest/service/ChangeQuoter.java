@@ -0,0 +1,181 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.dto.QuoteDto;
+import com.example.lgimtest.model.CoinState;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Quotes the coins a machine would dispense for many amounts at once, without dispensing anything.
+ * <p>
+ * Quotes are worked out against a frozen copy of the machine's coin counts, so they never touch the live counts
+ * and never hold up the machine's shard. The amounts are split between the threads of a fork join pool kept for
+ * quotes, so a large quote does not compete with the shards or with the common pool.
+ */
+@Component
+public class ChangeQuoter implements DisposableBean {
+
+    /**
+     * Most amounts one task works out before the rest are split off to other threads.
+     */
+    private static final int AMOUNTS_PER_TASK = 16;
+
+    private final ChangeMaker changeMaker;
+
+    private final DispenseStrategy dispenseStrategy;
+
+    private final int maximumAmounts;
+
+    private final int maximumAmount;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Change maker working state for each pool thread.
+     */
+    private final ThreadLocal<ChangeMakerContext> changeMakerContexts = ThreadLocal.withInitial(ChangeMakerContext::new);
+
+    /**
+     * Create the quoter.
+     * @param changeMaker works out the coins for amounts that greedy change does not fit.
+     * @param dispenseStrategy chooses between the sets of coins that make an amount.
+     * @param parallelism the number of threads working out quotes, or zero for one per processor.
+     * @param maximumAmounts the most amounts one quote may ask for.
+     * @param maximumAmount the largest amount quoted, the same as the largest amount dispensed.
+     */
+    public ChangeQuoter(ChangeMaker changeMaker, DispenseStrategy dispenseStrategy,
+                        @Value("${lgimtest.quote.parallelism:0}") int parallelism,
+                        @Value("${lgimtest.quote.max-amounts:10000}") int maximumAmounts,
+                        @Value("${lgimtest.dispense.max-amount:100000}") int maximumAmount) {
+        this.changeMaker = changeMaker;
+        this.dispenseStrategy = dispenseStrategy;
+        this.maximumAmounts = maximumAmounts;
+        this.maximumAmount = maximumAmount;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Check that a quote can be worked out for the amounts.
+     * @param amountsRequested the amounts to quote.
+     */
+    public void validate(List<Integer> amountsRequested) {
+        if (amountsRequested != null && amountsRequested.size() > maximumAmounts) {
+            throw new IllegalStateException(String.format("Cannot quote more than %d amounts at once.", maximumAmounts));
+        }
+    }
+
+    /**
+     * Quote the coins that would be dispensed for each amount.
+     * Each amount is quoted on its own against the same coins, as if it were the only amount dispensed.
+     * @param coinState the machine's coin state, for its denominations.
+     * @param coinCounts frozen copy of the machine's coin counts, which must not change while the quote is worked out.
+     * @param amountsRequested the amounts to quote.
+     * @return the quote for each amount, in the same order.
+     */
+    public CompletableFuture<List<QuoteDto>> quote(CoinState coinState, int[] coinCounts, List<Integer> amountsRequested) {
+
+        if (amountsRequested == null || amountsRequested.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        QuoteDto[] quotes = new QuoteDto[amountsRequested.size()];
+        QuoteTask task = new QuoteTask(coinState, coinCounts, amountsRequested, quotes, 0, quotes.length);
+        return CompletableFuture.supplyAsync(() -> {
+            task.invoke();
+            return Arrays.asList(quotes);
+        }, pool);
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Quotes a range of the amounts, splitting it between threads while it is large.
+     */
+    private final class QuoteTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CoinState coinState;
+
+        private final int[] coinCounts;
+
+        private final List<Integer> amountsRequested;
+
+        private final QuoteDto[] quotes;
+
+        private final int from;
+
+        private final int to;
+
+        private QuoteTask(CoinState coinState, int[] coinCounts, List<Integer> amountsRequested, QuoteDto[] quotes, int from, int to) {
+            this.coinState = coinState;
+            this.coinCounts = coinCounts;
+            this.amountsRequested = amountsRequested;
+            this.quotes = quotes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > AMOUNTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new QuoteTask(coinState, coinCounts, amountsRequested, quotes, from, middle),
+                        new QuoteTask(coinState, coinCounts, amountsRequested, quotes, middle, to));
+                return;
+            }
+            for (int index = from; index < to; index++) {
+                quotes[index] = quote(amountsRequested.get(index));
+            }
+        }
+
+        private QuoteDto quote(Integer amountRequested) {
+
+            if (amountRequested == null || amountRequested <= 0) {
+                return QuoteDto.rejected(amountRequested, CoinVendingMachineService.INVALID_AMOUNT_MESSAGE);
+            }
+            if (amountRequested > maximumAmount) {
+                return QuoteDto.rejected(amountRequested, CoinVendingMachineService.AMOUNT_TOO_LARGE_MESSAGE);
+            }
+
+            int[] coinDenominations = coinState.getDenominationValues();
+            ChangeMakerContext context = changeMakerContexts.get();
+            int[] coinsToDispense;
+            if (dispenseStrategy.isMinimumCoins() && coinState.isCanonical()
+                    && CanonicalCoinSystem.greedyChangeFits(amountRequested, coinDenominations, coinCounts)) {
+                coinsToDispense = context.coinsToTake(coinDenominations.length);
+                CanonicalCoinSystem.greedyChange(amountRequested, coinDenominations, coinsToDispense);
+            }
+            else {
+                // the change maker gets its own copy of the counts, which the other threads share
+                int[] coinQuantities = context.coinQuantities(coinCounts.length);
+                System.arraycopy(coinCounts, 0, coinQuantities, 0, coinCounts.length);
+                context.reset();
+                coinsToDispense = dispenseStrategy.makeChange(changeMaker, amountRequested, coinDenominations, coinQuantities, context);
+            }
+
+            if (coinsToDispense == null) {
+                return QuoteDto.rejected(amountRequested, CoinVendingMachineService.CANNOT_DISPENSE_MESSAGE);
+            }
+            Map<String, Integer> coinAmounts = new HashMap<>();
+            for (int index = 0; index < coinsToDispense.length; index++) {
+                if (coinsToDispense[index] > 0) {
+                    coinAmounts.put(coinState.getDenomination(index).getName(), coinsToDispense[index]);
+                }
+            }
+            return QuoteDto.dispensable(amountRequested, coinAmounts);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.dto.CoinStateChangeDto;
+import com.example.lgimtest.model.CoinState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feed of changes to the machines' coins, for subscribers that would otherwise poll the current state.
+ * <p>
+ * Changes are published on the machine's shard as they happen. Each subscriber keeps the latest count of every
+ * denomination that has changed since its last delivery, so publishing only merges counts into that and a slow
+ * subscriber receives one combined change rather than a backlog. Deliveries run on the feed's own threads, so a
+ * slow subscriber never holds up a shard.
+ * <p>
+ * Each delivery run sends one change and then goes to the back of the queue, so a subscriber with a steady stream of
+ * changes shares the threads with the others. A send that takes longer than the send timeout drops the subscriber
+ * and interrupts its thread, and the pool gets an extra thread until that send returns, so subscribers that stop
+ * reading cannot take the threads away from the rest. The dropped listener is told once the send returns.
+ */
+@Slf4j
+@Component
+public class CoinStateFeed implements DisposableBean {
+
+    /**
+     * Receives the changes for a subscription, one call at a time.
+     */
+    public interface Listener {
+
+        /**
+         * Receive a change.
+         * @param change the denominations that changed since the last change received, with their new counts.
+         * @throws Exception if the change could not be delivered, which ends the subscription.
+         */
+        void onChange(CoinStateChangeDto change) throws Exception;
+
+        /**
+         * Release what the subscription holds, once it has been dropped for a send that took longer than the send
+         * timeout. Called on the thread of that send as soon as it returns, as a listener's close usually waits
+         * for its send.
+         */
+        default void onDropped() {
+        }
+    }
+
+    /**
+     * A subscription to the changes of one machine.
+     */
+    public interface Subscription {
+
+        /**
+         * Stop receiving changes.
+         */
+        void cancel();
+    }
+
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final int deliveryThreads;
+
+    private final long sendTimeoutMillis;
+
+    private final ThreadPoolExecutor deliveryExecutor;
+
+    private final ScheduledExecutorService sendTimeouts;
+
+    /**
+     * Sends that timed out and have not returned yet, each holding a delivery thread.
+     */
+    private int stuckSends;
+
+    private final Counter coalescedChanges;
+
+    private final Counter droppedSubscribers;
+
+    /**
+     * Create the feed.
+     * @param deliveryThreads the number of threads delivering changes to subscribers.
+     * @param sendTimeoutMillis how long a change may take to deliver before the subscriber is dropped.
+     * @param meterRegistry registry the subscriber count, coalesced change count and dropped subscriber count are
+     *                      added to.
+     */
+    public CoinStateFeed(@Value("${lgimtest.feed.delivery-threads:4}") int deliveryThreads,
+                         @Value("${lgimtest.feed.send-timeout-ms:5000}") long sendTimeoutMillis,
+                         MeterRegistry meterRegistry) {
+
+        this.deliveryThreads = deliveryThreads;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.deliveryExecutor = new ThreadPoolExecutor(deliveryThreads, deliveryThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "coin-state-feed-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sendTimeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coin-state-feed-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("lgimtest.feed.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Subscribers to the coin state change feed")
+                .register(meterRegistry);
+        this.coalescedChanges = Counter.builder("lgimtest.feed.coalesced")
+                .description("Changes merged into a change a subscriber had not yet received")
+                .register(meterRegistry);
+        this.droppedSubscribers = Counter.builder("lgimtest.feed.dropped")
+                .description("Subscribers dropped because a change took longer than the send timeout")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Subscribe to the changes of a machine.
+     * Must be called on the machine's shard, so no change is missed or sent twice. The first change received holds
+     * the count of every denomination.
+     * @param machineId id of the machine.
+     * @param coinState the coin state of the machine.
+     * @param listener receives the changes.
+     * @return the subscription.
+     */
+    public Subscription subscribe(String machineId, CoinState coinState, Listener listener) {
+
+        Subscriber subscriber = new Subscriber(machineId, coinState, listener);
+        subscribers.computeIfAbsent(machineId, id -> new CopyOnWriteArrayList<>()).add(subscriber);
+        subscriberCount.incrementAndGet();
+
+        subscriber.changed(coinState.getVersion(), null);
+        return subscriber::cancel;
+    }
+
+    /**
+     * Publish a change to a machine's coins. Must be called on the machine's shard, after the change.
+     * @param machineId id of the machine.
+     * @param coinState the coin state of the machine.
+     * @param coins the number of coins added or removed for each denomination, or null if every denomination changed.
+     */
+    public void publish(String machineId, CoinState coinState, int[] coins) {
+        List<Subscriber> machineSubscribers = subscribers.get(machineId);
+        if (machineSubscribers == null) {
+            return;
+        }
+        long version = coinState.getVersion();
+        for (Subscriber subscriber : machineSubscribers) {
+            subscriber.changed(version, coins);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        sendTimeouts.shutdownNow();
+        deliveryExecutor.shutdownNow();
+    }
+
+    /**
+     * Give the pool a thread in place of one held by a send that timed out, or take it back once the send returns.
+     * @param delta 1 when a send times out, -1 when it returns.
+     */
+    private synchronized void stuckSendsChanged(int delta) {
+        stuckSends += delta;
+        int poolSize = deliveryThreads + stuckSends;
+        if (delta > 0) {
+            deliveryExecutor.setMaximumPoolSize(poolSize);
+            deliveryExecutor.setCorePoolSize(poolSize);
+        }
+        else {
+            deliveryExecutor.setCorePoolSize(poolSize);
+            deliveryExecutor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * A subscriber and the change it has not received yet.
+     */
+    private final class Subscriber {
+
+        private final String machineId;
+
+        private final CoinState coinState;
+
+        private final Listener listener;
+
+        /**
+         * Latest count of each denomination that changed since the last delivery.
+         */
+        private final int[] pendingCounts;
+
+        private final boolean[] pendingChanged;
+
+        private long pendingVersion;
+
+        private boolean pending;
+
+        /**
+         * Whether a delivery is queued or running.
+         */
+        private boolean delivering;
+
+        private boolean cancelled;
+
+        /**
+         * The thread sending a change, while the send has not returned or timed out.
+         */
+        private Thread sendingThread;
+
+        private Subscriber(String machineId, CoinState coinState, Listener listener) {
+            this.machineId = machineId;
+            this.coinState = coinState;
+            this.listener = listener;
+            this.pendingCounts = new int[coinState.getDenominationCount()];
+            this.pendingChanged = new boolean[coinState.getDenominationCount()];
+        }
+
+        private synchronized void changed(long version, int[] coins) {
+
+            if (cancelled) {
+                return;
+            }
+            if (pending) {
+                coalescedChanges.increment();
+            }
+
+            for (int index = 0; index < pendingCounts.length; index++) {
+                if (coins == null || coins[index] != 0) {
+                    pendingCounts[index] = coinState.getCoinCount(index);
+                    pendingChanged[index] = true;
+                }
+            }
+            pendingVersion = version;
+            pending = true;
+
+            if (!delivering) {
+                delivering = true;
+                deliveryExecutor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Send one change, then queue another run if more changes arrived meanwhile.
+         */
+        private void deliver() {
+
+            CoinStateChangeDto change;
+            synchronized (this) {
+                if (!pending || cancelled) {
+                    delivering = false;
+                    return;
+                }
+                Map<String, Integer> coinAmounts = new HashMap<>();
+                for (int index = 0; index < pendingCounts.length; index++) {
+                    if (pendingChanged[index]) {
+                        coinAmounts.put(coinState.getDenomination(index).getName(), pendingCounts[index]);
+                        pendingChanged[index] = false;
+                    }
+                }
+                change = new CoinStateChangeDto(machineId, pendingVersion, coinAmounts);
+                pending = false;
+                sendingThread = Thread.currentThread();
+            }
+
+            ScheduledFuture<?> timeout = sendTimeouts.schedule(this::sendTimedOut, sendTimeoutMillis, TimeUnit.MILLISECONDS);
+            boolean timedOut;
+            try {
+                listener.onChange(change);
+            }
+            catch (Exception e) {
+                log.debug("Change feed subscriber for machine {} failed, cancelling it", machineId, e);
+                cancel();
+            }
+            finally {
+                timeout.cancel(false);
+                synchronized (this) {
+                    timedOut = sendingThread == null;
+                    sendingThread = null;
+                }
+                // clear an interrupt from a timeout that fired just as the send returned
+                Thread.interrupted();
+            }
+            if (timedOut) {
+                stuckSendsChanged(-1);
+                try {
+                    listener.onDropped();
+                }
+                catch (RuntimeException e) {
+                    log.debug("Dropped change feed subscriber for machine {} failed to close", machineId, e);
+                }
+            }
+
+            synchronized (this) {
+                if (!pending || cancelled) {
+                    delivering = false;
+                    return;
+                }
+            }
+            deliveryExecutor.execute(this::deliver);
+        }
+
+        private void sendTimedOut() {
+            synchronized (this) {
+                if (sendingThread == null) {
+                    return;
+                }
+                sendingThread.interrupt();
+                sendingThread = null;
+            }
+            stuckSendsChanged(1);
+            droppedSubscribers.increment();
+            log.debug("Change feed subscriber for machine {} took over {} ms to receive a change, dropping it",
+                    machineId, sendTimeoutMillis);
+            cancel();
+        }
+
+        private void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+            }
+            List<Subscriber> machineSubscribers = subscribers.get(machineId);
+            if (machineSubscribers != null) {
+                machineSubscribers.remove(this);
+            }
+            subscriberCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.model.CoinState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics for the coin vending machines.
+ * Every meter used on the dispense path is created up front, so recording a dispense is a clock read and
+ * a few counter updates with no registry lookups.
+ */
+@Component
+public class CoinVendingMachineMetrics {
+
+    private static final String FAILURE_METRIC = "lgimtest.dispense.failures";
+
+    private static final String SOLVER_WORK_METRIC = "lgimtest.dispense.solver.work";
+
+    private final MeterRegistry meterRegistry;
+
+    private final boolean inventoryGauges;
+
+    private final Timer dispenseTimer;
+
+    private final Timer dispenseBatchTimer;
+
+    private final DistributionSummary updateBatchSize;
+
+    private final DistributionSummary greedyWork;
+
+    private final DistributionSummary changeMakerWork;
+
+    private final Counter cannotMakeChange;
+
+    private final Counter invalidAmount;
+
+    private final Counter notInitialised;
+
+    private final Counter overloaded;
+
+    /**
+     * Create the metrics.
+     * @param meterRegistry registry the meters are added to.
+     * @param inventoryGauges whether to add a coin count gauge for each denomination of each machine.
+     */
+    public CoinVendingMachineMetrics(MeterRegistry meterRegistry,
+                                     @Value("${lgimtest.metrics.inventory-gauges:true}") boolean inventoryGauges) {
+
+        this.meterRegistry = meterRegistry;
+        this.inventoryGauges = inventoryGauges;
+
+        this.dispenseTimer = Timer.builder("lgimtest.dispense")
+                .description("Time to dispense an amount, including waiting for the machine's shard")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.dispenseBatchTimer = Timer.builder("lgimtest.dispense.batch")
+                .description("Time to dispense a batch of amounts, including waiting for the machine's shard")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        this.updateBatchSize = DistributionSummary.builder("lgimtest.update.batch")
+                .description("Updates merged into one change to a machine's coins")
+                .register(meterRegistry);
+
+        this.greedyWork = solverWork("greedy");
+        this.changeMakerWork = solverWork("changeMaker");
+
+        this.cannotMakeChange = failures("cannotMakeChange");
+        this.invalidAmount = failures("invalidAmount");
+        this.notInitialised = failures("notInitialised");
+        this.overloaded = failures("overloaded");
+    }
+
+    /**
+     * Get the start time for a timed operation.
+     * @return the start time in nanoseconds.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time taken to dispense an amount.
+     * @param startNanos start time from {@link #start()}.
+     */
+    public void dispenseTimed(long startNanos) {
+        dispenseTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the time taken to dispense a batch of amounts.
+     * @param startNanos start time from {@link #start()}.
+     */
+    public void dispenseBatchTimed(long startNanos) {
+        dispenseBatchTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the number of updates applied together as one change.
+     * @param updates the number of updates.
+     */
+    public void updateBatch(int updates) {
+        updateBatchSize.record(updates);
+    }
+
+    /**
+     * Record the work done to find change for one amount.
+     * @param greedy true if greedy change was used, false if the change maker was.
+     * @param work coins considered for greedy change, or the work reported by the change maker.
+     */
+    public void solverWork(boolean greedy, long work) {
+        (greedy ? greedyWork : changeMakerWork).record(work);
+    }
+
+    /**
+     * Count an amount that could not be made with the available coins.
+     */
+    public void cannotMakeChange() {
+        cannotMakeChange.increment();
+    }
+
+    /**
+     * Count a request for a negative, zero or missing amount.
+     */
+    public void invalidAmount() {
+        invalidAmount.increment();
+    }
+
+    /**
+     * Count a dispense from a machine that has not been initialised.
+     */
+    public void notInitialised() {
+        notInitialised.increment();
+    }
+
+    /**
+     * Count a dispense turned away because the machine already had the most dispenses in flight.
+     */
+    public void overloaded() {
+        overloaded.increment();
+    }
+
+    /**
+     * Add a coin count gauge for each denomination of a machine, if inventory gauges are enabled.
+     * The gauges read the live atomic counts, so nothing is recorded on the dispense path.
+     * @param machineId id of the machine.
+     * @param coinState the coin state of the machine.
+     */
+    public void registerInventory(String machineId, CoinState coinState) {
+        if (!inventoryGauges) {
+            return;
+        }
+        for (int index = 0; index < coinState.getDenominationCount(); index++) {
+            int denominationIndex = index;
+            Gauge.builder("lgimtest.inventory.coins", coinState, state -> state.getCoinCount(denominationIndex))
+                    .description("Coins held by a machine for a denomination")
+                    .tag("machine", machineId)
+                    .tag("denomination", coinState.getDenomination(index).getName())
+                    .strongReference(true)
+                    .register(meterRegistry);
+        }
+    }
+
+    private DistributionSummary solverWork(String solver) {
+        return DistributionSummary.builder(SOLVER_WORK_METRIC)
+                .description("Work done to find change for one amount: coins considered, table cells or recursive calls")
+                .tag("solver", solver)
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(meterRegistry);
+    }
+
+    private Counter failures(String reason) {
+        return Counter.builder(FAILURE_METRIC)
+                .description("Dispense requests that could not be met")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
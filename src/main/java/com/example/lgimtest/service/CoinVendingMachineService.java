@@ -1,116 +1,1037 @@
 package com.example.lgimtest.service;
 
 import com.example.lgimtest.dto.CoinStateDto;
+import com.example.lgimtest.dto.CoinStateSnapshot;
+import com.example.lgimtest.dto.DispensableDto;
+import com.example.lgimtest.dto.DispensableOutcome;
+import com.example.lgimtest.dto.DispenseBatchOutcome;
+import com.example.lgimtest.dto.DispenseFailure;
+import com.example.lgimtest.dto.DispenseOutcome;
+import com.example.lgimtest.dto.DispenseResultDto;
 import com.example.lgimtest.dto.DispensedDto;
 import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.dto.QuoteDto;
 import com.example.lgimtest.dto.UpdateDto;
+import com.example.lgimtest.events.CoinStateChangeEvent;
+import com.example.lgimtest.events.DispenseEvent;
+import com.example.lgimtest.events.SolveEvent;
+import com.example.lgimtest.events.ValidationEvent;
 import com.example.lgimtest.model.CoinState;
 import com.example.lgimtest.model.Denomination;
+import com.example.lgimtest.model.DenominationTable;
+import com.example.lgimtest.model.ReachableAmounts;
+import com.example.lgimtest.persistence.CoinStateJournal;
+import com.example.lgimtest.persistence.CoinStateStore;
+import com.example.lgimtest.persistence.DispenseAuditLog;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
  * Coin Vending Mcahine service.
+ * Holds the coin state of every machine in the fleet, keyed by machine id. Operations for a machine run on the
+ * shard that owns it, so they are applied one at a time without locking, and machines on different shards are
+ * served in parallel.
  */
 @Service
 public class CoinVendingMachineService {
 
-    private CoinState currentCoinState;
+    /**
+     * Machine id used by the operations that do not take one.
+     */
+    public static final String DEFAULT_MACHINE_ID = "default";
+
+    static final String INVALID_AMOUNT_MESSAGE = DispenseFailure.INVALID_AMOUNT.getMessage();
+
+    static final String AMOUNT_TOO_LARGE_MESSAGE = DispenseFailure.AMOUNT_TOO_LARGE.getMessage();
+
+    static final String CANNOT_DISPENSE_MESSAGE = DispenseFailure.CANNOT_MAKE_CHANGE.getMessage();
+
+    private final ChangeMaker changeMaker;
+
+    private final DispenseStrategy dispenseStrategy;
+
+    private final ChangeCache changeCache;
+
+    private final ChangeQuoter changeQuoter;
+
+    private final ReachableAmountsIndexes reachableAmountsIndexes;
+
+    private final MachineShards machineShards;
+
+    private final AdmissionControl admissionControl;
+
+    private final CoinStateJournal coinStateJournal;
+
+    private final CoinStateStore coinStateStore;
+
+    private final DispenseAuditLog dispenseAuditLog;
+
+    private final CoinVendingMachineMetrics metrics;
+
+    private final CoinStateFeed coinStateFeed;
+
+    private final ObjectMapper objectMapper;
 
     /**
-     * Get the coin state.
+     * Largest amount the dispensable check answers for.
+     */
+    private final int dispensableCeiling;
+
+    /**
+     * Largest amount dispensed, which bounds the change maker's time and memory on the shard.
+     */
+    private final int maximumAmount;
+
+    /**
+     * How long the first of a batch of updates waits for others to merge with, in milliseconds.
+     */
+    private final long updateWindowMillis;
+
+    private final Map<String, CoinState> coinStates = new ConcurrentHashMap<>();
+
+    /**
+     * Denomination tables shared between machines with the same denominations, keyed by the sorted denominations.
+     */
+    private final Map<List<Denomination>, DenominationTable> denominationTables = new ConcurrentHashMap<>();
+
+    /**
+     * Latest serialized coin state of each machine that has been read, replaced when a read finds it out of date.
+     */
+    private final Map<String, CoinStateSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Prefix for snapshot entity tags, different on every start, so a version from an earlier run never matches.
+     */
+    private final String eTagPrefix = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    /**
+     * Updates waiting for each machine's shard, merged into one change when the shard gets to them.
+     */
+    private final Map<String, PendingUpdates> pendingUpdates = new ConcurrentHashMap<>();
+
+    /**
+     * Change maker working state for each shard thread.
+     */
+    private final ThreadLocal<ChangeMakerContext> changeMakerContexts = ThreadLocal.withInitial(ChangeMakerContext::new);
+
+    /**
+     * Create the service.
+     * @param changeMaker works out the coins to dispense.
+     * @param dispenseStrategy chooses between the sets of coins that make an amount.
+     * @param changeCache cache of change maker solutions.
+     * @param changeQuoter works out quotes for many amounts in parallel.
+     * @param reachableAmountsIndexes bounds how many machines keep an index for the dispensable check.
+     * @param machineShards the shards that machine operations run on.
+     * @param admissionControl caps the dispense work in flight for each machine.
+     * @param coinStateJournal journal the coin state changes are recorded in.
+     * @param coinStateStore store that holds the coin counts.
+     * @param dispenseAuditLog audit log the dispenses are recorded in.
+     * @param metrics metrics for the machines.
+     * @param coinStateFeed feed the coin changes are published to.
+     * @param objectMapper serializes the coin state snapshots.
+     * @param dispensableCeiling largest amount the dispensable check answers for.
+     * @param maximumAmount largest amount dispensed.
+     * @param updateWindowMillis how long the first of a batch of updates waits for others to merge with.
+     */
+    public CoinVendingMachineService(ChangeMaker changeMaker, DispenseStrategy dispenseStrategy, ChangeCache changeCache, ChangeQuoter changeQuoter, ReachableAmountsIndexes reachableAmountsIndexes, MachineShards machineShards, AdmissionControl admissionControl, CoinStateJournal coinStateJournal,
+                                     CoinStateStore coinStateStore, DispenseAuditLog dispenseAuditLog, CoinVendingMachineMetrics metrics,
+                                     CoinStateFeed coinStateFeed, ObjectMapper objectMapper,
+                                     @Value("${lgimtest.dispensable.ceiling:10000}") int dispensableCeiling,
+                                     @Value("${lgimtest.dispense.max-amount:100000}") int maximumAmount,
+                                     @Value("${lgimtest.update.window-ms:0}") long updateWindowMillis) {
+        this.changeMaker = changeMaker;
+        this.dispenseStrategy = dispenseStrategy;
+        this.changeCache = changeCache;
+        this.changeQuoter = changeQuoter;
+        this.reachableAmountsIndexes = reachableAmountsIndexes;
+        this.machineShards = machineShards;
+        this.admissionControl = admissionControl;
+        this.coinStateJournal = coinStateJournal;
+        this.coinStateStore = coinStateStore;
+        this.dispenseAuditLog = dispenseAuditLog;
+        this.metrics = metrics;
+        this.coinStateFeed = coinStateFeed;
+        this.objectMapper = objectMapper;
+        this.dispensableCeiling = dispensableCeiling;
+        this.maximumAmount = maximumAmount;
+        this.updateWindowMillis = updateWindowMillis;
+    }
+
+    /**
+     * Recover the coin states from the journal before any request is served.
+     */
+    @PostConstruct
+    public void recover() {
+        coinStateJournal.open(new JournalListener());
+    }
+
+    /**
+     * Get the coin state of the default machine.
      * @return the current coin state.
      */
     public CoinStateDto get() {
-        return new CoinStateDto(currentCoinState);
+        return get(DEFAULT_MACHINE_ID);
     }
 
     /**
-     * Initialise the coin state.
+     * Get the coin state.
+     * @param machineId id of the machine.
+     * @return the current coin state.
+     */
+    public CoinStateDto get(String machineId) {
+        return MachineShards.join(getAsync(machineId));
+    }
+
+    /**
+     * Get the coin state without waiting for the machine's shard.
+     * @param machineId id of the machine.
+     * @return the current coin state, once the shard has read it.
+     */
+    public CompletableFuture<CoinStateDto> getAsync(String machineId) {
+        return machineShards.submit(machineId, () -> new CoinStateDto(coinState(machineId)));
+    }
+
+    /**
+     * Get a snapshot of the coin state of the default machine, serialized.
+     * @return the snapshot at the current version.
+     */
+    public CoinStateSnapshot getSnapshot() {
+        return getSnapshot(DEFAULT_MACHINE_ID);
+    }
+
+    /**
+     * Get a snapshot of the coin state, serialized.
+     * @param machineId id of the machine.
+     * @return the snapshot at the current version.
+     */
+    public CoinStateSnapshot getSnapshot(String machineId) {
+        return MachineShards.join(getSnapshotAsync(machineId));
+    }
+
+    /**
+     * Get a snapshot of the coin state, serialized, without waiting for the machine's shard.
+     * Every change to the coins moves the machine on to a new version. While the version is unchanged the last
+     * snapshot is returned as it is, without going to the shard. Otherwise a new snapshot is taken on the shard,
+     * between whole operations, so a snapshot never shows part of an update.
+     * @param machineId id of the machine.
+     * @return the snapshot at the current version.
+     */
+    public CompletableFuture<CoinStateSnapshot> getSnapshotAsync(String machineId) {
+        CoinStateSnapshot snapshot = currentSnapshot(machineId);
+        if (snapshot != null) {
+            return CompletableFuture.completedFuture(snapshot);
+        }
+        return machineShards.submit(machineId, () -> {
+
+            CoinStateSnapshot latestSnapshot = currentSnapshot(machineId);
+            if (latestSnapshot != null) {
+                return latestSnapshot;
+            }
+
+            CoinState coinState = coinState(machineId);
+            long version = coinState == null ? 0 : coinState.getVersion();
+            try {
+                latestSnapshot = new CoinStateSnapshot(version, "\"" + eTagPrefix + "-" + version + "\"",
+                        objectMapper.writeValueAsBytes(new CoinStateDto(coinState)));
+            }
+            catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (coinState != null) {
+                snapshots.put(machineId, latestSnapshot);
+            }
+            return latestSnapshot;
+        });
+    }
+
+    /**
+     * Initialise the coin state of the default machine.
      * @param initialisationDto Values to be used to initialise the coin state.
      * @return the initialised coin state.
      */
     public CoinStateDto initialise(InitialisationDto initialisationDto) {
+        return initialise(DEFAULT_MACHINE_ID, initialisationDto);
+    }
 
-        if (currentCoinState != null) {
-            throw new IllegalStateException("Vending Machine is already initialised. Cannot initialise it again.");
-        }
+    /**
+     * Initialise the coin state.
+     * @param machineId id of the machine.
+     * @param initialisationDto Values to be used to initialise the coin state.
+     * @return the initialised coin state.
+     */
+    public CoinStateDto initialise(String machineId, InitialisationDto initialisationDto) {
+        return MachineShards.join(initialiseAsync(machineId, initialisationDto));
+    }
 
-        validateInitialisationDto(initialisationDto);
+    /**
+     * Initialise the coin state without waiting for the machine's shard.
+     * @param machineId id of the machine.
+     * @param initialisationDto Values to be used to initialise the coin state.
+     * @return the initialised coin state, once the shard has initialised it.
+     */
+    public CompletableFuture<CoinStateDto> initialiseAsync(String machineId, InitialisationDto initialisationDto) {
+        return machineShards.submit(machineId, () -> {
 
-        currentCoinState = new CoinState();
-        initialisationDto.getDenominations()
-                .forEach(d-> currentCoinState.addDenomination(d));
+            if (coinState(machineId) != null) {
+                throw new IllegalStateException("Vending Machine is already initialised. Cannot initialise it again.");
+            }
 
-        if (initialisationDto.getInitialCoinAmounts() != null) {
-            for (String key : initialisationDto.getInitialCoinAmounts().keySet()) {
-                currentCoinState.addCoins(key, initialisationDto.getInitialCoinAmounts().get(key));
+            ValidationEvent validationEvent = new ValidationEvent();
+            validationEvent.begin();
+            boolean valid = false;
+            try {
+                validateInitialisationDto(initialisationDto);
+                valid = true;
+            }
+            finally {
+                validationEvent.end();
+                if (validationEvent.shouldCommit()) {
+                    validationEvent.setMachineId(machineId);
+                    validationEvent.setDenominations(initialisationDto.getDenominations() == null ? 0 : initialisationDto.getDenominations().size());
+                    validationEvent.setValid(valid);
+                    validationEvent.commit();
+                }
+            }
+
+            CoinState coinState = new CoinState(getDenominationTable(initialisationDto.getDenominations()));
+            coinState.setCanonical(CanonicalCoinSystem.isCanonical(coinState.getDenominationValues()));
+
+            if (initialisationDto.getInitialCoinAmounts() != null) {
+                for (String key : initialisationDto.getInitialCoinAmounts().keySet()) {
+                    coinState.addCoins(key, initialisationDto.getInitialCoinAmounts().get(key));
+                }
             }
-        }
 
-        return new CoinStateDto(currentCoinState);
+            coinState.nextVersion();
+            // journaled before the machine is published, so a machine the journal rejects is never served
+            coinStateJournal.initialised(machineId, coinState);
+            CoinState storedCoinState = coinStateStore.store(machineId, coinState);
+            if (storedCoinState == null) {
+                throw new IllegalStateException("Vending Machine is already initialised. Cannot initialise it again.");
+            }
+            coinStates.put(machineId, storedCoinState);
+            metrics.registerInventory(machineId, storedCoinState);
+            return new CoinStateDto(storedCoinState);
+        });
     }
 
     /**
-     * Update the coin state.
+     * Update the coin state of the default machine.
      * @param updateDto Dto with coins data to be updated to the current machine state.
      * @return the updated coin state.
      */
     public CoinStateDto update(UpdateDto updateDto) {
+        return update(DEFAULT_MACHINE_ID, updateDto);
+    }
+
+    /**
+     * Update the coin state.
+     * @param machineId id of the machine.
+     * @param updateDto Dto with coins data to be updated to the current machine state.
+     * @return the updated coin state.
+     */
+    public CoinStateDto update(String machineId, UpdateDto updateDto) {
+        return MachineShards.join(updateAsync(machineId, updateDto));
+    }
 
-        if (currentCoinState == null) {
-            throw new IllegalStateException("Vending Machine has not been initialised. Cannot update it.");
+    /**
+     * Update the coin state without waiting for the machine's shard.
+     * Updates that arrive for a machine while an earlier one is still waiting for the shard are merged and applied
+     * together: the coins are added in one step, with one new version and one journal record, and every update gets
+     * the coin state after the merged change. An update naming a denomination the machine does not have is rejected
+     * on its own, without holding up the others. If an update window is set, the first update waits that long for
+     * others to merge with. Updates run ahead of the dispenses queued on the shard, waiting only for the operation
+     * it is running.
+     * @param machineId id of the machine.
+     * @param updateDto Dto with coins data to be updated to the current machine state.
+     * @return the updated coin state, once the shard has updated it.
+     */
+    public CompletableFuture<CoinStateDto> updateAsync(String machineId, UpdateDto updateDto) {
+
+        if (coinState(machineId) == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Vending Machine has not been initialised. Cannot update it."));
         }
 
-        for (String key : updateDto.getAddCoinAmounts().keySet()) {
-            currentCoinState.addCoins(key, updateDto.getAddCoinAmounts().get(key));
+        PendingUpdates machineUpdates = pendingUpdates.computeIfAbsent(machineId, id -> new PendingUpdates());
+        CompletableFuture<CoinStateDto> result = new CompletableFuture<>();
+        machineUpdates.updates.add(new PendingUpdate(updateDto, result));
+
+        // only the first update since the last batch queues the batch, the rest join it
+        if (machineUpdates.scheduled.compareAndSet(false, true)) {
+            Supplier<Void> applyUpdates = () -> {
+                applyUpdates(machineId, machineUpdates);
+                return null;
+            };
+            // refills run ahead of the dispenses queued on the shard, so a machine that ran dry is refilled first
+            if (updateWindowMillis > 0) {
+                machineShards.submitFirst(machineId, applyUpdates, updateWindowMillis, TimeUnit.MILLISECONDS);
+            }
+            else {
+                machineShards.submitFirst(machineId, applyUpdates);
+            }
         }
+        return result;
+    }
+
+    /**
+     * Follow the changes to a machine's coins.
+     * The first change received holds the count of every denomination, and each later one the new counts of the
+     * denominations that changed. A listener that falls behind receives the changes merged into one.
+     * @param machineId id of the machine.
+     * @param listener receives the changes.
+     * @return the subscription, to cancel when the changes are no longer wanted.
+     */
+    public CoinStateFeed.Subscription subscribe(String machineId, CoinStateFeed.Listener listener) {
+        return machineShards.call(machineId, () -> {
 
-        return new CoinStateDto(currentCoinState);
+            CoinState coinState = coinState(machineId);
+            if (coinState == null) {
+                throw new IllegalStateException("Vending Machine has not been initialised. Cannot follow its changes.");
+            }
+
+            return coinStateFeed.subscribe(machineId, coinState, listener);
+        });
     }
 
+    /**
+     * Dispense coins from the default machine for the amount requested.
+     * @param amountRequested Amount requested to be dispensed.
+     * @return the coins dispensed.
+     */
+    public DispensedDto dispense(Integer amountRequested) {
+        return dispense(DEFAULT_MACHINE_ID, amountRequested);
+    }
 
     /**
      * Dispense coins for the amount requested.
+     * @param machineId id of the machine.
      * @param amountRequested Amount requested to be dispensed.
      * @return the coins dispensed.
      */
-    public DispensedDto dispense(Integer amountRequested) {
+    public DispensedDto dispense(String machineId, Integer amountRequested) {
+        return MachineShards.join(dispenseAsync(machineId, amountRequested));
+    }
+
+    /**
+     * Dispense coins for the amount requested without waiting for the machine's shard.
+     * Failures are thrown, as {@link IllegalStateException} or {@link MachineOverloadedException}.
+     * @param machineId id of the machine.
+     * @param amountRequested Amount requested to be dispensed.
+     * @return the coins dispensed, once the shard has dispensed them.
+     */
+    public CompletableFuture<DispensedDto> dispenseAsync(String machineId, Integer amountRequested) {
+        return dispenseOutcomeAsync(machineId, amountRequested).thenApply(CoinVendingMachineService::dispensedOrThrow);
+    }
+
+    /**
+     * Dispense coins from the default machine for the amount requested, returning a failure rather than throwing it.
+     * @param amountRequested Amount requested to be dispensed.
+     * @return the coins dispensed, or why nothing was dispensed.
+     */
+    public DispenseOutcome dispenseOutcome(Integer amountRequested) {
+        return dispenseOutcome(DEFAULT_MACHINE_ID, amountRequested);
+    }
+
+    /**
+     * Dispense coins for the amount requested, returning a failure rather than throwing it.
+     * @param machineId id of the machine.
+     * @param amountRequested Amount requested to be dispensed.
+     * @return the coins dispensed, or why nothing was dispensed.
+     */
+    public DispenseOutcome dispenseOutcome(String machineId, Integer amountRequested) {
+        return MachineShards.join(dispenseOutcomeAsync(machineId, amountRequested));
+    }
+
+    /**
+     * Dispense coins for the amount requested without waiting for the machine's shard, returning a failure rather
+     * than throwing it. The outcomes for failures are shared constants, so a failed dispense allocates nothing.
+     * @param machineId id of the machine.
+     * @param amountRequested Amount requested to be dispensed.
+     * @return the coins dispensed, or why nothing was dispensed, once the shard has dispensed them.
+     */
+    public CompletableFuture<DispenseOutcome> dispenseOutcomeAsync(String machineId, Integer amountRequested) {
+        long start = metrics.start();
+        return submitDispense(machineId, coinState -> {
+
+            if (amountRequested == null || amountRequested <= 0) {
+                metrics.invalidAmount();
+                return DispenseOutcome.INVALID_AMOUNT;
+            }
+            if (amountRequested > maximumAmount) {
+                metrics.invalidAmount();
+                return DispenseOutcome.AMOUNT_TOO_LARGE;
+            }
+
+            DispensedDto dispensedDto = dispense(machineId, coinState, amountRequested);
+            return dispensedDto == null ? DispenseOutcome.CANNOT_MAKE_CHANGE : DispenseOutcome.dispensed(dispensedDto);
+        }, () -> CompletableFuture.completedFuture(DispenseOutcome.NOT_INITIALISED),
+                () -> CompletableFuture.completedFuture(admissionControl.getOverloadedOutcome()))
+                .whenComplete((outcome, e) -> metrics.dispenseTimed(start));
+    }
+
+    /**
+     * Check whether the default machine can dispense an amount, without dispensing it.
+     * @param amountRequested Amount to check.
+     * @return whether the amount can be dispensed and the largest amount that can be dispensed up to it.
+     */
+    public DispensableDto dispensable(Integer amountRequested) {
+        return dispensable(DEFAULT_MACHINE_ID, amountRequested);
+    }
+
+    /**
+     * Check whether a machine can dispense an amount, without dispensing it.
+     * @param machineId id of the machine.
+     * @param amountRequested Amount to check.
+     * @return whether the amount can be dispensed and the largest amount that can be dispensed up to it.
+     */
+    public DispensableDto dispensable(String machineId, Integer amountRequested) {
+        return MachineShards.join(dispensableAsync(machineId, amountRequested));
+    }
+
+    /**
+     * Check whether a machine can dispense an amount, without dispensing it or waiting for the machine's shard.
+     * Failures are thrown, as {@link IllegalStateException}.
+     * @param machineId id of the machine.
+     * @param amountRequested Amount to check.
+     * @return whether the amount can be dispensed and the largest amount that can be dispensed up to it.
+     */
+    public CompletableFuture<DispensableDto> dispensableAsync(String machineId, Integer amountRequested) {
+        return dispensableOutcomeAsync(machineId, amountRequested).thenApply(CoinVendingMachineService::dispensableOrThrow);
+    }
+
+    /**
+     * Check whether the default machine can dispense an amount, without dispensing it, returning a failure rather
+     * than throwing it.
+     * @param amountRequested Amount to check.
+     * @return the answer, or why the check was not made.
+     */
+    public DispensableOutcome dispensableOutcome(Integer amountRequested) {
+        return dispensableOutcome(DEFAULT_MACHINE_ID, amountRequested);
+    }
+
+    /**
+     * Check whether a machine can dispense an amount, without dispensing it, returning a failure rather than
+     * throwing it.
+     * @param machineId id of the machine.
+     * @param amountRequested Amount to check.
+     * @return the answer, or why the check was not made.
+     */
+    public DispensableOutcome dispensableOutcome(String machineId, Integer amountRequested) {
+        return MachineShards.join(dispensableOutcomeAsync(machineId, amountRequested));
+    }
 
-        if (currentCoinState == null) {
-            throw new IllegalStateException("Vending Machine has not been initialised. Cannot dispense anything.");
+    /**
+     * Check whether a machine can dispense an amount, without dispensing it, returning a failure rather than
+     * throwing it. The outcomes for failures are shared constants, so a refused check allocates nothing.
+     * The machine keeps an index of the amounts its coins can pay out, up to a ceiling, which is built on the
+     * machine's shard the first time it is needed and then kept up to date as coins are added and dispensed.
+     * After that the check is a table lookup that does not wait for the shard.
+     * @param machineId id of the machine.
+     * @param amountRequested Amount to check.
+     * @return the answer, or why the check was not made.
+     */
+    public CompletableFuture<DispensableOutcome> dispensableOutcomeAsync(String machineId, Integer amountRequested) {
+
+        CoinState coinState = coinState(machineId);
+        if (coinState == null) {
+            return CompletableFuture.completedFuture(DispensableOutcome.NOT_INITIALISED);
         }
 
         if (amountRequested == null || amountRequested <= 0) {
-            throw new IllegalStateException("Cannot dispense a negative or zero amount.");
+            return CompletableFuture.completedFuture(DispensableOutcome.INVALID_AMOUNT);
+        }
+
+        if (amountRequested > dispensableCeiling) {
+            return CompletableFuture.completedFuture(DispensableOutcome.OVER_DISPENSABLE_CEILING);
+        }
+
+        ReachableAmounts reachableAmounts = coinState.getReachableAmounts();
+        CompletableFuture<ReachableAmounts> futureReachableAmounts = reachableAmounts != null
+                ? CompletableFuture.completedFuture(reachableAmounts)
+                : machineShards.submit(machineId, () -> trackReachableAmounts(coinState));
+        return futureReachableAmounts.thenApply(reachable -> DispensableOutcome.checked(new DispensableDto(amountRequested,
+                reachable.isReachable(amountRequested),
+                reachable.getLargestReachable(amountRequested))));
+    }
+
+    private ReachableAmounts trackReachableAmounts(CoinState coinState) {
+        ReachableAmounts reachable = coinState.trackReachableAmounts(dispensableCeiling);
+        reachableAmountsIndexes.built(coinState);
+        return reachable;
+    }
+
+    /**
+     * Dispense coins from the default machine for each of the amounts requested.
+     * @param amountsRequested Amounts requested to be dispensed.
+     * @return the result for each amount, in the same order.
+     */
+    public List<DispenseResultDto> dispenseBatch(List<Integer> amountsRequested) {
+        return dispenseBatch(DEFAULT_MACHINE_ID, amountsRequested);
+    }
+
+    /**
+     * Dispense coins for each of the amounts requested.
+     * @param machineId id of the machine.
+     * @param amountsRequested Amounts requested to be dispensed.
+     * @return the result for each amount, in the same order.
+     */
+    public List<DispenseResultDto> dispenseBatch(String machineId, List<Integer> amountsRequested) {
+        return MachineShards.join(dispenseBatchAsync(machineId, amountsRequested));
+    }
+
+    /**
+     * Dispense coins for each of the amounts requested without waiting for the machine's shard.
+     * Failures of the whole batch are thrown, as {@link IllegalStateException} or {@link MachineOverloadedException}.
+     * @param machineId id of the machine.
+     * @param amountsRequested Amounts requested to be dispensed.
+     * @return the result for each amount, in the same order, once the shard has dispensed them.
+     */
+    public CompletableFuture<List<DispenseResultDto>> dispenseBatchAsync(String machineId, List<Integer> amountsRequested) {
+        return dispenseBatchOutcomeAsync(machineId, amountsRequested).thenApply(CoinVendingMachineService::resultsOrThrow);
+    }
+
+    /**
+     * Dispense coins from the default machine for each of the amounts requested, returning a failure of the whole
+     * batch rather than throwing it.
+     * @param amountsRequested Amounts requested to be dispensed.
+     * @return the result for each amount, in the same order, or why the batch was turned away.
+     */
+    public DispenseBatchOutcome dispenseBatchOutcome(List<Integer> amountsRequested) {
+        return dispenseBatchOutcome(DEFAULT_MACHINE_ID, amountsRequested);
+    }
+
+    /**
+     * Dispense coins for each of the amounts requested, returning a failure of the whole batch rather than
+     * throwing it.
+     * @param machineId id of the machine.
+     * @param amountsRequested Amounts requested to be dispensed.
+     * @return the result for each amount, in the same order, or why the batch was turned away.
+     */
+    public DispenseBatchOutcome dispenseBatchOutcome(String machineId, List<Integer> amountsRequested) {
+        return MachineShards.join(dispenseBatchOutcomeAsync(machineId, amountsRequested));
+    }
+
+    /**
+     * Dispense coins for each of the amounts requested without waiting for the machine's shard, returning a failure
+     * of the whole batch rather than throwing it. The outcomes for failures are shared, so a turned away batch
+     * allocates nothing.
+     * The amounts are dispensed in order against the machine in a single operation on its shard. An amount that
+     * cannot be dispensed is rejected in its result and the rest of the batch carries on.
+     * @param machineId id of the machine.
+     * @param amountsRequested Amounts requested to be dispensed.
+     * @return the result for each amount, in the same order, or why the batch was turned away, once the shard has
+     * dispensed them.
+     */
+    public CompletableFuture<DispenseBatchOutcome> dispenseBatchOutcomeAsync(String machineId, List<Integer> amountsRequested) {
+        long start = metrics.start();
+        return submitDispense(machineId, coinState -> {
+
+            if (amountsRequested == null) {
+                return DispenseBatchOutcome.dispensed(Collections.emptyList());
+            }
+
+            List<DispenseResultDto> results = new ArrayList<>(amountsRequested.size());
+            for (Integer amountRequested : amountsRequested) {
+                if (amountRequested == null || amountRequested <= 0) {
+                    metrics.invalidAmount();
+                    results.add(DispenseResultDto.rejected(amountRequested, INVALID_AMOUNT_MESSAGE));
+                    continue;
+                }
+                if (amountRequested > maximumAmount) {
+                    metrics.invalidAmount();
+                    results.add(DispenseResultDto.rejected(amountRequested, AMOUNT_TOO_LARGE_MESSAGE));
+                    continue;
+                }
+                DispensedDto dispensedDto = dispense(machineId, coinState, amountRequested);
+                if (dispensedDto == null) {
+                    results.add(DispenseResultDto.rejected(amountRequested, CANNOT_DISPENSE_MESSAGE));
+                }
+                else {
+                    results.add(DispenseResultDto.dispensed(amountRequested, dispensedDto));
+                }
+            }
+            return DispenseBatchOutcome.dispensed(results);
+        }, () -> CompletableFuture.completedFuture(DispenseBatchOutcome.NOT_INITIALISED),
+                () -> CompletableFuture.completedFuture(admissionControl.getOverloadedBatchOutcome()))
+                .whenComplete((results, e) -> metrics.dispenseBatchTimed(start));
+    }
+
+    /**
+     * Quote the coins the default machine would dispense for each amount, without dispensing them.
+     * @param amountsRequested Amounts to quote.
+     * @return the quote for each amount, in the same order.
+     */
+    public List<QuoteDto> quote(List<Integer> amountsRequested) {
+        return quote(DEFAULT_MACHINE_ID, amountsRequested);
+    }
+
+    /**
+     * Quote the coins a machine would dispense for each amount, without dispensing them.
+     * @param machineId id of the machine.
+     * @param amountsRequested Amounts to quote.
+     * @return the quote for each amount, in the same order.
+     */
+    public List<QuoteDto> quote(String machineId, List<Integer> amountsRequested) {
+        return MachineShards.join(quoteAsync(machineId, amountsRequested));
+    }
+
+    /**
+     * Quote the coins a machine would dispense for each amount, without dispensing them or waiting for the
+     * machine's shard. Each amount is quoted on its own, as if it were the only amount dispensed.
+     * The coin counts are copied on the machine's shard, between whole operations, and the amounts are then
+     * quoted in parallel against the copy, away from the shard.
+     * @param machineId id of the machine.
+     * @param amountsRequested Amounts to quote.
+     * @return the quote for each amount, in the same order, once they have all been worked out.
+     */
+    public CompletableFuture<List<QuoteDto>> quoteAsync(String machineId, List<Integer> amountsRequested) {
+        changeQuoter.validate(amountsRequested);
+        return machineShards.submit(machineId, () -> {
+            CoinState coinState = coinState(machineId);
+            if (coinState == null) {
+                throw new IllegalStateException("Vending Machine has not been initialised. Cannot quote anything.");
+            }
+            return changeQuoter.quote(coinState, coinState.getCoinCounts(), amountsRequested);
+        }).thenCompose(quotes -> quotes);
+    }
+
+    /**
+     * Queue dispense work on the machine's shard if the machine has room for more.
+     * Work for a machine that has not been initialised is turned away at once, without reaching the shard, so it
+     * can neither queue there nor get round the admission cap.
+     * @param machineId id of the machine.
+     * @param operation the dispense work, given the machine's coin state on the shard.
+     * @param notInitialised the result if the machine has not been initialised.
+     * @param overloaded the result if the work is not admitted.
+     * @param <T> the result type.
+     * @return the result of the work, or the not initialised or overloaded result if it was turned away.
+     */
+    private <T> CompletableFuture<T> submitDispense(String machineId, Function<CoinState, T> operation,
+                                                    Supplier<CompletableFuture<T>> notInitialised,
+                                                    Supplier<CompletableFuture<T>> overloaded) {
+        if (coinState(machineId) == null) {
+            metrics.notInitialised();
+            return notInitialised.get();
+        }
+        if (!admissionControl.tryAdmit(machineId)) {
+            metrics.overloaded();
+            return overloaded.get();
+        }
+        // machines are never removed, but a machine can be initialised again, so the state is looked up on the shard
+        return machineShards.submit(machineId, () -> operation.apply(coinState(machineId)))
+                .whenComplete((result, e) -> admissionControl.release(machineId));
+    }
+
+    /**
+     * Get the coins dispensed, throwing the failure if nothing was dispensed.
+     * @param outcome the outcome of a dispense.
+     * @return the coins dispensed.
+     */
+    private static DispensedDto dispensedOrThrow(DispenseOutcome outcome) {
+        if (outcome.isDispensed()) {
+            return outcome.getDispensed();
+        }
+        throw failureException(outcome.getFailure(), outcome.getRetryAfterSeconds());
+    }
+
+    /**
+     * Get the result for each amount, throwing the failure if the batch was turned away.
+     * @param outcome the outcome of a dispense batch.
+     * @return the result for each amount.
+     */
+    private static List<DispenseResultDto> resultsOrThrow(DispenseBatchOutcome outcome) {
+        if (outcome.isDispensed()) {
+            return outcome.getResults();
+        }
+        throw failureException(outcome.getFailure(), outcome.getRetryAfterSeconds());
+    }
+
+    /**
+     * Get the answer to a dispensable check, throwing the failure if the check was not made.
+     * @param outcome the outcome of a dispensable check.
+     * @return the answer.
+     */
+    private static DispensableDto dispensableOrThrow(DispensableOutcome outcome) {
+        if (outcome.isChecked()) {
+            return outcome.getDispensable();
+        }
+        throw failureException(outcome.getFailure(), 0);
+    }
+
+    private static RuntimeException failureException(DispenseFailure failure, long retryAfterSeconds) {
+        if (failure == DispenseFailure.OVERLOADED) {
+            return new MachineOverloadedException(failure.getMessage(), retryAfterSeconds);
+        }
+        return new IllegalStateException(failure.getMessage());
+    }
+
+    /**
+     * Dispense coins from a coin state.
+     * The change is worked out from the latest coin counts and then reserved atomically. If some of those coins
+     * were taken in the meantime, the change is worked out again. The solver work and any failure to make change
+     * are recorded in the metrics, and each phase in flight recorder events when they are enabled.
+     * @param machineId id of the machine.
+     * @param coinState the coin state to dispense from.
+     * @param amountRequested Amount requested to be dispensed, greater than zero.
+     * @return the coins dispensed, or null if the amount cannot be made with the available coins.
+     */
+    private DispensedDto dispense(String machineId, CoinState coinState, int amountRequested) {
+
+        DispenseEvent dispenseEvent = new DispenseEvent();
+        dispenseEvent.begin();
+        long solverWork = 0;
+        int attempts = 0;
+
+        int[] coinDenominations = coinState.getDenominationValues();
+        // the counts, the change and the change maker's tables all use scratch arrays owned by this thread
+        ChangeMakerContext context = changeMakerContexts.get();
+        int[] coinQuantities = context.coinQuantities(coinDenominations.length);
+
+        while (true) {
+            SolveEvent solveEvent = new SolveEvent();
+            solveEvent.begin();
+            attempts++;
+            coinState.copyCoinCounts(coinQuantities);
+            int[] coinsToDispense;
+            boolean greedy = false;
+            long work;
+
+            // canonical coin systems can use greedy change when it fits the available coins, so no search is needed
+            if (dispenseStrategy.isMinimumCoins() && coinState.isCanonical()
+                    && CanonicalCoinSystem.greedyChangeFits(amountRequested, coinDenominations, coinQuantities)) {
+                coinsToDispense = context.coinsToTake(coinDenominations.length);
+                CanonicalCoinSystem.greedyChange(amountRequested, coinDenominations, coinsToDispense);
+                greedy = true;
+                work = coinDenominations.length;
+            }
+            else if (dispenseStrategy.isMinimumCoins()) {
+                // work out how many coins of each denomination are to be dispensed (removed) from our vending machine,
+                // reusing the solution from an earlier request with the same amount and usable coins if there is one
+                context.reset();
+                coinsToDispense = changeCache.makeChange(changeMaker, amountRequested, coinDenominations, coinQuantities, context);
+                work = context.getWork();
+            }
+            else {
+                // the coins are weighed against the whole inventory, which the cache key does not cover
+                context.reset();
+                coinsToDispense = dispenseStrategy.makeChange(changeMaker, amountRequested, coinDenominations, coinQuantities, context);
+                work = context.getWork();
+            }
+            metrics.solverWork(greedy, work);
+            solverWork += work;
+
+            solveEvent.end();
+            if (solveEvent.shouldCommit()) {
+                solveEvent.setMachineId(machineId);
+                solveEvent.setAmount(amountRequested);
+                solveEvent.setGreedy(greedy);
+                solveEvent.setSolverWork(work);
+                solveEvent.setCoins(coinsToDispense == null ? 0 : coinCount(coinsToDispense));
+                solveEvent.commit();
+            }
+
+            if (coinsToDispense == null) {
+                metrics.cannotMakeChange();
+                commitDispenseEvent(dispenseEvent, machineId, amountRequested, null, solverWork, attempts);
+                return null;
+            }
+
+            CoinStateChangeEvent changeEvent = new CoinStateChangeEvent();
+            changeEvent.begin();
+            if (coinState.tryRemoveCoins(coinsToDispense)) {
+                long version = coinState.nextVersion();
+                coinStateJournal.coinsRemoved(machineId, version, coinsToDispense);
+                dispenseAuditLog.dispensed(machineId, version, amountRequested, coinsToDispense, coinState);
+                coinStateFeed.publish(machineId, coinState, coinsToDispense);
+                commitCoinStateChangeEvent(changeEvent, machineId, "dispense", coinsToDispense, version);
+                // the response is the only thing allocated
+                Map<String, Integer> dispensedCoinAmounts = new HashMap<>();
+                for (int index = 0; index < coinsToDispense.length; index++) {
+                    if (coinsToDispense[index] > 0) {
+                        dispensedCoinAmounts.put(coinState.getDenomination(index).getName(), coinsToDispense[index]);
+                    }
+                }
+                commitDispenseEvent(dispenseEvent, machineId, amountRequested, coinsToDispense, solverWork, attempts);
+                return new DispensedDto(dispensedCoinAmounts);
+            }
+            commitCoinStateChangeEvent(changeEvent, machineId, "dispense", coinsToDispense, 0);
+        }
+    }
+
+    /**
+     * End a dispense event and record it, if it is enabled and over its threshold.
+     */
+    private static void commitDispenseEvent(DispenseEvent event, String machineId, int amountRequested, int[] coinsDispensed,
+                                            long solverWork, int attempts) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setMachineId(machineId);
+            event.setAmount(amountRequested);
+            event.setDispensed(coinsDispensed != null);
+            event.setCoins(coinsDispensed == null ? 0 : coinCount(coinsDispensed));
+            event.setSolverWork(solverWork);
+            event.setAttempts(attempts);
+            event.commit();
+        }
+    }
+
+    /**
+     * End a coin state change event and record it, if it is enabled and over its threshold.
+     */
+    private static void commitCoinStateChangeEvent(CoinStateChangeEvent event, String machineId, String operation, int[] coins,
+                                                   long version) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setMachineId(machineId);
+            event.setOperation(operation);
+            event.setCoins(coinCount(coins));
+            event.setVersion(version);
+            event.commit();
         }
+    }
+
+    /**
+     * Get the total number of coins in a coin count per denomination.
+     */
+    private static int coinCount(int[] coins) {
+        int count = 0;
+        for (int coin : coins) {
+            count += coin;
+        }
+        return count;
+    }
+
+    /**
+     * Apply every update waiting for a machine as one change. Runs on the machine's shard.
+     * @param machineId id of the machine.
+     * @param machineUpdates the machine's waiting updates.
+     */
+    private void applyUpdates(String machineId, PendingUpdates machineUpdates) {
 
-        int[] availableCoinDenominations = currentCoinState.getAvailableCoinDenominations();
-        int[] availableCoinQuantities = currentCoinState.getAvailableCoinQuantities();
+        // an update queued from here on schedules the next batch
+        machineUpdates.scheduled.set(false);
 
-        List<Integer> coinsToDispense = new ArrayList<>();
+        CoinState coinState = coinState(machineId);
+        int[] coinsToAdd = new int[coinState.getDenominationCount()];
+        List<CompletableFuture<CoinStateDto>> appliedUpdates = new ArrayList<>();
 
-        // create a list of coins by denomination to be dispensed (removed) from our vending machine
-        createCoinsToDispense(amountRequested, availableCoinDenominations, availableCoinQuantities, coinsToDispense, 0);
+        PendingUpdate update;
+        while ((update = machineUpdates.updates.poll()) != null) {
+            try {
+                Map<String, Integer> addCoinAmounts = update.updateDto.getAddCoinAmounts();
+                // check every key before adding anything, so a bad update is not partly applied
+                for (String key : addCoinAmounts.keySet()) {
+                    if (coinState.getDenominationForKey(key) == null) {
+                        throw new IllegalStateException(String.format("Key %s for Denomination is not found. Cannot update coin vending machine.", key));
+                    }
+                }
+                for (Map.Entry<String, Integer> addCoinAmount : addCoinAmounts.entrySet()) {
+                    coinsToAdd[coinState.getIndexForKey(addCoinAmount.getKey())] += addCoinAmount.getValue();
+                }
+                appliedUpdates.add(update.result);
+            }
+            catch (RuntimeException e) {
+                update.result.completeExceptionally(e);
+            }
+        }
+        if (appliedUpdates.isEmpty()) {
+            return;
+        }
 
-        if (coinsToDispense.isEmpty()) {
-            throw new IllegalStateException("Cannot dispense correct amount with available coins.");
+        try {
+            CoinStateChangeEvent changeEvent = new CoinStateChangeEvent();
+            changeEvent.begin();
+            for (int index = 0; index < coinsToAdd.length; index++) {
+                coinState.addCoins(index, coinsToAdd[index]);
+            }
+            long version = coinState.nextVersion();
+            coinStateJournal.coinsAdded(machineId, version, coinsToAdd);
+            coinStateFeed.publish(machineId, coinState, coinsToAdd);
+            commitCoinStateChangeEvent(changeEvent, machineId, "update", coinsToAdd, version);
+            metrics.updateBatch(appliedUpdates.size());
+        }
+        catch (RuntimeException e) {
+            appliedUpdates.forEach(result -> result.completeExceptionally(e));
+            return;
         }
 
-        Map<String, Integer> dispensedCoinAmounts = new HashMap<>();
+        CoinStateDto coinStateDto = new CoinStateDto(coinState);
+        appliedUpdates.forEach(result -> result.complete(coinStateDto));
+    }
 
-        for (int coinDenomination : coinsToDispense) {
-            Denomination denomination = currentCoinState.getDenominationForValue(coinDenomination);
-            dispensedCoinAmounts.merge(denomination.getName(), 1, Integer::sum);
-            currentCoinState.removeCoinByDenominationValue(coinDenomination);
+    /**
+     * Get the last snapshot of a machine, if it is still at the current version.
+     * @param machineId id of the machine.
+     * @return the snapshot, or null if there is none or the coins have changed since.
+     */
+    private CoinStateSnapshot currentSnapshot(String machineId) {
+        CoinState coinState = coinState(machineId);
+        CoinStateSnapshot snapshot = snapshots.get(machineId);
+        if (coinState != null && snapshot != null && snapshot.getVersion() == coinState.getVersion()) {
+            return snapshot;
         }
-        return new DispensedDto(dispensedCoinAmounts);
+        return null;
+    }
+
+    /**
+     * Get the coin state of a machine, loading it from the store if it was initialised by another process.
+     * @param machineId id of the machine.
+     * @return the coin state, or null if the machine has not been initialised.
+     */
+    private CoinState coinState(String machineId) {
+
+        CoinState coinState = coinStates.get(machineId);
+        if (coinState != null) {
+            return coinState;
+        }
+
+        CoinState loadedCoinState = coinStateStore.load(machineId);
+        if (loadedCoinState == null) {
+            return null;
+        }
+        loadedCoinState.setCanonical(CanonicalCoinSystem.isCanonical(loadedCoinState.getDenominationValues()));
+        coinState = coinStates.putIfAbsent(machineId, loadedCoinState);
+        if (coinState != null) {
+            return coinState;
+        }
+        metrics.registerInventory(machineId, loadedCoinState);
+        return loadedCoinState;
+    }
+
+    /**
+     * Get the shared denomination table for a set of denominations.
+     * @param denominations the denominations, in any order.
+     * @return the denomination table.
+     */
+    private DenominationTable getDenominationTable(List<Denomination> denominations) {
+        List<Denomination> sortedDenominations = denominations
+                .stream()
+                .sorted(Comparator.comparing(Denomination::getValue).reversed())
+                .collect(Collectors.toList());
+        return denominationTables.computeIfAbsent(sortedDenominations, DenominationTable::of);
     }
 
     /**
@@ -124,6 +1045,18 @@ public class CoinVendingMachineService {
                 .map(Denomination::getName)
                 .collect(Collectors.toList());
 
+        if (names.size() > DenominationTable.MAX_DENOMINATIONS) {
+            throw new IllegalStateException(String.format("A machine can have at most %d denominations. Cannot initialise coin vending machine.",
+                    DenominationTable.MAX_DENOMINATIONS));
+        }
+        boolean namesShort = names
+                .stream()
+                .allMatch(name -> name == null || name.getBytes(StandardCharsets.UTF_8).length <= DenominationTable.MAX_NAME_BYTES);
+        if (!namesShort) {
+            throw new IllegalStateException(String.format("Denomination names must be at most %d bytes long. Cannot initialise coin vending machine.",
+                    DenominationTable.MAX_NAME_BYTES));
+        }
+
         // check for unique names and values. works by trying to add a list element to a set. Allegedly the most efficient way
         // see https://stackoverflow.com/questions/30053487/how-to-check-if-exists-any-duplicate-in-java-8-streams
 
@@ -142,6 +1075,13 @@ public class CoinVendingMachineService {
             throw new IllegalStateException("Denomination values are not unique. Cannot initialise coin vending machine.");
         }
 
+        boolean valuesPositive = initialisationDto.getDenominations()
+                .stream()
+                .allMatch(d -> d.getValue() != null && d.getValue() > 0);
+        if (!valuesPositive) {
+            throw new IllegalStateException("Denomination values must be greater than zero. Cannot initialise coin vending machine.");
+        }
+
         // check that the string refs to a denomination are found
         if (initialisationDto.getInitialCoinAmounts() != null) {
             for (String key : initialisationDto.getInitialCoinAmounts().keySet()) {
@@ -166,42 +1106,87 @@ public class CoinVendingMachineService {
                 .allMatch(new HashSet<>()::add);
     }
 
-    private int createCoinsToDispense(int targetValue, int[] coinDenominations, int[] coinQuantities, List<Integer> listOfCoins, int position) {
+    /**
+     * Updates waiting to be applied to a machine.
+     */
+    private static final class PendingUpdates {
 
-        //if total is 0 then return
-        if (targetValue == 0) {
-            return 0;
-        }
+        private final Queue<PendingUpdate> updates = new ConcurrentLinkedQueue<>();
 
-        int pushedToList = 0;
-        for (int counter = position; counter < coinDenominations.length; counter++) {
+        /**
+         * Whether a batch has been queued on the shard that has not started yet.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
 
-            int coinDenomination = coinDenominations[counter];
+    /**
+     * An update and the future its caller is waiting on.
+     */
+    private static final class PendingUpdate {
 
-            //Continue if coin is greater than the total
-            if (coinDenomination > targetValue) {
-                continue;
-            }
+        private final UpdateDto updateDto;
+
+        private final CompletableFuture<CoinStateDto> result;
 
-            // Continue if the coin isnt available to dispense as change
-            if (coinQuantities[counter] == 0) {
-                continue;
+        private PendingUpdate(UpdateDto updateDto, CompletableFuture<CoinStateDto> result) {
+            this.updateDto = updateDto;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Applies recovered journal records to the coin states and copies the coin states for snapshots.
+     * Records are replayed before any request is served, so they are applied directly rather than on the shards.
+     */
+    private class JournalListener implements CoinStateJournal.Listener {
+
+        @Override
+        public void replayInitialised(String machineId, long version, List<Denomination> denominations, int[] coinCounts) {
+            CoinState coinState = new CoinState(getDenominationTable(denominations));
+            coinState.setCanonical(CanonicalCoinSystem.isCanonical(coinState.getDenominationValues()));
+            for (int index = 0; index < coinCounts.length; index++) {
+                coinState.addCoins(coinState.getIndexForKey(denominations.get(index).getName()), coinCounts[index]);
             }
+            coinState.setVersion(version);
+            coinStates.put(machineId, coinState);
+            metrics.registerInventory(machineId, coinState);
+        }
 
-            coinQuantities[counter] -= 1;
-            listOfCoins.add(coinDenomination);
-            pushedToList = coinDenomination;
-            targetValue -= coinDenomination;
+        @Override
+        public void replayCoinsAdded(String machineId, long version, int[] coins) {
+            CoinState coinState = coinStates.get(machineId);
+            if (coinState != null && version > coinState.getVersion()) {
+                for (int index = 0; index < coins.length; index++) {
+                    coinState.addCoins(index, coins[index]);
+                }
+                coinState.setVersion(version);
+            }
+        }
 
-            targetValue = createCoinsToDispense(targetValue, coinDenominations, coinQuantities, listOfCoins, counter);
-            if (targetValue > 0) {
-                if (pushedToList > 0) {
-                    targetValue += pushedToList;
-                    listOfCoins.remove(listOfCoins.size() - 1);
-                    pushedToList = 0;
+        @Override
+        public void replayCoinsRemoved(String machineId, long version, int[] coins) {
+            CoinState coinState = coinStates.get(machineId);
+            if (coinState != null && version > coinState.getVersion()) {
+                for (int index = 0; index < coins.length; index++) {
+                    coinState.removeCoins(index, coins[index]);
                 }
+                coinState.setVersion(version);
             }
         }
-        return targetValue;
+
+        @Override
+        public Map<String, CoinState> copyCoinStates() {
+            // copy each machine on its own shard, so the copy sits between two whole operations
+            Map<String, CoinState> copies = new ConcurrentHashMap<>();
+            machineShards.callOnEachShard(shard -> {
+                coinStates.forEach((machineId, coinState) -> {
+                    if (machineShards.shardOf(machineId) == shard) {
+                        copies.put(machineId, coinState.copy());
+                    }
+                });
+                return null;
+            });
+            return copies;
+        }
     }
 }
@@ -0,0 +1,56 @@
+package com.example.lgimtest.service;
+
+/**
+ * Strategy for choosing which coins to dispense when more than one set of coins makes the amount.
+ * <p>
+ * A strategy weighs one coin of each denomination against the machine's current inventory, and the change with
+ * the smallest total weight is dispensed. Giving every coin the same weight makes the fewest coins. Weighing the
+ * coins a machine is short of more heavily makes them last longer, at the cost of dispensing more coins.
+ * Selected with lgimtest.dispense.strategy.
+ */
+public interface DispenseStrategy {
+
+    /**
+     * The most one coin can weigh. Change never has more than this many times the fewest coins for the amount.
+     */
+    int MAX_COIN_WEIGHT = 8;
+
+    /**
+     * Get the name the strategy is selected by.
+     * @return the name.
+     */
+    String getName();
+
+    /**
+     * Whether the strategy always makes the fewest coins, so greedy change and cached solutions can be used.
+     * @return true if every coin weighs the same.
+     */
+    default boolean isMinimumCoins() {
+        return false;
+    }
+
+    /**
+     * Weigh one coin of each denomination for the next dispense.
+     * @param coinDenominations the denomination values, sorted in descending order.
+     * @param coinQuantities the available quantity for each denomination, in the same order as the denominations.
+     * @param coinWeights receives the weight of one coin of each denomination, from 1 to {@link #MAX_COIN_WEIGHT}.
+     */
+    void weighCoins(int[] coinDenominations, int[] coinQuantities, int[] coinWeights);
+
+    /**
+     * Work out the coins to dispense for the requested amount.
+     * @param changeMaker the change maker that finds the change with the smallest total weight.
+     * @param amount the amount to make change for, greater than zero.
+     * @param coinDenominations the denomination values, sorted in descending order.
+     * @param coinQuantities the available quantity for each denomination, in the same order as the denominations.
+     * @param context working state for the change maker, which receives the work done.
+     * @return the number of coins to take for each denomination, or null if the amount cannot be made.
+     * The array may be a scratch array from the context.
+     */
+    default int[] makeChange(ChangeMaker changeMaker, int amount, int[] coinDenominations, int[] coinQuantities,
+                             ChangeMakerContext context) {
+        int[] coinWeights = context.coinWeights(coinDenominations.length);
+        weighCoins(coinDenominations, coinQuantities, coinWeights);
+        return changeMaker.makeChange(amount, coinDenominations, coinQuantities, coinWeights, context);
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.lgimtest.service;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a machine already has as much work waiting as it is allowed, so a request is turned away at once
+ * rather than queued. The client may try again after the suggested delay.
+ */
+@Getter
+public class MachineOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How long the client should wait before trying again, in seconds.
+     */
+    private final long retryAfterSeconds;
+
+    public MachineOverloadedException(String message, long retryAfterSeconds) {
+        // no stack trace, so turning work away stays cheap under load
+        super(message, null, false, false);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.events.ShardWaitEvent;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Fixed pool of single threaded executors that vending machine operations are sharded across.
+ * Each machine id always maps to the same shard, so operations on one machine run one at a time in arrival order,
+ * while operations on machines in different shards run in parallel.
+ * <p>
+ * Operations queued with {@link #submitFirst} skip the queue: they run before the next operation the shard starts,
+ * so they wait only for the operation already running. Every operation drains them before it starts, so they also
+ * run ahead of operations that were queued earlier but have not started yet, and several of them may run together
+ * at the start of one operation or be split across the starts of consecutive ones.
+ */
+@Component
+public class MachineShards implements DisposableBean {
+
+    private final ExecutorService[] executors;
+
+    /**
+     * Operations for each shard that run ahead of its queue.
+     */
+    private final List<Queue<Runnable>> firstQueues;
+
+    /**
+     * Create the shards.
+     * @param shards the number of shards, or zero or less for one per available processor.
+     */
+    public MachineShards(@Value("${lgimtest.fleet.shards:0}") int shards) {
+
+        int size = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        this.executors = new ExecutorService[size];
+        this.firstQueues = new ArrayList<>(size);
+        for (int shard = 0; shard < size; shard++) {
+            firstQueues.add(new ConcurrentLinkedQueue<>());
+            String threadName = "machine-shard-" + shard;
+            executors[shard] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Run an operation on the shard that owns the machine and wait for its result.
+     * Runtime exceptions thrown by the operation are rethrown to the caller unchanged.
+     * @param machineId id of the machine the operation is for.
+     * @param operation the operation.
+     * @param <T> the result type.
+     * @return the result of the operation.
+     */
+    public <T> T call(String machineId, Supplier<T> operation) {
+        return join(submit(machineId, operation));
+    }
+
+    /**
+     * Queue an operation on the shard that owns the machine without waiting for it.
+     * @param machineId id of the machine the operation is for.
+     * @param operation the operation.
+     * @param <T> the result type.
+     * @return the result of the operation, completed on the shard's thread.
+     */
+    public <T> CompletableFuture<T> submit(String machineId, Supplier<T> operation) {
+        int shard = shardOf(machineId);
+        ShardWaitEvent event = new ShardWaitEvent();
+        if (!event.isEnabled()) {
+            return CompletableFuture.supplyAsync(() -> {
+                runFirstQueue(shard);
+                return operation.get();
+            }, executors[shard]);
+        }
+        // the wait is only measured while it is being recorded, so there is nothing extra to capture otherwise
+        event.begin();
+        return CompletableFuture.supplyAsync(() -> {
+            runFirstQueue(shard);
+            event.end();
+            if (event.shouldCommit()) {
+                event.setMachineId(machineId);
+                event.setShard(shard);
+                event.commit();
+            }
+            return operation.get();
+        }, executors[shard]);
+    }
+
+    /**
+     * Queue an operation on the shard that owns the machine ahead of the operations already queued, without waiting
+     * for it. It runs once the operation the shard is running finishes, after any earlier operations queued this way.
+     * @param machineId id of the machine the operation is for.
+     * @param operation the operation.
+     * @param <T> the result type.
+     * @return the result of the operation, completed on the shard's thread.
+     */
+    public <T> CompletableFuture<T> submitFirst(String machineId, Supplier<T> operation) {
+        int shard = shardOf(machineId);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        firstQueues.get(shard).add(() -> {
+            try {
+                result.complete(operation.get());
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        // runs the operation if nothing else on the shard gets to it first
+        executors[shard].execute(() -> runFirstQueue(shard));
+        return result;
+    }
+
+    /**
+     * Queue an operation on the shard that owns the machine ahead of the operations already queued, after a delay,
+     * without waiting for it.
+     * @param machineId id of the machine the operation is for.
+     * @param operation the operation.
+     * @param delay how long to wait before queueing the operation.
+     * @param unit the unit of the delay.
+     * @param <T> the result type.
+     * @return the result of the operation, completed on the shard's thread.
+     */
+    public <T> CompletableFuture<T> submitFirst(String machineId, Supplier<T> operation, long delay, TimeUnit unit) {
+        return CompletableFuture.supplyAsync(() -> submitFirst(machineId, operation), CompletableFuture.delayedExecutor(delay, unit))
+                .thenCompose(result -> result);
+    }
+
+    /**
+     * Queue an operation on the shard that owns the machine after a delay, without waiting for it.
+     * @param machineId id of the machine the operation is for.
+     * @param operation the operation.
+     * @param delay how long to wait before queueing the operation.
+     * @param unit the unit of the delay.
+     * @param <T> the result type.
+     * @return the result of the operation, completed on the shard's thread.
+     */
+    public <T> CompletableFuture<T> submit(String machineId, Supplier<T> operation, long delay, TimeUnit unit) {
+        int shard = shardOf(machineId);
+        return CompletableFuture.supplyAsync(() -> {
+            runFirstQueue(shard);
+            return operation.get();
+        }, CompletableFuture.delayedExecutor(delay, unit, executors[shard]));
+    }
+
+    /**
+     * Wait for the result of an operation.
+     * Runtime exceptions thrown by the operation are rethrown to the caller unchanged.
+     * @param future the result of the operation.
+     * @param <T> the result type.
+     * @return the result of the operation.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Run an operation on every shard at once and wait for all of them to finish.
+     * @param operation the operation, given the shard number.
+     * @param <T> the result type.
+     * @return the result from each shard, in shard order.
+     */
+    public <T> List<T> callOnEachShard(IntFunction<T> operation) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(executors.length);
+        for (int shard = 0; shard < executors.length; shard++) {
+            int shardNumber = shard;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                runFirstQueue(shardNumber);
+                return operation.apply(shardNumber);
+            }, executors[shard]));
+        }
+        List<T> results = new ArrayList<>(executors.length);
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Get the shard that owns a machine.
+     * @param machineId id of the machine.
+     * @return the shard number.
+     */
+    public int shardOf(String machineId) {
+        // spread the hash so machine ids that differ only in their last characters land on different shards
+        int hash = machineId.hashCode();
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, executors.length);
+    }
+
+    /**
+     * Get the number of shards.
+     * @return the number of shards.
+     */
+    public int size() {
+        return executors.length;
+    }
+
+    @Override
+    public void destroy() {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Run the operations queued ahead of a shard's queue. Runs on the shard's thread.
+     * @param shard the shard number.
+     */
+    private void runFirstQueue(int shard) {
+        Runnable operation;
+        while ((operation = firstQueues.get(shard).poll()) != null) {
+            operation.run();
+        }
+    }
+}
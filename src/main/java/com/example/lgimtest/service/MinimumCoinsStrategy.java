@@ -0,0 +1,37 @@
+package com.example.lgimtest.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * Dispense the fewest coins for each amount, whatever the inventory.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.dispense.strategy", havingValue = MinimumCoinsStrategy.NAME, matchIfMissing = true)
+public class MinimumCoinsStrategy implements DispenseStrategy {
+
+    public static final String NAME = "minimumCoins";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isMinimumCoins() {
+        return true;
+    }
+
+    @Override
+    public void weighCoins(int[] coinDenominations, int[] coinQuantities, int[] coinWeights) {
+        Arrays.fill(coinWeights, 1);
+    }
+
+    @Override
+    public int[] makeChange(ChangeMaker changeMaker, int amount, int[] coinDenominations, int[] coinQuantities,
+                            ChangeMakerContext context) {
+        return changeMaker.makeChange(amount, coinDenominations, coinQuantities, context);
+    }
+}
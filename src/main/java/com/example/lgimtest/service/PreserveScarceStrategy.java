@@ -0,0 +1,37 @@
+package com.example.lgimtest.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dispense the fewest coins, except that denominations running short are held back.
+ * A denomination is short when it has fewer than a quarter of the coins of the best stocked denomination. Its
+ * coins weigh more the closer it is to running out, up to the maximum weight when it has one coin left, so other
+ * coins are used instead wherever they can make the amount.
+ */
+@Component
+@ConditionalOnProperty(name = "lgimtest.dispense.strategy", havingValue = PreserveScarceStrategy.NAME)
+public class PreserveScarceStrategy implements DispenseStrategy {
+
+    public static final String NAME = "preserveScarce";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void weighCoins(int[] coinDenominations, int[] coinQuantities, int[] coinWeights) {
+
+        int mostCoins = 0;
+        for (int coinQuantity : coinQuantities) {
+            mostCoins = Math.max(mostCoins, coinQuantity);
+        }
+        int reserve = Math.max(1, mostCoins / 4);
+
+        for (int index = 0; index < coinWeights.length; index++) {
+            int shortfall = reserve - coinQuantities[index];
+            coinWeights[index] = shortfall <= 0 ? 1 : 1 + (int) ((long) (MAX_COIN_WEIGHT - 1) * shortfall / reserve);
+        }
+    }
+}
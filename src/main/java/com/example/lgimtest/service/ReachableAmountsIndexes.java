@@ -0,0 +1,98 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.model.CoinState;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds how many machines keep an index of the amounts they can pay out.
+ * <p>
+ * Each index holds 12 bytes per amount up to the dispensable ceiling and is kept up to date by every change to its
+ * machine's coins, so keeping one for every machine ever checked would cost memory and dispense time forever.
+ * Machines are registered when their index is built, and once there are more than the maximum the index of one not
+ * checked recently is released, to be built again if it is checked later. Reading an index only marks it used,
+ * so checks take no lock here; the marks are swept, clock fashion, when a new index is built.
+ */
+@Component
+public class ReachableAmountsIndexes {
+
+    private final int maximumIndexes;
+
+    /**
+     * Machines with an index, oldest first.
+     */
+    private final Map<CoinState, Boolean> held = new LinkedHashMap<>();
+
+    private final LongAdder releases = new LongAdder();
+
+    /**
+     * Create the bound.
+     * @param maximumIndexes the most machines to keep an index for.
+     * @param meterRegistry registry the number held and released is added to.
+     */
+    public ReachableAmountsIndexes(@Value("${lgimtest.dispensable.max-indexes:1024}") int maximumIndexes,
+                                   MeterRegistry meterRegistry) {
+
+        this.maximumIndexes = Math.max(maximumIndexes, 1);
+
+        Gauge.builder("lgimtest.dispensable.indexes", this, ReachableAmountsIndexes::size)
+                .description("Machines keeping an index of the amounts they can pay out")
+                .register(meterRegistry);
+        FunctionCounter.builder("lgimtest.dispensable.indexes.released", releases, LongAdder::sum)
+                .description("Indexes released to stay within the maximum")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Register a machine whose index has just been built, releasing others' to stay within the maximum.
+     * Called after the index is set on the coin state, so a release racing with the build cannot miss it.
+     * @param coinState the machine's coin state.
+     */
+    public synchronized void built(CoinState coinState) {
+
+        if (held.putIfAbsent(coinState, Boolean.TRUE) != null) {
+            return;
+        }
+
+        // a used index is given a second chance, but only for two turns of the map, so checks marking indexes as
+        // fast as they are swept cannot keep this going
+        int secondChances = 0;
+        while (held.size() > maximumIndexes) {
+            Iterator<CoinState> oldest = held.keySet().iterator();
+            CoinState candidate = oldest.next();
+            oldest.remove();
+            if (candidate == coinState
+                    || candidate.clearReachableAmountsUsed() && secondChances++ < 2 * maximumIndexes) {
+                held.put(candidate, Boolean.TRUE);
+            }
+            else {
+                candidate.releaseReachableAmounts();
+                releases.increment();
+            }
+        }
+    }
+
+    /**
+     * Get the number of machines keeping an index.
+     * @return the number held.
+     */
+    public synchronized int size() {
+        return held.size();
+    }
+
+    /**
+     * Get the number of indexes released to stay within the maximum.
+     * @return the number released.
+     */
+    public long getReleases() {
+        return releases.sum();
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.lgimtest.simulation;
+
+import com.example.lgimtest.service.BalancedInventoryStrategy;
+import com.example.lgimtest.service.BoundedKnapsackChangeMaker;
+import com.example.lgimtest.service.CanonicalCoinSystem;
+import com.example.lgimtest.service.ChangeMaker;
+import com.example.lgimtest.service.ChangeMakerContext;
+import com.example.lgimtest.service.DispenseStrategy;
+import com.example.lgimtest.service.MinimumCoinsStrategy;
+import com.example.lgimtest.service.PreserveScarceStrategy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Replays traces of requested amounts through each dispense strategy, to choose a strategy from data.
+ * <p>
+ * Every strategy replays every trace against its own copy of the same starting coins, optionally topped back up to
+ * them every so many amounts, and the runs are spread across the available processors. For each run it reports the dispense at which the machine first
+ * failed to make an amount, how many amounts failed in all, the coins paid out, the average solver work per
+ * dispense and the average time per dispense.
+ * <p>
+ * Usage: DispenseStrategySimulator [options] [trace files]. A trace file holds one amount per line, and blank
+ * lines and lines starting with # are skipped. Without trace files a random trace is replayed. Options:
+ * <ul>
+ * <li>--denominations=200,100,50,20,10,5,2,1 the denomination values.</li>
+ * <li>--coins=100 the starting number of coins of each denomination.</li>
+ * <li>--refill-every=0 how many amounts are requested between refills to the starting coins, or 0 for never.</li>
+ * <li>--strategies=minimumCoins,preserveScarce,balanced the strategies to compare.</li>
+ * <li>--random-amounts=10000, --max-amount=500 and --seed=1 for the random trace.</li>
+ * </ul>
+ */
+public final class DispenseStrategySimulator {
+
+    private static final List<DispenseStrategy> STRATEGIES = List.of(
+            new MinimumCoinsStrategy(), new PreserveScarceStrategy(), new BalancedInventoryStrategy());
+
+    private DispenseStrategySimulator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Map<String, String> options = new HashMap<>();
+        List<Trace> traces = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Option " + arg + " has no value.");
+                }
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+            else {
+                traces.add(Trace.read(Paths.get(arg)));
+            }
+        }
+
+        int[] coinDenominations = Arrays.stream(options.getOrDefault("denominations", "200,100,50,20,10,5,2,1").split(","))
+                .mapToInt(value -> Integer.parseInt(value.trim()))
+                .boxed()
+                .sorted((first, second) -> second - first)
+                .mapToInt(Integer::intValue)
+                .toArray();
+        int[] startingCoins = new int[coinDenominations.length];
+        Arrays.fill(startingCoins, Integer.parseInt(options.getOrDefault("coins", "100")));
+
+        List<String> strategyNames = Arrays.asList(options.getOrDefault("strategies",
+                STRATEGIES.stream().map(DispenseStrategy::getName).collect(Collectors.joining(","))).split(","));
+        List<DispenseStrategy> strategies = new ArrayList<>();
+        for (String strategyName : strategyNames) {
+            strategies.add(STRATEGIES.stream()
+                    .filter(strategy -> strategy.getName().equals(strategyName.trim()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown strategy " + strategyName + ".")));
+        }
+
+        int refillEvery = Integer.parseInt(options.getOrDefault("refill-every", "0"));
+
+        if (traces.isEmpty()) {
+            traces.add(Trace.random(Integer.parseInt(options.getOrDefault("random-amounts", "10000")),
+                    Integer.parseInt(options.getOrDefault("max-amount", "500")),
+                    Long.parseLong(options.getOrDefault("seed", "1"))));
+        }
+
+        System.out.printf("%-16s %-24s %9s %13s %9s %12s %12s %12s%n",
+                "strategy", "trace", "amounts", "first failure", "failures", "coins out", "work/amount", "ns/amount");
+        for (Result result : simulate(traces, coinDenominations, startingCoins, refillEvery, strategies)) {
+            System.out.printf("%-16s %-24s %9d %13s %9d %12d %12d %12d%n",
+                    result.strategy, result.trace, result.amounts,
+                    result.firstFailure < 0 ? "none" : Integer.toString(result.firstFailure + 1),
+                    result.failures, result.coinsPaidOut,
+                    result.solverWork / Math.max(1, result.amounts), result.elapsedNanos / Math.max(1, result.amounts));
+        }
+    }
+
+    /**
+     * Replay every trace through every strategy, in parallel.
+     * @param traces the traces.
+     * @param coinDenominations the denomination values, sorted in descending order.
+     * @param startingCoins the starting number of coins of each denomination.
+     * @param refillEvery how many amounts are requested between refills to the starting coins, or 0 for never.
+     * @param strategies the strategies.
+     * @return the result of each run, by trace and then by strategy.
+     */
+    static List<Result> simulate(List<Trace> traces, int[] coinDenominations, int[] startingCoins, int refillEvery,
+                                 List<DispenseStrategy> strategies) {
+        List<Runnable> runs = new ArrayList<>();
+        List<Result> results = new ArrayList<>();
+        for (Trace trace : traces) {
+            for (DispenseStrategy strategy : strategies) {
+                Result result = new Result(strategy.getName(), trace.name, trace.amounts.length);
+                results.add(result);
+                runs.add(() -> replay(trace, strategy, coinDenominations, startingCoins, refillEvery, result));
+            }
+        }
+        runs.parallelStream().forEach(Runnable::run);
+        return results;
+    }
+
+    /**
+     * Replay a trace through a strategy, dispensing the way the service does.
+     */
+    private static void replay(Trace trace, DispenseStrategy strategy, int[] coinDenominations, int[] startingCoins,
+                               int refillEvery, Result result) {
+
+        ChangeMaker changeMaker = new BoundedKnapsackChangeMaker();
+        ChangeMakerContext context = new ChangeMakerContext();
+        int[] coinQuantities = startingCoins.clone();
+        boolean canonical = CanonicalCoinSystem.isCanonical(coinDenominations);
+
+        long start = System.nanoTime();
+        for (int index = 0; index < trace.amounts.length; index++) {
+            if (refillEvery > 0 && index > 0 && index % refillEvery == 0) {
+                System.arraycopy(startingCoins, 0, coinQuantities, 0, coinQuantities.length);
+            }
+            int amount = trace.amounts[index];
+            int[] coinsToDispense;
+            if (strategy.isMinimumCoins() && canonical
+                    && CanonicalCoinSystem.greedyChangeFits(amount, coinDenominations, coinQuantities)) {
+                coinsToDispense = context.coinsToTake(coinDenominations.length);
+                CanonicalCoinSystem.greedyChange(amount, coinDenominations, coinsToDispense);
+                result.solverWork += coinDenominations.length;
+            }
+            else {
+                context.reset();
+                coinsToDispense = strategy.makeChange(changeMaker, amount, coinDenominations, coinQuantities, context);
+                result.solverWork += context.getWork();
+            }
+
+            if (coinsToDispense == null) {
+                result.failures++;
+                if (result.firstFailure < 0) {
+                    result.firstFailure = index;
+                }
+                continue;
+            }
+            for (int counter = 0; counter < coinsToDispense.length; counter++) {
+                coinQuantities[counter] -= coinsToDispense[counter];
+                result.coinsPaidOut += coinsToDispense[counter];
+                result.valuePaidOut += (long) coinsToDispense[counter] * coinDenominations[counter];
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * A sequence of requested amounts.
+     */
+    static final class Trace {
+
+        private final String name;
+
+        private final int[] amounts;
+
+        Trace(String name, int[] amounts) {
+            this.name = name;
+            this.amounts = amounts;
+        }
+
+        int[] getAmounts() {
+            return amounts;
+        }
+
+        static Trace read(Path path) throws IOException {
+            int[] amounts = Files.readAllLines(path)
+                    .stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .mapToInt(Integer::parseInt)
+                    .toArray();
+            return new Trace(path.getFileName().toString(), amounts);
+        }
+
+        static Trace random(int size, int maxAmount, long seed) {
+            Random random = new Random(seed);
+            int[] amounts = new int[size];
+            for (int index = 0; index < size; index++) {
+                amounts[index] = 1 + random.nextInt(maxAmount);
+            }
+            return new Trace("random-" + seed, amounts);
+        }
+    }
+
+    /**
+     * The outcome of replaying one trace through one strategy.
+     */
+    static final class Result {
+
+        final String strategy;
+
+        final String trace;
+
+        final int amounts;
+
+        /**
+         * Index of the first amount that could not be dispensed, or -1 if every amount was.
+         */
+        int firstFailure = -1;
+
+        int failures;
+
+        long coinsPaidOut;
+
+        long valuePaidOut;
+
+        long solverWork;
+
+        long elapsedNanos;
+
+        Result(String strategy, String trace, int amounts) {
+            this.strategy = strategy;
+            this.trace = trace;
+            this.amounts = amounts;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.dto.DispenseOutcome;
+import com.example.lgimtest.dto.DispensedDto;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = AsyncCoinVendingMachineController.class, properties = "lgimtest.web.mode=async")
+class AsyncCoinVendingMachineControllerTest {
+
+    @MockBean
+    CoinVendingMachineService coinVendingMachineService;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    void whenDispenseRequestedThenResponseWrittenWhenShardCompletes() throws Exception {
+
+        Map<String, Integer> dispensedCoinAmounts = new HashMap<>();
+        dispensedCoinAmounts.put("Penny", 3);
+        CompletableFuture<DispenseOutcome> dispensed = new CompletableFuture<>();
+
+        when(coinVendingMachineService.dispenseOutcomeAsync("default", 3)).thenReturn(dispensed);
+
+        MvcResult mvcResult = mockMvc.perform(put("/dispense")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("3")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        dispensed.complete(DispenseOutcome.dispensed(new DispensedDto(dispensedCoinAmounts)));
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.dispensedCoinAmounts.Penny").value("3"));
+    }
+
+    @Test
+    void whenDispenseFailsThenBadRequestReturned() throws Exception {
+
+        CompletableFuture<DispenseOutcome> dispensed = new CompletableFuture<>();
+        when(coinVendingMachineService.dispenseOutcomeAsync("machine-7", 3)).thenReturn(dispensed);
+
+        MvcResult mvcResult = mockMvc.perform(put("/machines/machine-7/dispense")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("3")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        dispensed.complete(DispenseOutcome.CANNOT_MAKE_CHANGE);
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Cannot dispense correct amount with available coins."));
+    }
+}
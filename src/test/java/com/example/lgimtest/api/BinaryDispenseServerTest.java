@@ -0,0 +1,160 @@
+package com.example.lgimtest.api;
+
+import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.model.Denomination;
+import com.example.lgimtest.model.DenominationTable;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import com.example.lgimtest.service.CoinVendingMachineServiceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BinaryDispenseServerTest {
+
+    private CoinVendingMachineService coinVendingMachineService;
+
+    private BinaryDispenseServer binaryDispenseServer;
+
+    @BeforeEach
+    void setup() throws IOException {
+        coinVendingMachineService = new CoinVendingMachineServiceBuilder().build();
+
+        InitialisationDto initDto = new InitialisationDto();
+        initDto.setDenominations(Arrays.asList(new Denomination("one", 1), new Denomination("five", 5)));
+        Map<String, Integer> coins = new HashMap<>();
+        coins.put("one", 4);
+        coins.put("five", 2);
+        initDto.setInitialCoinAmounts(coins);
+        coinVendingMachineService.initialise(initDto);
+
+        binaryDispenseServer = new BinaryDispenseServer(coinVendingMachineService, 0);
+        binaryDispenseServer.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        binaryDispenseServer.destroy();
+    }
+
+    @Test
+    void testPipelinedRequestsAnsweredInOrder() throws IOException {
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), binaryDispenseServer.getLocalPort())) {
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            // all sent before any response is read
+            ByteArrayOutputStream requests = new ByteArrayOutputStream();
+            requests.write(amountRequest(BinaryDispenseServer.DISPENSE, "default", 7));
+            requests.write(amountRequest(BinaryDispenseServer.DISPENSE, "unknown", 7));
+            requests.write(amountRequest(BinaryDispenseServer.DISPENSABLE, "default", 9));
+            requests.write(new byte[] {0, 2, 99, 0});
+            requests.write(amountRequest(BinaryDispenseServer.DISPENSE, "default", 7));
+            out.write(requests.toByteArray());
+            out.flush();
+
+            in.readUnsignedShort();
+            assertEquals(BinaryDispenseServer.OK, in.readByte());
+            Map<String, Integer> dispensed = readCoins(in);
+            assertEquals(1, dispensed.get("five"));
+            assertEquals(2, dispensed.get("one"));
+
+            in.readUnsignedShort();
+            assertEquals(BinaryDispenseServer.REJECTED, in.readByte());
+            assertEquals("Vending Machine has not been initialised. Cannot dispense anything.", readMessage(in));
+
+            // 5 and 2 ones are left
+            in.readUnsignedShort();
+            assertEquals(BinaryDispenseServer.OK, in.readByte());
+            assertEquals(0, in.readByte());
+            assertEquals(7, in.readInt());
+
+            in.readUnsignedShort();
+            assertEquals(BinaryDispenseServer.REJECTED, in.readByte());
+            assertEquals("Unknown operation 99.", readMessage(in));
+
+            in.readUnsignedShort();
+            assertEquals(BinaryDispenseServer.OK, in.readByte());
+            dispensed = readCoins(in);
+            assertEquals(1, dispensed.get("five"));
+            assertEquals(2, dispensed.get("one"));
+        }
+    }
+
+    @Test
+    void testTheLargestMachineFitsInOneFrame() throws IOException {
+
+        InitialisationDto initDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        Map<String, Integer> coins = new HashMap<>();
+        for (int value = 1; value <= DenominationTable.MAX_DENOMINATIONS; value++) {
+            String name = String.format("%03d", value).repeat(DenominationTable.MAX_NAME_BYTES / 3 - 1) + "xxxx";
+            denominations.add(new Denomination(name, value));
+            coins.put(name, value);
+        }
+        initDto.setDenominations(denominations);
+        initDto.setInitialCoinAmounts(coins);
+        coinVendingMachineService.initialise("largest", initDto);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), binaryDispenseServer.getLocalPort())) {
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] id = "largest".getBytes(StandardCharsets.UTF_8);
+            out.writeShort(1 + 1 + id.length);
+            out.writeByte(BinaryDispenseServer.CURRENT_STATE);
+            out.writeByte(id.length);
+            out.write(id);
+            out.flush();
+
+            in.readUnsignedShort();
+            assertEquals(BinaryDispenseServer.OK, in.readByte());
+            assertEquals(coins, readCoins(in));
+        }
+    }
+
+    private static byte[] amountRequest(byte operation, String machineId, int amount) throws IOException {
+        byte[] id = machineId.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeShort(1 + 1 + id.length + 4);
+        out.writeByte(operation);
+        out.writeByte(id.length);
+        out.write(id);
+        out.writeInt(amount);
+        return frame.toByteArray();
+    }
+
+    private static Map<String, Integer> readCoins(DataInputStream in) throws IOException {
+        Map<String, Integer> coins = new HashMap<>();
+        int count = in.readUnsignedByte();
+        for (int index = 0; index < count; index++) {
+            byte[] name = new byte[in.readUnsignedByte()];
+            in.readFully(name);
+            coins.put(new String(name, StandardCharsets.UTF_8), in.readInt());
+        }
+        return coins;
+    }
+
+    private static String readMessage(DataInputStream in) throws IOException {
+        byte[] message = new byte[in.readUnsignedShort()];
+        in.readFully(message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+}
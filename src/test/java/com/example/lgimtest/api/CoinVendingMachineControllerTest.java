@@ -1,6 +1,13 @@
 package com.example.lgimtest.api;
 
 import com.example.lgimtest.dto.CoinStateDto;
+import com.example.lgimtest.dto.CoinStateSnapshot;
+import com.example.lgimtest.dto.DispensableDto;
+import com.example.lgimtest.dto.DispensableOutcome;
+import com.example.lgimtest.dto.DispenseBatchOutcome;
+import com.example.lgimtest.dto.DispenseOutcome;
+import com.example.lgimtest.dto.DispenseResultDto;
+import com.example.lgimtest.dto.DispensedDto;
 import com.example.lgimtest.model.CoinState;
 import com.example.lgimtest.model.Denomination;
 import com.example.lgimtest.service.CoinVendingMachineService;
@@ -9,16 +16,23 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -44,13 +58,14 @@ class CoinVendingMachineControllerTest {
         testCoinState.addCoins("Penny", 15);
         testCoinState.addCoins("Tenpence", 33);
 
-        when(coinVendingMachineService.get())
-                .thenReturn(new CoinStateDto(testCoinState));
+        when(coinVendingMachineService.getSnapshot())
+                .thenReturn(new CoinStateSnapshot(1, "\"test-1\"", objectMapper.writeValueAsBytes(new CoinStateDto(testCoinState))));
 
         mockMvc.perform(get("/currentState")
                         .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"test-1\""))
                 .andExpect(jsonPath("$.denominations").isArray())
                 .andExpect(jsonPath("$.denominations", hasSize(2)))
 
@@ -66,8 +81,143 @@ class CoinVendingMachineControllerTest {
                 ;
 
         verify(this.coinVendingMachineService, times(1))
-                .get();
+                .getSnapshot();
         verifyNoMoreInteractions(this.coinVendingMachineService);
     }
 
+    @Test
+    void whenCurrentStateUnchangedThenNotModifiedReturned() throws Exception {
+
+        when(coinVendingMachineService.getSnapshot())
+                .thenReturn(new CoinStateSnapshot(2, "\"test-2\"", new byte[] {'{', '}'}));
+
+        mockMvc.perform(get("/currentState")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"test-1\", \"test-2\"")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"test-2\""))
+                .andExpect(content().bytes(new byte[0]));
+
+        mockMvc.perform(get("/currentState")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"test-1\"")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{}"));
+    }
+
+    @Test
+    void whenMachineDispenseRequestedThenMachineDispenses() throws Exception {
+
+        Map<String, Integer> dispensedCoinAmounts = new HashMap<>();
+        dispensedCoinAmounts.put("Penny", 3);
+
+        when(coinVendingMachineService.dispenseOutcome("machine-7", 3))
+                .thenReturn(DispenseOutcome.dispensed(new DispensedDto(dispensedCoinAmounts)));
+
+        mockMvc.perform(put("/machines/machine-7/dispense")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("3")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.dispensedCoinAmounts.Penny").value("3"));
+
+        verify(this.coinVendingMachineService, times(1))
+                .dispenseOutcome("machine-7", 3);
+        verifyNoMoreInteractions(this.coinVendingMachineService);
+    }
+
+    @Test
+    void whenMachineOverloadedThenServiceUnavailableReturned() throws Exception {
+
+        when(coinVendingMachineService.dispenseOutcome("machine-7", 3))
+                .thenReturn(DispenseOutcome.overloaded(2));
+
+        mockMvc.perform(put("/machines/machine-7/dispense")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("3")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"))
+                .andExpect(jsonPath("$.message").value("Vending Machine is busy. Try again later."))
+                .andExpect(jsonPath("$.timestamp").exists());
+    }
+
+    @Test
+    void whenMachineCannotMakeChangeThenBadRequestReturned() throws Exception {
+
+        when(coinVendingMachineService.dispenseOutcome("machine-7", 3))
+                .thenReturn(DispenseOutcome.CANNOT_MAKE_CHANGE);
+
+        mockMvc.perform(put("/machines/machine-7/dispense")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("3")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Cannot dispense correct amount with available coins."))
+                .andExpect(jsonPath("$.timestamp").exists());
+    }
+
+    @Test
+    void whenBatchDispenseRequestedThenResultPerAmountReturned() throws Exception {
+
+        Map<String, Integer> dispensedCoinAmounts = new HashMap<>();
+        dispensedCoinAmounts.put("Tenpence", 2);
+
+        when(coinVendingMachineService.dispenseBatchOutcome(Arrays.asList(20, 7)))
+                .thenReturn(DispenseBatchOutcome.dispensed(Arrays.asList(
+                        DispenseResultDto.dispensed(20, new DispensedDto(dispensedCoinAmounts)),
+                        DispenseResultDto.rejected(7, "Cannot dispense correct amount with available coins."))));
+
+        mockMvc.perform(put("/dispense/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[20, 7]")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].dispensed").value(true))
+                .andExpect(jsonPath("$[0].dispensedCoinAmounts.Tenpence").value("2"))
+                .andExpect(jsonPath("$[0].message").doesNotExist())
+                .andExpect(jsonPath("$[1].dispensed").value(false))
+                .andExpect(jsonPath("$[1].amountRequested").value("7"))
+                .andExpect(jsonPath("$[1].message").value("Cannot dispense correct amount with available coins."));
+
+        verify(this.coinVendingMachineService, times(1))
+                .dispenseBatchOutcome(Arrays.asList(20, 7));
+        verifyNoMoreInteractions(this.coinVendingMachineService);
+    }
+
+    @Test
+    void whenBatchForUninitialisedMachineThenBadRequestReturned() throws Exception {
+
+        when(coinVendingMachineService.dispenseBatchOutcome("machine-7", Arrays.asList(20, 7)))
+                .thenReturn(DispenseBatchOutcome.NOT_INITIALISED);
+
+        mockMvc.perform(put("/machines/machine-7/dispense/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[20, 7]")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Vending Machine has not been initialised. Cannot dispense anything."));
+    }
+
+    @Test
+    void whenDispensableCheckedThenAnswerOrFailureReturned() throws Exception {
+
+        when(coinVendingMachineService.dispensableOutcome(7))
+                .thenReturn(DispensableOutcome.checked(new DispensableDto(7, false, 6)));
+        when(coinVendingMachineService.dispensableOutcome(0))
+                .thenReturn(DispensableOutcome.INVALID_AMOUNT);
+
+        mockMvc.perform(get("/dispensable").param("amount", "7")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.dispensable").value(false))
+                .andExpect(jsonPath("$.largestDispensableAmount").value(6));
+
+        mockMvc.perform(get("/dispensable").param("amount", "0")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Cannot dispense a negative or zero amount."));
+    }
+
 }
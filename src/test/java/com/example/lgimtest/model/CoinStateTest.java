@@ -0,0 +1,57 @@
+package com.example.lgimtest.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CoinStateTest {
+
+    @Test
+    void testDenominationsAreSortedAndIndexed() {
+
+        CoinState coinState = new CoinState();
+        coinState.addDenomination(new Denomination("penny", 1));
+        coinState.addDenomination(new Denomination("pound", 100));
+        coinState.addDenomination(new Denomination("tuppence", 2));
+
+        assertArrayEquals(new int[]{100, 2, 1}, coinState.getDenominationValues());
+        assertEquals(0, coinState.getIndexForKey("pound"));
+        assertEquals(2, coinState.getIndexForValue(1));
+        assertEquals(-1, coinState.getIndexForValue(50));
+        assertEquals("tuppence", coinState.getDenominationForValue(2).getName());
+        assertNull(coinState.getDenominationForKey("shilling"));
+    }
+
+    @Test
+    void testLargeDenominationValuesAreIndexed() {
+
+        CoinState coinState = new CoinState();
+        coinState.addDenomination(new Denomination("penny", 1));
+        coinState.addDenomination(new Denomination("bar", 1_000_000));
+
+        assertEquals(0, coinState.getIndexForValue(1_000_000));
+        assertEquals(1, coinState.getIndexForValue(1));
+        assertEquals(-1, coinState.getIndexForValue(500));
+    }
+
+    @Test
+    void testCoinsAreAddedAndRemoved() {
+
+        CoinState coinState = new CoinState();
+        coinState.addDenomination(new Denomination("penny", 1));
+        coinState.addDenomination(new Denomination("tuppence", 2));
+
+        coinState.addCoins("penny", 3);
+        coinState.addCoins("tuppence", 1);
+        coinState.removeCoinByDenominationValue(2);
+        coinState.removeCoins(1, 2);
+
+        assertArrayEquals(new int[]{0, 1}, coinState.getCoinCounts());
+        assertEquals(1, coinState.getCoins().size());
+
+        assertThrows(IllegalStateException.class, () -> coinState.addCoins("shilling", 1));
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.lgimtest.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReachableAmountsTest {
+
+    @Test
+    void testReachableAmountsFollowCoinChanges() {
+
+        CoinState coinState = new CoinState(DenominationTable.of(Arrays.asList(
+                new Denomination("one", 1), new Denomination("three", 3), new Denomination("four", 4))));
+        coinState.addCoins("four", 2);
+        ReachableAmounts reachableAmounts = coinState.trackReachableAmounts(20);
+
+        assertTrue(reachableAmounts.isReachable(8));
+        assertFalse(reachableAmounts.isReachable(5));
+        assertEquals(8, reachableAmounts.getLargestReachable(20));
+
+        coinState.addCoins("one", 1);
+        assertTrue(reachableAmounts.isReachable(5));
+        assertEquals(9, reachableAmounts.getLargestReachable(20));
+
+        assertTrue(coinState.tryRemoveCoins(new int[]{1, 0, 1}));
+        assertFalse(reachableAmounts.isReachable(5));
+        assertTrue(reachableAmounts.isReachable(4));
+        assertEquals(4, reachableAmounts.getLargestReachable(20));
+    }
+
+    @Test
+    void testReachableAmountsMatchBruteForce() {
+
+        Random random = new Random(7);
+        int[] values = {50, 20, 7, 5, 3};
+        int ceiling = 300;
+        CoinState coinState = new CoinState(DenominationTable.of(Arrays.asList(
+                new Denomination("fifty", 50), new Denomination("twenty", 20), new Denomination("seven", 7),
+                new Denomination("five", 5), new Denomination("three", 3))));
+        ReachableAmounts reachableAmounts = coinState.trackReachableAmounts(ceiling);
+
+        for (int step = 0; step < 200; step++) {
+            int index = random.nextInt(values.length);
+            if (random.nextBoolean()) {
+                coinState.addCoins(index, 1 + random.nextInt(3));
+            }
+            else {
+                int[] coinsToTake = new int[values.length];
+                coinsToTake[index] = 1 + random.nextInt(2);
+                coinState.tryRemoveCoins(coinsToTake);
+            }
+
+            boolean[] expected = bruteForce(values, coinState.getCoinCounts(), ceiling);
+            int largest = 0;
+            for (int amount = 0; amount <= ceiling; amount++) {
+                assertEquals(expected[amount], reachableAmounts.isReachable(amount), "amount " + amount);
+                largest = expected[amount] ? amount : largest;
+                assertEquals(largest, reachableAmounts.getLargestReachable(amount));
+            }
+        }
+    }
+
+    private boolean[] bruteForce(int[] values, int[] quantities, int ceiling) {
+        boolean[] reachable = new boolean[ceiling + 1];
+        reachable[0] = true;
+        for (int index = 0; index < values.length; index++) {
+            for (int coin = 0; coin < quantities[index]; coin++) {
+                for (int amount = ceiling; amount >= values[index]; amount--) {
+                    reachable[amount] |= reachable[amount - values[index]];
+                }
+            }
+        }
+        return reachable;
+    }
+}
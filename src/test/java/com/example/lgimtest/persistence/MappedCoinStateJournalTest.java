@@ -0,0 +1,196 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.dto.CoinStateDto;
+import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.dto.UpdateDto;
+import com.example.lgimtest.model.Denomination;
+import com.example.lgimtest.model.DenominationTable;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import com.example.lgimtest.service.CoinVendingMachineServiceBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedCoinStateJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testStateIsRecoveredFromJournal() {
+
+        MappedCoinStateJournal journal = createJournal(1 << 20);
+        CoinVendingMachineService coinVendingMachineService = createService(journal);
+
+        coinVendingMachineService.initialise("machine-1", setupInitialisationDto());
+        coinVendingMachineService.initialise("machine-2", setupInitialisationDto());
+        coinVendingMachineService.dispense("machine-1", 131);
+        coinVendingMachineService.update("machine-2", setupUpdateDto());
+        journal.destroy();
+
+        CoinVendingMachineService recoveredService = createService(createJournal(1 << 20));
+
+        assertSameState(coinVendingMachineService.get("machine-1"), recoveredService.get("machine-1"));
+        assertSameState(coinVendingMachineService.get("machine-2"), recoveredService.get("machine-2"));
+        assertEquals(30-1, recoveredService.get("machine-1").getCoinAmounts().get("penny"));
+        assertThrows(IllegalStateException.class, () -> recoveredService.initialise("machine-1", setupInitialisationDto()));
+    }
+
+    @Test
+    void testStateIsRecoveredFromSnapshotAndLaterRecords() throws Exception {
+
+        MappedCoinStateJournal journal = createJournal(1024);
+        CoinVendingMachineService coinVendingMachineService = createService(journal);
+
+        for (int machine = 0; machine < 20; machine++) {
+            coinVendingMachineService.initialise("machine-" + machine, setupInitialisationDto());
+        }
+        for (int machine = 0; machine < 20; machine++) {
+            coinVendingMachineService.dispense("machine-" + machine, 1 + machine);
+        }
+
+        journal.snapshot();
+
+        for (int machine = 0; machine < 20; machine += 2) {
+            coinVendingMachineService.update("machine-" + machine, setupUpdateDto());
+            coinVendingMachineService.dispense("machine-" + machine, 7);
+        }
+        journal.destroy();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(path -> path.toString().endsWith(".snapshot")).count());
+        }
+
+        CoinVendingMachineService recoveredService = createService(createJournal(1024));
+        for (int machine = 0; machine < 20; machine++) {
+            assertSameState(coinVendingMachineService.get("machine-" + machine), recoveredService.get("machine-" + machine));
+        }
+
+        // a further restart after another snapshot gives the same state again
+        MappedCoinStateJournal recoveredJournal = createJournal(1024);
+        CoinVendingMachineService secondService = createService(recoveredJournal);
+        recoveredJournal.snapshot();
+        secondService.dispense("machine-3", 5);
+        recoveredJournal.destroy();
+
+        CoinVendingMachineService thirdService = createService(createJournal(1024));
+        assertSameState(secondService.get("machine-3"), thirdService.get("machine-3"));
+        assertTrue(thirdService.get("machine-3").getCoinAmounts().get("penny") < 30);
+    }
+
+    @Test
+    void testUnfinishedRecordDoesNotHideLaterRecords() throws Exception {
+
+        MappedCoinStateJournal journal = createJournal(1 << 20);
+        CoinVendingMachineService coinVendingMachineService = createService(journal);
+        coinVendingMachineService.initialise("machine-1", setupInitialisationDto());
+        coinVendingMachineService.dispense("machine-1", 1);
+        coinVendingMachineService.dispense("machine-1", 100);
+        journal.destroy();
+
+        // turn the first dispense back into space that was claimed but never written, as a crash mid-append leaves it
+        Path segment = directory.resolve(String.format("segment-%016d.journal", 0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int hole = recordSize(buffer.getInt(0));
+            int holeSize = recordSize(buffer.getInt(hole));
+            for (int index = hole; index < hole + holeSize; index++) {
+                buffer.put(index, (byte) 0);
+            }
+            buffer.putInt(hole, -holeSize);
+            buffer.force();
+        }
+
+        CoinVendingMachineService recoveredService = createService(createJournal(1 << 20));
+
+        assertEquals(30, recoveredService.get("machine-1").getCoinAmounts().get("penny"));
+        assertEquals(15-1, recoveredService.get("machine-1").getCoinAmounts().get("pound"));
+    }
+
+    @Test
+    void testLargeRecordsAreJournaledAndOversizedOnesRejectedBeforeTheMachineIsServed() {
+
+        CoinVendingMachineService coinVendingMachineService = createService(createJournal(1 << 20));
+
+        InitialisationDto largeDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        Map<String, Integer> coins = new HashMap<>();
+        for (int value = 1; value <= DenominationTable.MAX_DENOMINATIONS; value++) {
+            String name = "coin-" + "x".repeat(200) + value;
+            denominations.add(new Denomination(name, value));
+            coins.put(name, 1);
+        }
+        largeDto.setDenominations(denominations);
+        largeDto.setInitialCoinAmounts(coins);
+        coinVendingMachineService.initialise("machine-large", largeDto);
+
+        InitialisationDto oversizedDto = setupInitialisationDto();
+        oversizedDto.getDenominations().add(new Denomination("n".repeat(Short.MAX_VALUE + 1), 5));
+        assertThrows(IllegalStateException.class, () -> coinVendingMachineService.initialise("machine-oversized", oversizedDto));
+        assertThrows(IllegalStateException.class, () -> coinVendingMachineService.dispense("machine-oversized", 1));
+
+        CoinVendingMachineService recoveredService = createService(createJournal(1 << 20));
+        assertEquals(DenominationTable.MAX_DENOMINATIONS, recoveredService.get("machine-large").getDenominations().size());
+        assertTrue(recoveredService.get("machine-oversized").getCoinAmounts().isEmpty());
+    }
+
+    private static int recordSize(int length) {
+        return (8 + length + 7) & -8;
+    }
+
+    private MappedCoinStateJournal createJournal(int segmentSize) {
+        return new MappedCoinStateJournal(directory.toString(), segmentSize, 1, 3_600_000);
+    }
+
+    private CoinVendingMachineService createService(CoinStateJournal journal) {
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder().coinStateJournal(journal).build();
+        coinVendingMachineService.recover();
+        return coinVendingMachineService;
+    }
+
+    private void assertSameState(CoinStateDto expected, CoinStateDto actual) {
+        assertEquals(expected.getDenominations(), actual.getDenominations());
+        assertEquals(expected.getCoinAmounts(), actual.getCoinAmounts());
+    }
+
+    private InitialisationDto setupInitialisationDto() {
+        InitialisationDto initDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        denominations.add(new Denomination("penny", 1));
+        denominations.add(new Denomination("tuppence", 2));
+        denominations.add(new Denomination("pound", 100));
+
+        initDto.setDenominations(denominations);
+
+        Map<String,Integer> coins = new HashMap<>();
+        coins.put("penny", 30);
+        coins.put("tuppence", 25);
+        coins.put("pound", 15);
+        initDto.setInitialCoinAmounts(coins);
+        return initDto;
+    }
+
+    private UpdateDto setupUpdateDto() {
+        UpdateDto updateDto = new UpdateDto();
+
+        Map<String,Integer> coins = new HashMap<>();
+        coins.put("penny", 2);
+        coins.put("pound", 5);
+        updateDto.setAddCoinAmounts(coins);
+        return updateDto;
+    }
+}
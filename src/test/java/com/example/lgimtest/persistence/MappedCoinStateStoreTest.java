@@ -0,0 +1,154 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.model.CoinState;
+import com.example.lgimtest.model.Denomination;
+import com.example.lgimtest.model.DenominationTable;
+import com.example.lgimtest.service.CoinVendingMachineService;
+import com.example.lgimtest.service.CoinVendingMachineServiceBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MappedCoinStateStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testServicesShareOneInventory() {
+
+        // each service stands in for a process with its own mapping of the files
+        CoinVendingMachineService first = createService();
+        CoinVendingMachineService second = createService();
+
+        first.initialise("machine-1", setupInitialisationDto());
+        assertThrows(IllegalStateException.class, () -> second.initialise("machine-1", setupInitialisationDto()));
+
+        second.dispense("machine-1", 7);
+        assertEquals(1, first.get("machine-1").getCoinAmounts().get("five"));
+        assertEquals(8, first.get("machine-1").getCoinAmounts().get("one"));
+        assertEquals(first.getSnapshot("machine-1").getVersion(), second.getSnapshot("machine-1").getVersion());
+
+        // the files are the state, so a restart finds it as it was
+        CoinVendingMachineService restarted = createService();
+        assertEquals(first.get("machine-1").getCoinAmounts(), restarted.get("machine-1").getCoinAmounts());
+    }
+
+    @Test
+    void testConcurrentDispensesFromTwoServicesNeverOverdraw() {
+
+        CoinVendingMachineService first = createService();
+        CoinVendingMachineService second = createService();
+        first.initialise("machine-1", setupInitialisationDto());
+        assertNotNull(second.get("machine-1"));
+
+        // only ten ones, so only ten dispenses of 1 can succeed between the two
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CompletableFuture<?>[] dispenses = new CompletableFuture<?>[40];
+        int[] dispensed = new int[2];
+        for (int index = 0; index < dispenses.length; index++) {
+            CoinVendingMachineService service = index % 2 == 0 ? first : second;
+            int counter = index % 2;
+            dispenses[index] = CompletableFuture.runAsync(() -> {
+                if (service.dispense("machine-1", 1) != null) {
+                    synchronized (dispensed) {
+                        dispensed[counter]++;
+                    }
+                }
+            }, executor).exceptionally(e -> null);
+        }
+        CompletableFuture.allOf(dispenses).join();
+        executor.shutdown();
+
+        assertEquals(10, dispensed[0] + dispensed[1]);
+        assertEquals(0, first.get("machine-1").getCoinAmounts().getOrDefault("one", 0));
+    }
+
+    @Test
+    void testManyMachinesShareTheRegions() {
+
+        MappedCoinStateStore first = new MappedCoinStateStore(directory.toString(), 1000, 128, false);
+        for (int machine = 0; machine < 1000; machine++) {
+            assertNotNull(first.store("machine-" + machine, coinState(machine)));
+        }
+        assertNull(first.store("machine-7", coinState(7)));
+        assertThrows(IllegalStateException.class, () -> first.store("machine-1000", coinState(1000)));
+
+        MappedCoinStateStore second = new MappedCoinStateStore(directory.toString(), 1000, 128, false);
+        for (int machine = 0; machine < 1000; machine++) {
+            CoinState coinState = second.load("machine-" + machine);
+            assertEquals(machine, coinState.getCoinCount(coinState.getIndexForKey("one")));
+            assertEquals(5, coinState.getDenominationForKey("five").getValue());
+        }
+        assertNull(second.load("machine-1000"));
+    }
+
+    @Test
+    void testHalfWrittenSlotsAreReadAsEmptyAndWrittenOver() throws IOException {
+
+        // stands in for a crash while slots were being written, before their magic
+        new MappedCoinStateStore(directory.toString(), 4, 64, false);
+        byte[] junk = new byte[4 * 64];
+        Arrays.fill(junk, (byte) 0x7F);
+        Files.write(directory.resolve("inventory-0.region"), junk);
+
+        MappedCoinStateStore store = new MappedCoinStateStore(directory.toString(), 4, 64, false);
+        assertNull(store.load("machine-1"));
+        assertNotNull(store.store("machine-1", coinState(3)));
+        CoinState loaded = store.load("machine-1");
+        assertEquals(3, loaded.getCoinCount(loaded.getIndexForKey("one")));
+    }
+
+    @Test
+    void testMachinesTooLargeForASlotAreRejected() {
+
+        MappedCoinStateStore store = new MappedCoinStateStore(directory.toString(), 4, 64, false);
+        assertThrows(IllegalStateException.class, () -> store.store("machine-" + "x".repeat(64), coinState(1)));
+    }
+
+    @Test
+    void testEveryProcessMustKeepTheLayout() {
+
+        new MappedCoinStateStore(directory.toString(), 4, 64, false);
+        assertThrows(IllegalStateException.class, () -> new MappedCoinStateStore(directory.toString(), 8, 64, false));
+    }
+
+    private CoinVendingMachineService createService() {
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder()
+                .coinStateStore(new MappedCoinStateStore(directory.toString(), 1024, 512, false))
+                .build();
+        coinVendingMachineService.recover();
+        return coinVendingMachineService;
+    }
+
+    private CoinState coinState(int ones) {
+        CoinState coinState = new CoinState(DenominationTable.of(Arrays.asList(new Denomination("one", 1), new Denomination("five", 5))));
+        coinState.addCoins("one", ones);
+        return coinState;
+    }
+
+    private InitialisationDto setupInitialisationDto() {
+        InitialisationDto initDto = new InitialisationDto();
+        initDto.setDenominations(Arrays.asList(new Denomination("one", 1), new Denomination("five", 5)));
+        Map<String, Integer> coins = new HashMap<>();
+        coins.put("one", 10);
+        coins.put("five", 2);
+        initDto.setInitialCoinAmounts(coins);
+        return initDto;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.lgimtest.persistence;
+
+import com.example.lgimtest.model.CoinState;
+import com.example.lgimtest.model.Denomination;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RingBufferDispenseAuditLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testRecordsBeyondCapacityAreDropped() throws Exception {
+
+        CoinState coinState = new CoinState();
+        coinState.addDenomination(new Denomination("five", 5));
+        coinState.addDenomination(new Denomination("one", 1));
+        coinState.addCoins("five", 2);
+        coinState.addCoins("one", 3);
+
+        RingBufferDispenseAuditLog auditLog = new RingBufferDispenseAuditLog(directory.toString(), 4, 2, 1 << 20, 2,
+                new SimpleMeterRegistry());
+        // nothing is written until the writer starts, so only the first four fit
+        for (int version = 1; version <= 6; version++) {
+            auditLog.dispensed("machine-\"1\"", version, 6, new int[] {1, 1}, coinState);
+        }
+        auditLog.start();
+        auditLog.destroy();
+
+        assertEquals(4, auditLog.getWritten());
+        assertEquals(2, auditLog.getDropped());
+        List<String> lines = Files.readAllLines(directory.resolve("audit-1.log"));
+        assertEquals(4, lines.size());
+        assertEquals("\"machineId\":\"machine-\\\"1\\\"\",\"version\":4,\"amount\":6,"
+                        + "\"dispensed\":{\"five\":1,\"one\":1},\"inventory\":{\"five\":2,\"one\":3}}",
+                lines.get(3).substring(lines.get(3).indexOf("\"machineId\"")));
+    }
+
+    @Test
+    void testOldFilesAreDeleted() throws Exception {
+
+        CoinState coinState = new CoinState();
+        coinState.addDenomination(new Denomination("one", 1));
+
+        for (int run = 0; run < 3; run++) {
+            RingBufferDispenseAuditLog auditLog = new RingBufferDispenseAuditLog(directory.toString(), 16, 16, 1 << 20, 2,
+                    new SimpleMeterRegistry());
+            auditLog.start();
+            auditLog.dispensed("machine-1", run, 1, new int[] {1}, coinState);
+            auditLog.destroy();
+        }
+
+        try (Stream<Path> paths = Files.list(directory)) {
+            assertEquals(List.of("audit-2.log", "audit-3.log"),
+                    paths.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.lgimtest.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoundedKnapsackChangeMakerTest {
+
+    private final BoundedKnapsackChangeMaker changeMaker = new BoundedKnapsackChangeMaker();
+
+    @Test
+    void testMinimumCoinsForNonCanonicalSet() {
+
+        // greedy would give 4 + 1 + 1
+        int[] result = changeMaker.makeChange(6, new int[]{4, 3, 1}, new int[]{5, 5, 5});
+        assertArrayEquals(new int[]{0, 2, 0}, result);
+    }
+
+    @Test
+    void testQuantitiesAreRespected() {
+
+        int[] result = changeMaker.makeChange(131, new int[]{100, 2, 1}, new int[]{15, 25, 30});
+        assertArrayEquals(new int[]{1, 15, 1}, result);
+
+        result = changeMaker.makeChange(60, new int[]{50, 20, 10}, new int[]{1, 3, 0});
+        assertArrayEquals(new int[]{0, 3, 0}, result);
+    }
+
+    @Test
+    void testNotDispensableReturnsNull() {
+
+        assertNull(changeMaker.makeChange(3004, new int[]{100, 2, 1}, new int[]{15, 25, 30}));
+        assertNull(changeMaker.makeChange(3, new int[]{5, 2}, new int[]{10, 10}));
+        assertNull(changeMaker.makeChange(7, new int[]{5, 2}, new int[]{10, 0}));
+    }
+
+    @Test
+    void testLargeAmountWithManyCoins() {
+
+        int[] denominations = {200, 100, 50, 20, 10, 5, 2, 1};
+        int[] quantities = {1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000};
+
+        int[] result = changeMaker.makeChange(123457, denominations, quantities);
+        assertNotNull(result);
+        assertEquals(123457, valueOf(result, denominations));
+        assertTrue(result[0] <= quantities[0]);
+    }
+
+    @Test
+    void testTableLargerThanAnArrayIsRefusedBeforeAllocating() {
+
+        int[] denominations = {200, 100, 50, 20, 10, 5, 2, 1};
+        int[] quantities = {Integer.MAX_VALUE, 0, 0, 0, 0, 0, 0, 0};
+
+        // 8 denominations x 400,000,001 amounts overflows an int
+        assertThrows(ArithmeticException.class, () -> changeMaker.makeChange(400_000_000, denominations, quantities));
+    }
+
+    @Test
+    void testMatchesExhaustiveSearchOnSmallInventories() {
+
+        Random random = new Random(42);
+        int[] denominations = {25, 10, 7, 3};
+
+        for (int run = 0; run < 500; run++) {
+            int[] quantities = new int[denominations.length];
+            for (int counter = 0; counter < quantities.length; counter++) {
+                quantities[counter] = random.nextInt(5);
+            }
+            int amount = 1 + random.nextInt(80);
+
+            int expected = exhaustiveMinimumWeight(amount, denominations, quantities, new int[]{1, 1, 1, 1}, 0);
+            int[] result = changeMaker.makeChange(amount, denominations, quantities);
+
+            if (expected == Integer.MAX_VALUE) {
+                assertNull(result);
+            }
+            else {
+                assertNotNull(result);
+                assertEquals(amount, valueOf(result, denominations));
+                assertEquals(expected, countOf(result));
+                for (int counter = 0; counter < quantities.length; counter++) {
+                    assertTrue(result[counter] <= quantities[counter]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testWeightedChangeMatchesExhaustiveSearch() {
+
+        // the backtracking change maker weighs coins too, so either solver can serve a weighted strategy
+        for (ChangeMaker solver : new ChangeMaker[]{changeMaker, new BacktrackingChangeMaker()}) {
+            assertWeightedChangeMatchesExhaustiveSearch(solver);
+        }
+    }
+
+    private void assertWeightedChangeMatchesExhaustiveSearch(ChangeMaker solver) {
+
+        Random random = new Random(7);
+        int[] denominations = {25, 10, 7, 3};
+
+        for (int run = 0; run < 500; run++) {
+            int[] quantities = new int[denominations.length];
+            int[] weights = new int[denominations.length];
+            for (int counter = 0; counter < quantities.length; counter++) {
+                quantities[counter] = random.nextInt(5);
+                weights[counter] = 1 + random.nextInt(DispenseStrategy.MAX_COIN_WEIGHT);
+            }
+            int amount = 1 + random.nextInt(80);
+
+            int expected = exhaustiveMinimumWeight(amount, denominations, quantities, weights, 0);
+            int[] result = solver.makeChange(amount, denominations, quantities, weights, new ChangeMakerContext());
+
+            if (expected == Integer.MAX_VALUE) {
+                assertNull(result);
+            }
+            else {
+                assertNotNull(result);
+                assertEquals(amount, valueOf(result, denominations));
+                assertEquals(expected, valueOf(result, weights));
+                for (int counter = 0; counter < quantities.length; counter++) {
+                    assertTrue(result[counter] <= quantities[counter]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testHeavyCoinsAreAvoided() {
+
+        // minimum coins would be 2 x 3, but the threes are heavy
+        int[] result = changeMaker.makeChange(6, new int[]{3, 2, 1}, new int[]{5, 5, 5}, new int[]{8, 1, 1}, new ChangeMakerContext());
+        assertArrayEquals(new int[]{0, 3, 0}, result);
+    }
+
+    private int exhaustiveMinimumWeight(int amount, int[] denominations, int[] quantities, int[] weights, int position) {
+        if (amount == 0) {
+            return 0;
+        }
+        if (position == denominations.length) {
+            return Integer.MAX_VALUE;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int taken = 0; taken <= quantities[position] && taken * denominations[position] <= amount; taken++) {
+            int rest = exhaustiveMinimumWeight(amount - taken * denominations[position], denominations, quantities, weights, position + 1);
+            if (rest != Integer.MAX_VALUE) {
+                best = Math.min(best, rest + taken * weights[position]);
+            }
+        }
+        return best;
+    }
+
+    private int valueOf(int[] counts, int[] denominations) {
+        int value = 0;
+        for (int counter = 0; counter < counts.length; counter++) {
+            value += counts[counter] * denominations[counter];
+        }
+        return value;
+    }
+
+    private int countOf(int[] counts) {
+        int count = 0;
+        for (int value : counts) {
+            count += value;
+        }
+        return count;
+    }
+}
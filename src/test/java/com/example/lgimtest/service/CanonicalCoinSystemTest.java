@@ -0,0 +1,40 @@
+package com.example.lgimtest.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CanonicalCoinSystemTest {
+
+    @Test
+    void testCanonicalCoinSystems() {
+
+        assertTrue(CanonicalCoinSystem.isCanonical(new int[]{200, 100, 50, 20, 10, 5, 2, 1}));
+        assertTrue(CanonicalCoinSystem.isCanonical(new int[]{25, 10, 5, 1}));
+        assertTrue(CanonicalCoinSystem.isCanonical(new int[]{100, 2, 1}));
+        assertTrue(CanonicalCoinSystem.isCanonical(new int[]{1}));
+    }
+
+    @Test
+    void testNonCanonicalCoinSystems() {
+
+        assertFalse(CanonicalCoinSystem.isCanonical(new int[]{4, 3, 1}));
+        assertFalse(CanonicalCoinSystem.isCanonical(new int[]{25, 10, 1}));
+        assertFalse(CanonicalCoinSystem.isCanonical(new int[]{240, 30, 24, 12, 6, 3, 1}));
+        assertFalse(CanonicalCoinSystem.isCanonical(new int[]{10, 5, 2}));
+        assertFalse(CanonicalCoinSystem.isCanonical(new int[]{}));
+    }
+
+    @Test
+    void testGreedyChangeFits() {
+
+        int[] coinDenominations = {100, 2, 1};
+
+        assertTrue(CanonicalCoinSystem.greedyChangeFits(131, coinDenominations, new int[]{15, 25, 30}));
+        // greedy wants 65 tuppences but only 25 are available
+        assertFalse(CanonicalCoinSystem.greedyChangeFits(131, coinDenominations, new int[]{0, 25, 30}));
+        // no pennies left for the odd penny
+        assertFalse(CanonicalCoinSystem.greedyChangeFits(131, coinDenominations, new int[]{15, 25, 0}));
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.persistence.CoinStateJournal;
+import com.example.lgimtest.persistence.CoinStateStore;
+import com.example.lgimtest.persistence.HeapCoinStateStore;
+import com.example.lgimtest.persistence.NoOpCoinStateJournal;
+import com.example.lgimtest.persistence.NoOpDispenseAuditLog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Builds a service for tests with the application's defaults, so a test only sets the collaborators it is about.
+ * Defaults are a heap store, no journal or audit log, no admission limit and a meter registry of its own.
+ */
+public class CoinVendingMachineServiceBuilder {
+
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ChangeCache changeCache;
+
+    private ReachableAmountsIndexes reachableAmountsIndexes;
+
+    private MachineShards machineShards;
+
+    private AdmissionControl admissionControl;
+
+    private CoinStateJournal coinStateJournal;
+
+    private CoinStateStore coinStateStore;
+
+    private CoinStateFeed coinStateFeed;
+
+    public CoinVendingMachineServiceBuilder meterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        return this;
+    }
+
+    public CoinVendingMachineServiceBuilder changeCache(ChangeCache changeCache) {
+        this.changeCache = changeCache;
+        return this;
+    }
+
+    public CoinVendingMachineServiceBuilder reachableAmountsIndexes(ReachableAmountsIndexes reachableAmountsIndexes) {
+        this.reachableAmountsIndexes = reachableAmountsIndexes;
+        return this;
+    }
+
+    public CoinVendingMachineServiceBuilder machineShards(MachineShards machineShards) {
+        this.machineShards = machineShards;
+        return this;
+    }
+
+    public CoinVendingMachineServiceBuilder admissionControl(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+        return this;
+    }
+
+    public CoinVendingMachineServiceBuilder coinStateJournal(CoinStateJournal coinStateJournal) {
+        this.coinStateJournal = coinStateJournal;
+        return this;
+    }
+
+    public CoinVendingMachineServiceBuilder coinStateStore(CoinStateStore coinStateStore) {
+        this.coinStateStore = coinStateStore;
+        return this;
+    }
+
+    public CoinVendingMachineServiceBuilder coinStateFeed(CoinStateFeed coinStateFeed) {
+        this.coinStateFeed = coinStateFeed;
+        return this;
+    }
+
+    /**
+     * Build the service. Collaborators not set are created afresh for each service.
+     * @return the service, with nothing recovered.
+     */
+    public CoinVendingMachineService build() {
+        return new CoinVendingMachineService(new BoundedKnapsackChangeMaker(), new MinimumCoinsStrategy(),
+                changeCache != null ? changeCache : new ChangeCache(1024, meterRegistry),
+                new ChangeQuoter(new BoundedKnapsackChangeMaker(), new MinimumCoinsStrategy(), 2, 10000, 100000),
+                reachableAmountsIndexes != null ? reachableAmountsIndexes : new ReachableAmountsIndexes(1024, meterRegistry),
+                machineShards != null ? machineShards : new MachineShards(4),
+                admissionControl != null ? admissionControl : new AdmissionControl(0, 1),
+                coinStateJournal != null ? coinStateJournal : new NoOpCoinStateJournal(),
+                coinStateStore != null ? coinStateStore : new HeapCoinStateStore(),
+                new NoOpDispenseAuditLog(),
+                new CoinVendingMachineMetrics(meterRegistry, true),
+                coinStateFeed != null ? coinStateFeed : new CoinStateFeed(1, 5000, meterRegistry),
+                new ObjectMapper(), 10000, 100000, 0);
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.lgimtest.service;
+
+import com.example.lgimtest.dto.CoinStateDto;
+import com.example.lgimtest.dto.DispenseResultDto;
+import com.example.lgimtest.dto.DispensedDto;
+import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.dto.UpdateDto;
+import com.example.lgimtest.model.Denomination;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CoinVendingMachineServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int OPERATIONS_PER_THREAD = 5_000;
+
+    private static final String[] NAMES = {"penny", "tuppence", "fivepence", "tenpence", "twentypence", "fiftypence", "pound"};
+    private static final int[] VALUES = {1, 2, 5, 10, 20, 50, 100};
+
+    @Test
+    void testCoinsAreConservedUnderConcurrentDispenseAndUpdate() throws Exception {
+
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder().build();
+        coinVendingMachineService.initialise(setupInitialisationDto(200));
+
+        Map<String, AtomicLong> added = new ConcurrentHashMap<>();
+        Map<String, AtomicLong> dispensed = new ConcurrentHashMap<>();
+        for (String name : NAMES) {
+            added.put(name, new AtomicLong());
+            dispensed.put(name, new AtomicLong());
+        }
+        AtomicInteger successfulDispenses = new AtomicInteger();
+        AtomicLong valueDispensed = new AtomicLong();
+        AtomicLong valueRequested = new AtomicLong();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            futures.add(executorService.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int operation = 0; operation < OPERATIONS_PER_THREAD; operation++) {
+                    if (random.nextInt(10) == 0) {
+                        UpdateDto updateDto = new UpdateDto();
+                        Map<String, Integer> coins = new HashMap<>();
+                        String name = NAMES[random.nextInt(NAMES.length)];
+                        coins.put(name, 1 + random.nextInt(20));
+                        updateDto.setAddCoinAmounts(coins);
+                        coinVendingMachineService.update(updateDto);
+                        added.get(name).addAndGet(coins.get(name));
+                    }
+                    else {
+                        int amount = 1 + random.nextInt(300);
+                        try {
+                            DispensedDto dto = coinVendingMachineService.dispense(amount);
+                            long value = 0;
+                            for (int index = 0; index < NAMES.length; index++) {
+                                int coins = dto.getDispensedCoinAmounts().getOrDefault(NAMES[index], 0);
+                                dispensed.get(NAMES[index]).addAndGet(coins);
+                                value += (long) coins * VALUES[index];
+                            }
+                            valueDispensed.addAndGet(value);
+                            valueRequested.addAndGet(amount);
+                            successfulDispenses.incrementAndGet();
+                        }
+                        catch (IllegalStateException e) {
+                            assertEquals("Cannot dispense correct amount with available coins.", e.getMessage());
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        CoinStateDto dto = coinVendingMachineService.get();
+        for (String name : NAMES) {
+            long expected = 200 + added.get(name).get() - dispensed.get(name).get();
+            assertTrue(expected >= 0);
+            assertEquals(expected, (long) dto.getCoinAmounts().getOrDefault(name, 0), name);
+        }
+        assertEquals(valueRequested.get(), valueDispensed.get());
+        assertTrue(successfulDispenses.get() > 0);
+    }
+
+    @Test
+    void testMachineIsInitialisedOnlyOnceUnderConcurrentInitialise() throws Exception {
+
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder().build();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger initialised = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            futures.add(executorService.submit(() -> {
+                start.await();
+                try {
+                    coinVendingMachineService.initialise(setupInitialisationDto(10));
+                    initialised.incrementAndGet();
+                }
+                catch (IllegalStateException e) {
+                    assertEquals("Vending Machine is already initialised. Cannot initialise it again.", e.getMessage());
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        assertEquals(1, initialised.get());
+        assertThrows(IllegalStateException.class, () -> coinVendingMachineService.initialise(setupInitialisationDto(10)));
+    }
+
+    @Test
+    void testCoinsAreConservedAcrossManyMachines() throws Exception {
+
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder().build();
+        int machines = 64;
+        for (int machine = 0; machine < machines; machine++) {
+            coinVendingMachineService.initialise("machine-" + machine, setupInitialisationDto(50));
+        }
+
+        AtomicLong[] valueDispensed = new AtomicLong[machines];
+        for (int machine = 0; machine < machines; machine++) {
+            valueDispensed[machine] = new AtomicLong();
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            futures.add(executorService.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int operation = 0; operation < OPERATIONS_PER_THREAD / 5; operation++) {
+                    int machine = random.nextInt(machines);
+                    int amount = 1 + random.nextInt(300);
+                    try {
+                        coinVendingMachineService.dispense("machine-" + machine, amount);
+                        valueDispensed[machine].addAndGet(amount);
+                    }
+                    catch (IllegalStateException e) {
+                        assertEquals("Cannot dispense correct amount with available coins.", e.getMessage());
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        long initialValue = 0;
+        for (int value : VALUES) {
+            initialValue += 50L * value;
+        }
+        for (int machine = 0; machine < machines; machine++) {
+            CoinStateDto dto = coinVendingMachineService.get("machine-" + machine);
+            long value = 0;
+            for (int index = 0; index < NAMES.length; index++) {
+                value += (long) dto.getCoinAmounts().getOrDefault(NAMES[index], 0) * VALUES[index];
+            }
+            assertEquals(initialValue - valueDispensed[machine].get(), value);
+        }
+    }
+
+    @Test
+    void testUpdatesWaitingForTheShardAreAppliedTogether() throws Exception {
+
+        MachineShards machineShards = new MachineShards(1);
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder().machineShards(machineShards).build();
+        coinVendingMachineService.initialise(setupInitialisationDto(0));
+        long version = coinVendingMachineService.getSnapshot().getVersion();
+
+        // hold the shard so the updates queue up behind it
+        CountDownLatch release = new CountDownLatch(1);
+        holdShard(machineShards, release);
+
+        List<CompletableFuture<CoinStateDto>> results = new ArrayList<>();
+        for (int update = 0; update < 50; update++) {
+            UpdateDto updateDto = new UpdateDto();
+            Map<String, Integer> coins = new HashMap<>();
+            coins.put(NAMES[update % NAMES.length], 1);
+            updateDto.setAddCoinAmounts(coins);
+            results.add(coinVendingMachineService.updateAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, updateDto));
+        }
+        UpdateDto badUpdateDto = new UpdateDto();
+        badUpdateDto.setAddCoinAmounts(Map.of("groat", 1));
+        CompletableFuture<CoinStateDto> badResult = coinVendingMachineService.updateAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, badUpdateDto);
+        release.countDown();
+
+        for (CompletableFuture<CoinStateDto> result : results) {
+            CoinStateDto coinStateDto = result.get(10, TimeUnit.SECONDS);
+            int total = coinStateDto.getCoinAmounts().values().stream().mapToInt(Integer::intValue).sum();
+            assertEquals(50, total);
+        }
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> badResult.get(10, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        assertEquals(version + 1, coinVendingMachineService.getSnapshot().getVersion());
+    }
+
+    @Test
+    void testDispensesBeyondTheCapAreTurnedAwayButUpdatesAreNot() throws Exception {
+
+        MachineShards machineShards = new MachineShards(1);
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder()
+                .machineShards(machineShards)
+                .admissionControl(new AdmissionControl(2, 3))
+                .build();
+        coinVendingMachineService.initialise(setupInitialisationDto(10));
+
+        // hold the shard so the dispenses stay in flight
+        CountDownLatch release = new CountDownLatch(1);
+        holdShard(machineShards, release);
+
+        CompletableFuture<DispensedDto> first = coinVendingMachineService.dispenseAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, 1);
+        CompletableFuture<List<DispenseResultDto>> second = coinVendingMachineService.dispenseBatchAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, List.of(1));
+        CompletableFuture<DispensedDto> third = coinVendingMachineService.dispenseAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, 1);
+        assertTrue(third.isCompletedExceptionally());
+        MachineOverloadedException exception = assertThrows(MachineOverloadedException.class,
+                () -> MachineShards.join(third));
+        assertEquals(3, exception.getRetryAfterSeconds());
+
+        UpdateDto updateDto = new UpdateDto();
+        updateDto.setAddCoinAmounts(Map.of(NAMES[0], 1));
+        CompletableFuture<CoinStateDto> update = coinVendingMachineService.updateAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, updateDto);
+        release.countDown();
+
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        update.get(10, TimeUnit.SECONDS);
+        // both slots are free again
+        assertNotNull(coinVendingMachineService.dispense(CoinVendingMachineService.DEFAULT_MACHINE_ID, 1));
+        assertNotNull(coinVendingMachineService.dispenseAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, 1).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testUpdatesRunAheadOfQueuedDispenses() throws Exception {
+
+        MachineShards machineShards = new MachineShards(1);
+        CoinVendingMachineService coinVendingMachineService = new CoinVendingMachineServiceBuilder().machineShards(machineShards).build();
+        coinVendingMachineService.initialise(setupInitialisationDto(10));
+
+        // hold the shard so the dispense is queued before the update
+        CountDownLatch release = new CountDownLatch(1);
+        holdShard(machineShards, release);
+
+        // the machine holds 1880, so this can only be paid once the refill has run
+        CompletableFuture<DispensedDto> dispense = coinVendingMachineService.dispenseAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, 2000);
+        UpdateDto updateDto = new UpdateDto();
+        updateDto.setAddCoinAmounts(Map.of("pound", 2));
+        CompletableFuture<CoinStateDto> update = coinVendingMachineService.updateAsync(CoinVendingMachineService.DEFAULT_MACHINE_ID, updateDto);
+        release.countDown();
+
+        assertEquals(12, update.get(10, TimeUnit.SECONDS).getCoinAmounts().get("pound"));
+        DispensedDto dispensed = dispense.get(10, TimeUnit.SECONDS);
+        assertEquals(2000, dispensed.getDispensedCoinAmounts().entrySet().stream()
+                .mapToInt(entry -> entry.getValue() * VALUES[List.of(NAMES).indexOf(entry.getKey())]).sum());
+    }
+
+    /**
+     * Hold the default machine's shard until released, returning once the hold is running, so work queued after
+     * this, including work queued ahead of the shard's queue, waits behind it.
+     */
+    private static void holdShard(MachineShards machineShards, CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        machineShards.submit(CoinVendingMachineService.DEFAULT_MACHINE_ID, () -> {
+            started.countDown();
+            try {
+                return release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    private InitialisationDto setupInitialisationDto(int coinsPerDenomination) {
+        InitialisationDto initDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        Map<String, Integer> coins = new HashMap<>();
+        for (int index = 0; index < NAMES.length; index++) {
+            denominations.add(new Denomination(NAMES[index], VALUES[index]));
+            coins.put(NAMES[index], coinsPerDenomination);
+        }
+        initDto.setDenominations(denominations);
+        initDto.setInitialCoinAmounts(coins);
+        return initDto;
+    }
+}
@@ -1,29 +1,68 @@
 package com.example.lgimtest.service;
 
+import com.example.lgimtest.dto.CoinStateChangeDto;
 import com.example.lgimtest.dto.CoinStateDto;
+import com.example.lgimtest.dto.CoinStateSnapshot;
+import com.example.lgimtest.dto.DispensableDto;
+import com.example.lgimtest.dto.DispensableOutcome;
+import com.example.lgimtest.dto.DispenseBatchOutcome;
+import com.example.lgimtest.dto.DispenseFailure;
+import com.example.lgimtest.dto.DispenseOutcome;
+import com.example.lgimtest.dto.DispenseResultDto;
 import com.example.lgimtest.dto.DispensedDto;
 import com.example.lgimtest.dto.InitialisationDto;
+import com.example.lgimtest.dto.QuoteDto;
 import com.example.lgimtest.dto.UpdateDto;
 import com.example.lgimtest.model.Denomination;
+import com.example.lgimtest.model.DenominationTable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CoinVendingMachineServiceTest {
 
     private CoinVendingMachineService coinVendingMachineService;
 
+    private MeterRegistry meterRegistry;
+
+    private ChangeCache changeCache;
+
     @BeforeEach
     void setup() {
-        coinVendingMachineService = new CoinVendingMachineService();
+        meterRegistry = new SimpleMeterRegistry();
+        changeCache = new ChangeCache(1024, meterRegistry);
+        coinVendingMachineService = new CoinVendingMachineServiceBuilder()
+                .meterRegistry(meterRegistry)
+                .changeCache(changeCache)
+                .build();
     }
 
     @Test
@@ -37,6 +76,25 @@ public class CoinVendingMachineServiceTest {
 
     }
 
+    @Test
+    void testServiceRejectsDenominationsTooManyOrTooLongToEncode() {
+
+        List<Denomination> denominations = new ArrayList<>();
+        for (int value = 1; value <= DenominationTable.MAX_DENOMINATIONS + 1; value++) {
+            denominations.add(new Denomination("coin-" + value, value));
+        }
+        InitialisationDto tooMany = new InitialisationDto();
+        tooMany.setDenominations(denominations);
+        IllegalStateException result = assertThrows(IllegalStateException.class,
+                () -> coinVendingMachineService.initialise("machine-1", tooMany));
+        assertEquals("A machine can have at most 255 denominations. Cannot initialise coin vending machine.", result.getMessage());
+
+        InitialisationDto tooLong = new InitialisationDto();
+        tooLong.setDenominations(Arrays.asList(new Denomination("\u00e9".repeat(126), 1)));
+        result = assertThrows(IllegalStateException.class, () -> coinVendingMachineService.initialise("machine-2", tooLong));
+        assertEquals("Denomination names must be at most 250 bytes long. Cannot initialise coin vending machine.", result.getMessage());
+    }
+
     @Test
     void testServiceUpdateWithoutInitialisationCausesException() {
 
@@ -96,6 +154,397 @@ public class CoinVendingMachineServiceTest {
         assertEquals("Cannot dispense correct amount with available coins.", result.getMessage());
     }
 
+    @Test
+    void testServiceDispenseOutcomeReturnsFailures() {
+
+        assertSame(DispenseOutcome.NOT_INITIALISED, coinVendingMachineService.dispenseOutcome(3));
+        // turned away without queueing on the shard
+        CompletableFuture<DispenseOutcome> unknownMachine = coinVendingMachineService.dispenseOutcomeAsync("unknown", 3);
+        assertTrue(unknownMachine.isDone());
+        assertSame(DispenseOutcome.NOT_INITIALISED, unknownMachine.join());
+        CompletableFuture<DispenseBatchOutcome> unknownMachineBatch = coinVendingMachineService.dispenseBatchOutcomeAsync("unknown", List.of(3));
+        assertTrue(unknownMachineBatch.isDone());
+        assertSame(DispenseBatchOutcome.NOT_INITIALISED, unknownMachineBatch.join());
+        assertSame(DispensableOutcome.NOT_INITIALISED, coinVendingMachineService.dispensableOutcome("unknown", 3));
+
+        coinVendingMachineService.initialise(setupInitialisationDto());
+
+        assertSame(DispenseOutcome.INVALID_AMOUNT, coinVendingMachineService.dispenseOutcome(0));
+        assertSame(DispensableOutcome.INVALID_AMOUNT, coinVendingMachineService.dispensableOutcome(0));
+        assertSame(DispensableOutcome.OVER_DISPENSABLE_CEILING, coinVendingMachineService.dispensableOutcome(10001));
+        assertSame(DispenseOutcome.AMOUNT_TOO_LARGE, coinVendingMachineService.dispenseOutcome(100001));
+        assertEquals(DispenseFailure.AMOUNT_TOO_LARGE.getMessage(),
+                coinVendingMachineService.dispenseBatch(List.of(100001)).get(0).getMessage());
+        assertFalse(coinVendingMachineService.quote(List.of(100001)).get(0).isDispensable());
+        assertSame(DispenseOutcome.CANNOT_MAKE_CHANGE, coinVendingMachineService.dispenseOutcome(3004));
+        assertEquals(DispenseFailure.CANNOT_MAKE_CHANGE, coinVendingMachineService.dispenseOutcome(3004).getFailure());
+
+        DispenseOutcome outcome = coinVendingMachineService.dispenseOutcome(131);
+        assertTrue(outcome.isDispensed());
+        assertEquals(1, outcome.getDispensed().getDispensedCoinAmounts().get("penny"));
+    }
+
+    @Test
+    void testServiceDispenseRecordsFlightRecorderEvents() throws Exception {
+
+        List<RecordedEvent> events;
+        Path recordingFile = Files.createTempFile("dispense", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.example.lgimtest.*");
+            recording.start();
+            coinVendingMachineService.initialise(setupInitialisationDto());
+            coinVendingMachineService.dispense(131);
+            coinVendingMachineService.dispenseOutcome(3004);
+            recording.stop();
+            recording.dump(recordingFile);
+            events = RecordingFile.readAllEvents(recordingFile);
+        }
+        finally {
+            Files.deleteIfExists(recordingFile);
+        }
+
+        assertEquals(1, events.stream().filter(event -> event.getEventType().getName().equals("com.example.lgimtest.Validation")).count());
+        assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("com.example.lgimtest.ShardWait")));
+
+        List<RecordedEvent> dispenses = events.stream()
+                .filter(event -> event.getEventType().getName().equals("com.example.lgimtest.Dispense"))
+                .collect(Collectors.toList());
+        assertEquals(2, dispenses.size());
+        RecordedEvent dispensed = dispenses.stream().filter(event -> event.getBoolean("dispensed")).findFirst().orElseThrow();
+        assertEquals(131, dispensed.getInt("amount"));
+        assertEquals(1 + 15 + 1, dispensed.getInt("coins"));
+        assertEquals(1, dispensed.getInt("attempts"));
+        RecordedEvent notDispensed = dispenses.stream().filter(event -> !event.getBoolean("dispensed")).findFirst().orElseThrow();
+        assertEquals(3004, notDispensed.getInt("amount"));
+        assertEquals(1, notDispensed.getInt("attempts"));
+
+        assertEquals(2, events.stream().filter(event -> event.getEventType().getName().equals("com.example.lgimtest.Solve")).count());
+        assertEquals(1, events.stream().filter(event -> event.getEventType().getName().equals("com.example.lgimtest.CoinStateChange")).count());
+    }
+
+    @Test
+    void testServiceDispenseFallsBackWhenGreedyDoesNotFit() {
+
+        coinVendingMachineService.initialise(setupInitialisationDto());
+
+        // greedy change is 34 tuppences and a penny but only 25 tuppences are available
+        DispensedDto dto = coinVendingMachineService.dispense(69);
+        assertEquals(19, dto.getDispensedCoinAmounts().get("penny"));
+        assertEquals(25, dto.getDispensedCoinAmounts().get("tuppence"));
+        assertNull(dto.getDispensedCoinAmounts().get("pound"));
+    }
+
+    @Test
+    void testServiceDispenseNonCanonicalOk() {
+
+        InitialisationDto initDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        denominations.add(new Denomination("one", 1));
+        denominations.add(new Denomination("three", 3));
+        denominations.add(new Denomination("four", 4));
+        initDto.setDenominations(denominations);
+
+        Map<String,Integer> coins = new HashMap<>();
+        coins.put("one", 5);
+        coins.put("three", 5);
+        coins.put("four", 5);
+        initDto.setInitialCoinAmounts(coins);
+
+        coinVendingMachineService.initialise(initDto);
+
+        DispensedDto dto = coinVendingMachineService.dispense(6);
+        assertEquals(2, dto.getDispensedCoinAmounts().get("three"));
+        assertEquals(1, dto.getDispensedCoinAmounts().size());
+    }
+
+    @Test
+    void testServiceDispenseReusesCachedChange() {
+
+        InitialisationDto initDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        denominations.add(new Denomination("one", 1));
+        denominations.add(new Denomination("three", 3));
+        denominations.add(new Denomination("four", 4));
+        initDto.setDenominations(denominations);
+
+        Map<String,Integer> coins = new HashMap<>();
+        coins.put("one", 5);
+        coins.put("three", 5);
+        coins.put("four", 5);
+        initDto.setInitialCoinAmounts(coins);
+
+        coinVendingMachineService.initialise(initDto);
+
+        // at most two threes can be used for 6, so having 5 or 3 left makes no difference
+        assertEquals(2, coinVendingMachineService.dispense(6).getDispensedCoinAmounts().get("three"));
+        assertEquals(2, coinVendingMachineService.dispense(6).getDispensedCoinAmounts().get("three"));
+        assertEquals(1, changeCache.getHits());
+        assertEquals(1, changeCache.getMisses());
+
+        // only one three is left, so the cached change no longer applies
+        DispensedDto dto = coinVendingMachineService.dispense(6);
+        assertEquals(1, dto.getDispensedCoinAmounts().get("four"));
+        assertEquals(2, dto.getDispensedCoinAmounts().get("one"));
+        assertEquals(2, changeCache.getMisses());
+    }
+
+    @Test
+    void testServiceSnapshotReusedUntilCoinsChange() throws Exception {
+
+        InitialisationDto initDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        denominations.add(new Denomination("one", 1));
+        denominations.add(new Denomination("two", 2));
+        initDto.setDenominations(denominations);
+
+        Map<String,Integer> coins = new HashMap<>();
+        coins.put("one", 3);
+        coins.put("two", 3);
+        initDto.setInitialCoinAmounts(coins);
+
+        coinVendingMachineService.initialise(initDto);
+
+        CoinStateSnapshot snapshot = coinVendingMachineService.getSnapshot();
+        assertSame(snapshot, coinVendingMachineService.getSnapshot());
+        assertEquals(3, new ObjectMapper().readTree(snapshot.getBody()).path("coinAmounts").path("two").asInt());
+
+        coinVendingMachineService.dispense(2);
+
+        CoinStateSnapshot nextSnapshot = coinVendingMachineService.getSnapshot();
+        assertNotEquals(snapshot.getETag(), nextSnapshot.getETag());
+        assertEquals(2, new ObjectMapper().readTree(nextSnapshot.getBody()).path("coinAmounts").path("two").asInt());
+    }
+
+    @Test
+    void testServiceQuoteDoesNotDispense() {
+
+        InitialisationDto initDto = new InitialisationDto();
+        List<Denomination> denominations = new ArrayList<>();
+        denominations.add(new Denomination("one", 1));
+        denominations.add(new Denomination("three", 3));
+        denominations.add(new Denomination("four", 4));
+        initDto.setDenominations(denominations);
+
+        Map<String,Integer> coins = new HashMap<>();
+        coins.put("one", 1);
+        coins.put("three", 2);
+        coins.put("four", 1);
+        initDto.setInitialCoinAmounts(coins);
+
+        coinVendingMachineService.initialise(initDto);
+
+        // enough amounts to be split between threads, each quoted against the same coins
+        List<Integer> amounts = new ArrayList<>();
+        for (int amount = 0; amount <= 100; amount++) {
+            amounts.add(amount);
+        }
+        List<QuoteDto> quotes = coinVendingMachineService.quote(amounts);
+
+        assertEquals(101, quotes.size());
+        assertFalse(quotes.get(0).isDispensable());
+        assertEquals(2, quotes.get(6).getCoinAmounts().get("three"));
+        assertEquals(1, quotes.get(6).getCoinAmounts().size());
+        assertTrue(quotes.get(11).isDispensable());
+        assertFalse(quotes.get(2).isDispensable());
+        assertEquals("Cannot dispense correct amount with available coins.", quotes.get(12).getMessage());
+        for (int amount = 0; amount <= 100; amount++) {
+            assertEquals(amount, quotes.get(amount).getAmountRequested());
+        }
+
+        assertEquals(2, coinVendingMachineService.get().getCoinAmounts().get("three"));
+    }
+
+    @Test
+    void testMachinesAreIndependent() {
+
+        coinVendingMachineService.initialise("machine-1", setupInitialisationDto());
+        coinVendingMachineService.initialise("machine-2", setupInitialisationDto());
+
+        coinVendingMachineService.dispense("machine-1", 131);
+
+        assertEquals(30-1, coinVendingMachineService.get("machine-1").getCoinAmounts().get("penny"));
+        assertEquals(30, coinVendingMachineService.get("machine-2").getCoinAmounts().get("penny"));
+        assertTrue(coinVendingMachineService.get().getCoinAmounts().isEmpty());
+
+        IllegalStateException result = assertThrows(IllegalStateException.class, () -> {
+            coinVendingMachineService.dispense("machine-3", 1);
+        });
+        assertEquals("Vending Machine has not been initialised. Cannot dispense anything.", result.getMessage());
+    }
+
+    @Test
+    void testServiceDispenseBatchOk() {
+
+        coinVendingMachineService.initialise(setupInitialisationDto());
+
+        List<DispenseResultDto> results = coinVendingMachineService.dispenseBatch(Arrays.asList(131, 0, 3004, 100));
+        assertEquals(4, results.size());
+
+        assertTrue(results.get(0).isDispensed());
+        assertEquals(131, results.get(0).getAmountRequested());
+        assertEquals(15, results.get(0).getDispensedCoinAmounts().get("tuppence"));
+
+        assertFalse(results.get(1).isDispensed());
+        assertEquals("Cannot dispense a negative or zero amount.", results.get(1).getMessage());
+
+        assertFalse(results.get(2).isDispensed());
+        assertEquals("Cannot dispense correct amount with available coins.", results.get(2).getMessage());
+
+        assertTrue(results.get(3).isDispensed());
+        assertEquals(1, results.get(3).getDispensedCoinAmounts().get("pound"));
+
+        assertEquals(15-2, coinVendingMachineService.get().getCoinAmounts().get("pound"));
+    }
+
+    @Test
+    void testServiceDispensableOk() {
+
+        coinVendingMachineService.initialise(setupInitialisationDto());
+
+        DispensableDto dto = coinVendingMachineService.dispensable(1580);
+        assertTrue(dto.isDispensable());
+        assertEquals(1580, dto.getLargestDispensableAmount());
+
+        // 15 pounds, 25 tuppences and 30 pennies
+        dto = coinVendingMachineService.dispensable(3004);
+        assertFalse(dto.isDispensable());
+        assertEquals(1580, dto.getLargestDispensableAmount());
+
+        coinVendingMachineService.dispense(80);
+        dto = coinVendingMachineService.dispensable(1580);
+        assertFalse(dto.isDispensable());
+        assertEquals(1500, dto.getLargestDispensableAmount());
+    }
+
+    @Test
+    void testDispensableIndexesAreReleasedBeyondTheMaximum() {
+
+        ReachableAmountsIndexes reachableAmountsIndexes = new ReachableAmountsIndexes(2, meterRegistry);
+        CoinVendingMachineService service = new CoinVendingMachineServiceBuilder()
+                .reachableAmountsIndexes(reachableAmountsIndexes)
+                .build();
+        for (int machine = 1; machine <= 3; machine++) {
+            service.initialise("machine-" + machine, setupInitialisationDto());
+        }
+
+        service.dispensable("machine-1", 1580);
+        service.dispensable("machine-2", 1580);
+        // machine-1 has been checked again since its index was built, so machine-2 makes way for machine-3
+        service.dispensable("machine-1", 1580);
+        service.dispensable("machine-3", 1580);
+        assertEquals(2, reachableAmountsIndexes.size());
+        assertEquals(1, reachableAmountsIndexes.getReleases());
+
+        // a released index is built again, from the coins as they are now
+        service.dispense("machine-2", 80);
+        DispensableDto dto = service.dispensable("machine-2", 1580);
+        assertFalse(dto.isDispensable());
+        assertEquals(1500, dto.getLargestDispensableAmount());
+        assertEquals(2, reachableAmountsIndexes.size());
+    }
+
+    @Test
+    void testChangesAreCoalescedForSlowSubscribers() throws Exception {
+
+        coinVendingMachineService.initialise(setupInitialisationDto());
+
+        BlockingQueue<CoinStateChangeDto> changes = new LinkedBlockingQueue<>();
+        CountDownLatch slowConsumer = new CountDownLatch(1);
+        coinVendingMachineService.subscribe(CoinVendingMachineService.DEFAULT_MACHINE_ID, change -> {
+            changes.add(change);
+            slowConsumer.await();
+        });
+
+        CoinStateChangeDto first = changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals(3, first.getCoinAmounts().size());
+        assertEquals(30, first.getCoinAmounts().get("penny"));
+
+        // the subscriber is still busy with the first change, so these are merged into one
+        coinVendingMachineService.dispense(101);
+        coinVendingMachineService.dispense(1);
+        coinVendingMachineService.dispense(2);
+        slowConsumer.countDown();
+
+        CoinStateChangeDto second = changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull(second);
+        assertEquals(30-2, second.getCoinAmounts().get("penny"));
+        assertEquals(25-1, second.getCoinAmounts().get("tuppence"));
+        assertEquals(15-1, second.getCoinAmounts().get("pound"));
+        assertEquals(first.getVersion() + 3, second.getVersion());
+        assertNull(changes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testSubscribersThatStopReadingAreDroppedWithoutStallingTheOthers() throws Exception {
+
+        MeterRegistry feedRegistry = new SimpleMeterRegistry();
+        CoinVendingMachineService service = new CoinVendingMachineServiceBuilder()
+                .meterRegistry(meterRegistry)
+                .changeCache(changeCache)
+                .coinStateFeed(new CoinStateFeed(1, 200, feedRegistry))
+                .build();
+        service.initialise(setupInitialisationDto());
+
+        // holds the only delivery thread, ignoring the interrupt, until the end of the test
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch dropped = new CountDownLatch(1);
+        service.subscribe(CoinVendingMachineService.DEFAULT_MACHINE_ID, new CoinStateFeed.Listener() {
+
+            @Override
+            public void onChange(CoinStateChangeDto change) {
+                stuck.countDown();
+                while (released.getCount() > 0) {
+                    try {
+                        released.await();
+                    }
+                    catch (InterruptedException e) {
+                        // keep blocking, like a write the connector does not abort
+                    }
+                }
+            }
+
+            @Override
+            public void onDropped() {
+                dropped.countDown();
+            }
+        });
+        assertTrue(stuck.await(5, TimeUnit.SECONDS));
+
+        BlockingQueue<CoinStateChangeDto> changes = new LinkedBlockingQueue<>();
+        service.subscribe(CoinVendingMachineService.DEFAULT_MACHINE_ID, changes::add);
+        assertNotNull(changes.poll(5, TimeUnit.SECONDS));
+        service.dispense(1);
+        CoinStateChangeDto change = changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull(change);
+        assertEquals(30-1, change.getCoinAmounts().get("penny"));
+
+        assertEquals(1, feedRegistry.get("lgimtest.feed.dropped").counter().count());
+        assertEquals(1, feedRegistry.get("lgimtest.feed.subscribers").gauge().value());
+
+        // told it was dropped once its send returns, so it can close the connection
+        assertEquals(1, dropped.getCount());
+        released.countDown();
+        assertTrue(dropped.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testServiceDispenseRecordsMetrics() {
+
+        coinVendingMachineService.initialise(setupInitialisationDto());
+
+        coinVendingMachineService.dispense(69);
+        coinVendingMachineService.dispense(100);
+        assertThrows(IllegalStateException.class, () -> coinVendingMachineService.dispense(3004));
+
+        assertEquals(3, meterRegistry.get("lgimtest.dispense").timer().count());
+        assertEquals(1, meterRegistry.get("lgimtest.dispense.solver.work").tag("solver", "greedy").summary().count());
+        assertEquals(2, meterRegistry.get("lgimtest.dispense.solver.work").tag("solver", "changeMaker").summary().count());
+        assertEquals(1, meterRegistry.get("lgimtest.dispense.failures").tag("reason", "cannotMakeChange").counter().count());
+        assertEquals(30-19, meterRegistry.get("lgimtest.inventory.coins").tag("denomination", "penny").gauge().value());
+    }
+
     private InitialisationDto setupInitialisationDto() {
         InitialisationDto initDto = new InitialisationDto();
         List<Denomination> denominations = new ArrayList<>();
@@ -0,0 +1,38 @@
+package com.example.lgimtest.simulation;
+
+import com.example.lgimtest.service.BalancedInventoryStrategy;
+import com.example.lgimtest.service.MinimumCoinsStrategy;
+import com.example.lgimtest.service.PreserveScarceStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DispenseStrategySimulatorTest {
+
+    @Test
+    void testStrategiesPayOutTheAmountsRequested() {
+
+        int[] coinDenominations = {50, 20, 10, 5, 2, 1};
+        int[] startingCoins = {1, 2, 9, 1, 9, 2};
+        DispenseStrategySimulator.Trace trace = DispenseStrategySimulator.Trace.random(200, 60, 3);
+
+        // refilled before every amount, so each amount is made from the same coins
+        List<DispenseStrategySimulator.Result> results = DispenseStrategySimulator.simulate(List.of(trace),
+                coinDenominations, startingCoins, 1,
+                List.of(new MinimumCoinsStrategy(), new PreserveScarceStrategy(), new BalancedInventoryStrategy()));
+
+        long total = Arrays.stream(trace.getAmounts()).asLongStream().sum();
+        DispenseStrategySimulator.Result minimumCoins = results.get(0);
+        for (DispenseStrategySimulator.Result result : results) {
+            assertEquals(0, result.failures);
+            assertEquals(-1, result.firstFailure);
+            assertEquals(total, result.valuePaidOut);
+            assertTrue(minimumCoins.coinsPaidOut <= result.coinsPaidOut);
+        }
+        assertTrue(minimumCoins.coinsPaidOut < results.get(1).coinsPaidOut);
+    }
+}